@@ -15,6 +15,7 @@
  */
 package com.facebook.collectionsbase;
 
+import com.facebook.memory.UnsafeByteArrays;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
@@ -61,27 +62,26 @@ public class Lists {
   }
 
   /**
+   * compares byte arrays lexicographically using signed byte values. Compares 8 bytes at a time
+   *
    * @param array1
    * @param array2
-   * @return
+   * @return -1, 0, 1 according to Comparator specs
    */
   public static int compareArrays(byte[] array1, byte[] array2) {
-    int minLength = Math.min(array1.length, array2.length);
-    for (int i = 0; i < minLength; i++) {
-      int result = (array1[i] - array2[i]);
-
-      if (result != 0) {
-        return Integer.signum(result);
-      }
-    }
+    return Integer.signum(UnsafeByteArrays.compareSigned(array1, array2));
+  }
 
-    if (array1.length == array2.length) {
-      return 0;
-    } else if (array1.length > array2.length) {
-      return 1;
-    } else {
-      return -1;
-    }
+  /**
+   * compares byte arrays lexicographically using unsigned byte values (0x00 < 0x7f < 0x80 < 0xff).
+   * Compares 8 bytes at a time
+   *
+   * @param array1
+   * @param array2
+   * @return -1, 0, 1 according to Comparator specs
+   */
+  public static int compareArraysUnsigned(byte[] array1, byte[] array2) {
+    return Integer.signum(UnsafeByteArrays.compareUnsigned(array1, array2));
   }
 
   public static <T extends Comparable<? super T>> int compareArrays(T[] array1, T[] array2) {
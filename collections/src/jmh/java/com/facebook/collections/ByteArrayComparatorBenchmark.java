@@ -0,0 +1,79 @@
+package com.facebook.collections;
+
+import com.facebook.collectionsbase.Lists;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** word-at-a-time comparators vs. the getAdjusted() byte loop they replaced */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 1, warmups = 1)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 30, time = 1, timeUnit = TimeUnit.SECONDS)
+public class ByteArrayComparatorBenchmark {
+
+  // keys share everything but the last byte, the worst case for a prefix scan
+  @Param({"8", "32", "128", "1024"})
+  int keyLength;
+
+  byte[] bytes1;
+  byte[] bytes2;
+  ByteArray array1;
+  ByteArray array2;
+
+  @Setup
+  public void init() {
+    bytes1 = new byte[keyLength];
+    new Random(0).nextBytes(bytes1);
+    bytes2 = bytes1.clone();
+    bytes2[keyLength - 1]++;
+    array1 = ByteArray.wrap(bytes1);
+    array2 = ByteArray.wrap(bytes2);
+  }
+
+  public static void main(String[] args) throws Exception {
+    org.openjdk.jmh.Main.main(args);
+  }
+
+  @Benchmark
+  public int byteAtATime() {
+    int length = Math.min(array1.getLength(), array2.getLength());
+
+    for (int i = 0; i < length; i++) {
+      if (array1.getAdjusted(i) < array2.getAdjusted(i)) {
+        return -1;
+      } else if (array1.getAdjusted(i) > array2.getAdjusted(i)) {
+        return 1;
+      }
+    }
+
+    return Integer.compare(array1.getLength(), array2.getLength());
+  }
+
+  @Benchmark
+  public int byteArrayComparator() {
+    return ByteArray.BYTE_ARRAY_COMPARATOR.compare(array1, array2);
+  }
+
+  @Benchmark
+  public int unsignedByteArrayComparator() {
+    return ByteArray.UNSIGNED_BYTE_ARRAY_COMPARATOR.compare(array1, array2);
+  }
+
+  @Benchmark
+  public int listsCompareArraysUnsigned() {
+    return Lists.compareArraysUnsigned(bytes1, bytes2);
+  }
+}
@@ -15,6 +15,7 @@
  */
 package com.facebook.collections;
 
+import com.facebook.memory.UnsafeByteArrays;
 import com.google.common.base.Preconditions;
 import java.util.Arrays;
 import java.util.Comparator;
@@ -24,7 +25,16 @@ import java.util.Comparator;
  * HashSet; also implements Comparable
  */
 public abstract class ByteArray implements Comparable<ByteArray> {
-  public static final ByteArrayComparator BYTE_ARRAY_COMPARATOR = new ByteArrayComparator();
+  /** orders by signed byte values, see {@link Byte#compare(byte, byte)} */
+  public static final ByteArrayComparator BYTE_ARRAY_COMPARATOR = new ByteArrayComparator(false);
+  /**
+   * orders by unsigned byte values (0x00 < 0x7f < 0x80 < 0xff). This is the ordering for keys built
+   * by {@link PackedByteArray#packComparable(java.util.List)}
+   */
+  public static final ByteArrayComparator UNSIGNED_BYTE_ARRAY_COMPARATOR =
+      new ByteArrayComparator(true);
+
+  private static final int NO_DIRECT_ACCESS = -1;
 
   public abstract byte[] getArray();
 
@@ -32,6 +42,14 @@ public abstract class ByteArray implements Comparable<ByteArray> {
 
   public abstract byte getAdjusted(int pos);
 
+  /**
+   * @return position of getAdjusted(0) in getArray() if the two are backed by the same bytes, else
+   *     NO_DIRECT_ACCESS (subclasses outside this file make no such promise)
+   */
+  int getDirectOffset() {
+    return NO_DIRECT_ACCESS;
+  }
+
   public static ByteArray wrap(byte[] array) {
     return new PureByteArray(array);
   }
@@ -106,6 +124,11 @@ public abstract class ByteArray implements Comparable<ByteArray> {
       return array[pos];
     }
 
+    @Override
+    int getDirectOffset() {
+      return 0;
+    }
+
     @Override
     public int compareTo(ByteArray o) {
       return BYTE_ARRAY_COMPARATOR.compare(this, o);
@@ -156,6 +179,11 @@ public abstract class ByteArray implements Comparable<ByteArray> {
       return array[offset + pos];
     }
 
+    @Override
+    int getDirectOffset() {
+      return offset;
+    }
+
     @Override
     public int hashCode() {
       int result = array != null ? Arrays.hashCode(array) : 0;
@@ -183,7 +211,75 @@ public abstract class ByteArray implements Comparable<ByteArray> {
     }
   }
 
-  private static class ByteArrayComparator implements Comparator<ByteArray> {
+  /**
+   * flyweight view whose range can be moved; lets scans over packed data hand out one ByteArray
+   * instead of allocating per element. Like ByteArrayView, equals()/hashCode() consider the whole
+   * backing array, so compare ranges with a comparator instead.
+   */
+  static final class MutableByteArrayView extends ByteArray {
+    private byte[] array;
+    private int offset;
+    private int length;
+
+    MutableByteArrayView reset(byte[] array, int offset, int length) {
+      this.array = array;
+      this.offset = offset;
+      this.length = length;
+
+      return this;
+    }
+
+    @Override
+    public byte[] getArray() {
+      return array;
+    }
+
+    @Override
+    public int getLength() {
+      return length;
+    }
+
+    @Override
+    public byte getAdjusted(int pos) {
+      return array[offset + pos];
+    }
+
+    @Override
+    int getDirectOffset() {
+      return offset;
+    }
+
+    @Override
+    public int hashCode() {
+      return array != null ? Arrays.hashCode(array) : 0;
+    }
+
+    @Override
+    public int compareTo(ByteArray o) {
+      return BYTE_ARRAY_COMPARATOR.compare(this, o);
+    }
+
+    @Override
+    public String toString() {
+      return "MutableByteArrayView{"
+          + "array="
+          + Arrays.toString(array)
+          + ", start="
+          + offset
+          + ", length="
+          + length
+          + "}";
+    }
+  }
+
+  /** the type of {@link #BYTE_ARRAY_COMPARATOR}; obtain instances through the constants */
+  public static final class ByteArrayComparator implements Comparator<ByteArray> {
+    private final boolean unsigned;
+
+    private ByteArrayComparator(boolean unsigned) {
+      this.unsigned = unsigned;
+    }
+
     @Override
     public int compare(ByteArray o1, ByteArray o2) {
       if (o1 == null) {
@@ -212,14 +308,31 @@ public abstract class ByteArray implements Comparable<ByteArray> {
 
       int array1Length = o1.getLength();
       int array2Length = o2.getLength();
+      int offset1 = o1.getDirectOffset();
+      int offset2 = o2.getDirectOffset();
+
+      // word at a time when we can see the backing bytes, otherwise go through getAdjusted()
+      if (offset1 != NO_DIRECT_ACCESS && offset2 != NO_DIRECT_ACCESS) {
+        int result =
+            unsigned
+                ? UnsafeByteArrays.compareUnsigned(
+                    o1.getArray(), offset1, array1Length, o2.getArray(), offset2, array2Length)
+                : UnsafeByteArrays.compareSigned(
+                    o1.getArray(), offset1, array1Length, o2.getArray(), offset2, array2Length);
+
+        return Integer.signum(result);
+      }
 
       int length = Math.min(array1Length, array2Length);
 
       for (int i = 0; i < length; i++) {
-        if (o1.getAdjusted(i) < o2.getAdjusted(i)) {
-          return -1;
-        } else if (o1.getAdjusted(i) > o2.getAdjusted(i)) {
-          return 1;
+        int result =
+            unsigned
+                ? (o1.getAdjusted(i) & 0xFF) - (o2.getAdjusted(i) & 0xFF)
+                : o1.getAdjusted(i) - o2.getAdjusted(i);
+
+        if (result != 0) {
+          return Integer.signum(result);
         }
       }
 
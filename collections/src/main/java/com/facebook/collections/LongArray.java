@@ -26,6 +26,9 @@ import javax.annotation.concurrent.ThreadSafe;
 /**
  * Reference implementation of SimpleArray using longs. Attempts to limit memory growth by allowing
  * a small growth factor each resize
+ *
+ * <p>For append-heavy, single-writer use, see {@link SegmentedLongArray} which grows without
+ * copying and offers unboxed, lock-free reads
  */
 @ThreadSafe
 public class LongArray implements Array<Long> {
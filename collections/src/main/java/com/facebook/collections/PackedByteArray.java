@@ -15,6 +15,7 @@
  */
 package com.facebook.collections;
 
+import com.facebook.collectionsbase.Lists;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInput;
@@ -22,6 +23,7 @@ import java.io.DataInputStream;
 import java.io.DataOutput;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -50,17 +52,14 @@ public class PackedByteArray {
    * @throws IOException
    */
   public static byte[] readByteArray(DataInput in, byte terminalDelimiter) throws IOException {
-
-    // 256 magic number--just guessing it won't be bigger. If it is,
-    // ArrayList will resize
-    List<Byte> byteList = new ArrayList<>(MAGIC_INITIAL_BYTE_ARRAY_SIZE);
+    ByteAccumulator accumulator = new ByteAccumulator(MAGIC_INITIAL_BYTE_ARRAY_SIZE);
     byte b;
 
     while ((b = in.readByte()) != terminalDelimiter) {
-      byteList.add(b);
+      accumulator.add(b);
     }
 
-    return byteListToArray(byteList);
+    return accumulator.toArray();
   }
 
   /**
@@ -75,19 +74,44 @@ public class PackedByteArray {
    */
   public static List<byte[]> readByteArrayList(DataInput in, byte delimiter, byte terminalDelimiter)
       throws IOException {
-
-    // 256 magic number--just guessing it won't be bigger. If it is,
-    // ArrayList will resize
-    List<Byte> byteList = new ArrayList<>(MAGIC_INITIAL_BYTE_ARRAY_SIZE);
+    ByteAccumulator accumulator = new ByteAccumulator(MAGIC_INITIAL_BYTE_ARRAY_SIZE);
     byte b;
 
     while ((b = in.readByte()) != terminalDelimiter) {
-      byteList.add(b);
+      accumulator.add(b);
+    }
+
+    accumulator.add(terminalDelimiter);
+
+    return unpackComparable(accumulator.buffer, 0, accumulator.size, delimiter, terminalDelimiter);
+  }
+
+  /**
+   * reads a List of views from a ByteBuffer holding data in the packComparable() format, starting
+   * at its position. No bytes are copied for array-backed buffers. On return, the position of in
+   * is just past the terminal delimiter
+   *
+   * @param in
+   * @param delimiter
+   * @param terminalDelimiter
+   * @return views into the buffer's backing array (copies for direct buffers)
+   * @see #packComparable(java.util.List, byte, byte) for format
+   */
+  public static List<ByteArray> readByteArrayViewList(
+      ByteBuffer in, byte delimiter, byte terminalDelimiter) {
+    PackedByteArrayCursor cursor = comparableCursor(in, delimiter, terminalDelimiter);
+    List<ByteArray> results = new ArrayList<>();
+
+    while (cursor.next()) {
+      results.add(
+          in.hasArray()
+              ? ByteArray.wrap(in.array(), cursor.getElementOffset(), cursor.getElementLength())
+              : ByteArray.wrap(cursor.copyElement()));
     }
 
-    byteList.add(terminalDelimiter);
+    in.position(cursor.getEndPosition());
 
-    return unpackComparable(byteListToArray(byteList), delimiter, terminalDelimiter);
+    return results;
   }
 
   public static byte[] packComparable(byte[]... arrays) {
@@ -148,33 +172,105 @@ public class PackedByteArray {
     return bytes;
   }
 
+  /**
+   * compares two arrays produced by packComparable() as unsigned byte[], 8 bytes at a time
+   *
+   * @param packedArray1
+   * @param packedArray2
+   * @return -1, 0, 1 according to Comparator specs
+   */
+  public static int compareComparable(byte[] packedArray1, byte[] packedArray2) {
+    return Lists.compareArraysUnsigned(packedArray1, packedArray2);
+  }
+
   public static List<byte[]> unpackComparable(byte[] packedArray) {
-    return unpackComparable(packedArray, (byte) 1, (byte) 0);
+    return unpackComparable(packedArray, DEFAULT_DELIMITER, DEFAULT_TERMINAL_DELIMITER);
   }
 
   public static List<byte[]> unpackComparable(
       byte[] packedArray, byte delimiter, byte terminalDelimiter) {
+    return unpackComparable(packedArray, 0, packedArray.length, delimiter, terminalDelimiter);
+  }
+
+  private static List<byte[]> unpackComparable(
+      byte[] packedArray, int offset, int length, byte delimiter, byte terminalDelimiter) {
     List<byte[]> results = new ArrayList<>();
-    List<Byte> currentToken = new ArrayList<>(MAGIC_INITIAL_BYTE_ARRAY_SIZE); // very magic
+    int tokenStart = offset;
+
+    for (int i = offset; i < offset + length; i++) {
+      byte b = packedArray[i];
 
-    for (byte b : packedArray) {
       if (b == terminalDelimiter) {
-        results.add(byteListToArray(currentToken));
+        results.add(Arrays.copyOfRange(packedArray, tokenStart, i));
         // end of entire byte array
         break;
       } else if (b == delimiter) {
         // end of an element, store and move to next
-        results.add(byteListToArray(currentToken));
-        currentToken = new ArrayList<>(MAGIC_INITIAL_BYTE_ARRAY_SIZE);
-      } else {
-        // put byte into current array
-        currentToken.add(b);
+        results.add(Arrays.copyOfRange(packedArray, tokenStart, i));
+        tokenStart = i + 1;
       }
     }
 
     return results;
   }
 
+  /**
+   * like {@link #unpackComparable(byte[])}, but returns views into packedArray instead of copies
+   *
+   * @param packedArray
+   * @return
+   */
+  public static List<ByteArray> unpackComparableViews(byte[] packedArray) {
+    return unpackComparableViews(packedArray, DEFAULT_DELIMITER, DEFAULT_TERMINAL_DELIMITER);
+  }
+
+  public static List<ByteArray> unpackComparableViews(
+      byte[] packedArray, byte delimiter, byte terminalDelimiter) {
+    PackedByteArrayCursor cursor = comparableCursor(packedArray, delimiter, terminalDelimiter);
+    List<ByteArray> results = new ArrayList<>();
+
+    while (cursor.next()) {
+      results.add(
+          ByteArray.wrap(packedArray, cursor.getElementOffset(), cursor.getElementLength()));
+    }
+
+    return results;
+  }
+
+  /**
+   * allocation-free scan over an array in the packComparable() format
+   *
+   * @param packedArray
+   * @return
+   * @see PackedByteArrayCursor
+   */
+  public static PackedByteArrayCursor comparableCursor(byte[] packedArray) {
+    return comparableCursor(packedArray, DEFAULT_DELIMITER, DEFAULT_TERMINAL_DELIMITER);
+  }
+
+  public static PackedByteArrayCursor comparableCursor(
+      byte[] packedArray, byte delimiter, byte terminalDelimiter) {
+    return new PackedByteArrayCursor(
+        packedArray, 0, packedArray.length, delimiter, terminalDelimiter);
+  }
+
+  /**
+   * allocation-free scan over packComparable() data starting at the buffer's position. The buffer's
+   * position is not changed
+   *
+   * @param packedBuffer
+   * @return
+   * @see PackedByteArrayCursor
+   */
+  public static PackedByteArrayCursor comparableCursor(ByteBuffer packedBuffer) {
+    return comparableCursor(packedBuffer, DEFAULT_DELIMITER, DEFAULT_TERMINAL_DELIMITER);
+  }
+
+  public static PackedByteArrayCursor comparableCursor(
+      ByteBuffer packedBuffer, byte delimiter, byte terminalDelimiter) {
+    return new PackedByteArrayCursor(packedBuffer, delimiter, terminalDelimiter);
+  }
+
   /**
    * packs a list of byte[] into a single array in the format
    *
@@ -256,34 +352,77 @@ public class PackedByteArray {
    * @see #pack(byte[]...)
    */
   public static byte[] getElement(byte[] packedArray, int pos) {
-    short numItems = (short) ((packedArray[0] << 8) | packedArray[1]);
+    long range = getElementRange(packedArray, pos);
+    int dataPtr = (int) (range >>> 32);
+
+    return Arrays.copyOfRange(packedArray, dataPtr, dataPtr + (int) range);
+  }
+
+  /**
+   * like {@link #getElement(byte[], int)}, but returns a view into packedArray instead of a copy
+   *
+   * @param packedArray
+   * @param pos
+   * @return
+   * @see #pack(byte[]...)
+   */
+  public static ByteArray getElementView(byte[] packedArray, int pos) {
+    long range = getElementRange(packedArray, pos);
+
+    return ByteArray.wrap(packedArray, (int) (range >>> 32), (int) range);
+  }
+
+  /**
+   * like {@link #unpack(byte[])}, but returns views into packedArray instead of copies
+   *
+   * @param packedArray
+   * @return
+   * @see #pack(byte[]...)
+   */
+  public static ByteArray[] unpackViews(byte[] packedArray) {
+    int numItems = readNumItems(packedArray);
+    ByteArray[] views = new ByteArray[numItems];
+    int dataPtr = 2 + numItems * 4;
+
+    for (int i = 0; i < numItems; i++) {
+      int len = byteToInt(packedArray, 2 + i * 4);
+
+      views[i] = ByteArray.wrap(packedArray, dataPtr, len);
+      dataPtr += len;
+    }
+
+    return views;
+  }
+
+  /**
+   * @return offset of element pos in the high 32 bits, length in the low 32 bits
+   */
+  private static long getElementRange(byte[] packedArray, int pos) {
+    int numItems = readNumItems(packedArray);
 
     if (pos > numItems - 1) {
       throw new IllegalArgumentException(
           String.format("index %d is greater than max %d", pos, numItems - 1));
     }
 
-    int i = 0;
     // numItems(short) + itemLen1 + itemLen2 + ...
     int dataPtr = 2 + numItems * 4;
-    int dataLen = 0;
-    while (i < numItems) {
-      int j = 2 + (i * 4);
-      int len = byteToInt(packedArray, j);
 
-      assert len >= 0;
+    for (int i = 0; i < pos; i++) {
+      int len = byteToInt(packedArray, 2 + (i * 4));
 
-      if (i < pos) {
-        dataPtr += len;
-      } else {
-        dataLen = len;
-        break;
-      }
+      assert len >= 0;
 
-      i++;
+      dataPtr += len;
     }
 
-    return Arrays.copyOfRange(packedArray, dataPtr, dataPtr + dataLen);
+    int dataLen = byteToInt(packedArray, 2 + (pos * 4));
+
+    return ((long) dataPtr << 32) | (dataLen & 0xFFFFFFFFL);
+  }
+
+  private static short readNumItems(byte[] packedArray) {
+    return (short) ((packedArray[0] << 8) | (packedArray[1] & 0xFF));
   }
 
   /**
@@ -331,4 +470,26 @@ public class PackedByteArray {
         + ((bytes[offset + 1] & 0xFF) << 16)
         + ((bytes[offset]) << 24);
   }
+
+  /** growable byte[] that avoids boxing every byte into a List<Byte> */
+  private static class ByteAccumulator {
+    private byte[] buffer;
+    private int size = 0;
+
+    private ByteAccumulator(int initialSize) {
+      buffer = new byte[initialSize];
+    }
+
+    private void add(byte b) {
+      if (size == buffer.length) {
+        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+      }
+
+      buffer[size++] = b;
+    }
+
+    private byte[] toArray() {
+      return Arrays.copyOf(buffer, size);
+    }
+  }
 }
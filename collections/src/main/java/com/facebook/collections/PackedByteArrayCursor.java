@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.collections;
+
+import com.facebook.memory.UnsafeByteArrays;
+import com.google.common.base.Preconditions;
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+/**
+ * Sequential, allocation-free scan over the elements of an array in the {@link
+ * PackedByteArray#packComparable(java.util.List, byte, byte)} format. Nothing is copied: each
+ * element is described by an offset and length into the source, and {@link #getElement()} returns
+ * the same flyweight ByteArray, re-pointed on every call to {@link #next()}.
+ *
+ * <p>Usage:
+ *
+ * <pre>
+ *   PackedByteArrayCursor cursor = PackedByteArray.comparableCursor(packed);
+ *
+ *   while (cursor.next()) {
+ *     if (cursor.compareElement(prefix) == 0) { ... }
+ *   }
+ * </pre>
+ *
+ * <p>ByteBuffer sources are read with absolute gets and their position is never changed; use
+ * {@link #getEndPosition()} to skip past the packed array. Array-backed buffers are scanned
+ * through their backing array. Not thread safe.
+ */
+public class PackedByteArrayCursor {
+  private final byte[] array;
+  private final ByteBuffer buffer;
+  private final int limit;
+  // arrayOffset() of an array-backed ByteBuffer, so positions can be reported in buffer terms
+  private final int base;
+  private final byte delimiter;
+  private final byte terminalDelimiter;
+  private final ByteArray.MutableByteArrayView view = new ByteArray.MutableByteArrayView();
+  // start of the next element to read
+  private int position;
+  private int elementOffset = -1;
+  private int elementLength = -1;
+  private int elementIndex = -1;
+  private boolean done = false;
+
+  PackedByteArrayCursor(
+      byte[] array, int offset, int length, byte delimiter, byte terminalDelimiter) {
+    Preconditions.checkPositionIndexes(offset, offset + length, array.length);
+    this.array = array;
+    this.buffer = null;
+    this.base = 0;
+    this.position = offset;
+    this.limit = offset + length;
+    this.delimiter = delimiter;
+    this.terminalDelimiter = terminalDelimiter;
+  }
+
+  PackedByteArrayCursor(ByteBuffer buffer, byte delimiter, byte terminalDelimiter) {
+    if (buffer.hasArray()) {
+      this.array = buffer.array();
+      this.buffer = null;
+      this.base = buffer.arrayOffset();
+      this.position = buffer.arrayOffset() + buffer.position();
+      this.limit = buffer.arrayOffset() + buffer.limit();
+    } else {
+      this.array = null;
+      this.buffer = buffer;
+      this.base = 0;
+      this.position = buffer.position();
+      this.limit = buffer.limit();
+    }
+
+    this.delimiter = delimiter;
+    this.terminalDelimiter = terminalDelimiter;
+  }
+
+  /**
+   * advances to the next element. If the source ends without a terminal delimiter, the remaining
+   * bytes (if any) are reported as the last element
+   *
+   * @return false once the terminal delimiter (or the end of the source) has been passed
+   */
+  public boolean next() {
+    if (done) {
+      clearElement();
+
+      return false;
+    }
+
+    int start = position;
+    int end = start;
+
+    while (end < limit) {
+      byte b = byteAt(end);
+
+      if (b == delimiter) {
+        break;
+      }
+
+      if (b == terminalDelimiter) {
+        done = true;
+        break;
+      }
+
+      end++;
+    }
+
+    if (end == limit) {
+      done = true;
+
+      if (end == start) {
+        clearElement();
+
+        return false;
+      }
+    }
+
+    elementOffset = start;
+    elementLength = end - start;
+    elementIndex++;
+    position = end < limit ? end + 1 : limit;
+
+    return true;
+  }
+
+  /** @return 0 based index of the current element */
+  public int getElementIndex() {
+    checkElement();
+
+    return elementIndex;
+  }
+
+  /** @return offset of the current element in the source array or backing array */
+  public int getElementOffset() {
+    checkElement();
+
+    return elementOffset;
+  }
+
+  public int getElementLength() {
+    checkElement();
+
+    return elementLength;
+  }
+
+  /**
+   * @return view of the current element. The returned object is reused: it is only valid until the
+   *     next call to next()
+   * @throws UnsupportedOperationException if the source is a direct ByteBuffer
+   */
+  public ByteArray getElement() {
+    checkElement();
+
+    if (array == null) {
+      throw new UnsupportedOperationException("no zero-copy view over a direct ByteBuffer");
+    }
+
+    return view.reset(array, elementOffset, elementLength);
+  }
+
+  /** @return a copy of the current element */
+  public byte[] copyElement() {
+    checkElement();
+
+    byte[] copy = new byte[elementLength];
+
+    if (array != null) {
+      System.arraycopy(array, elementOffset, copy, 0, elementLength);
+    } else {
+      for (int i = 0; i < elementLength; i++) {
+        copy[i] = buffer.get(elementOffset + i);
+      }
+    }
+
+    return copy;
+  }
+
+  /**
+   * compares the current element with key as unsigned bytes, the order packComparable() keys sort
+   * in
+   *
+   * @return -1, 0, 1 according to Comparator specs
+   */
+  public int compareElement(byte[] key) {
+    return compareElement(key, 0, key.length);
+  }
+
+  public int compareElement(byte[] key, int offset, int length) {
+    checkElement();
+
+    if (array != null) {
+      return Integer.signum(
+          UnsafeByteArrays.compareUnsigned(
+              array, elementOffset, elementLength, key, offset, length));
+    }
+
+    int minLength = Math.min(elementLength, length);
+
+    for (int i = 0; i < minLength; i++) {
+      int result = (buffer.get(elementOffset + i) & 0xFF) - (key[offset + i] & 0xFF);
+
+      if (result != 0) {
+        return Integer.signum(result);
+      }
+    }
+
+    return Integer.signum(elementLength - length);
+  }
+
+  /**
+   * @return index just past the terminal delimiter (or the end of the source); relative to the
+   *     start of the array, or to the start of the buffer for ByteBuffer sources
+   * @throws IllegalStateException if the terminal delimiter has not been reached yet
+   */
+  public int getEndPosition() {
+    Preconditions.checkState(done, "terminal delimiter not reached yet");
+
+    return position - base;
+  }
+
+  private byte byteAt(int index) {
+    return array != null ? array[index] : buffer.get(index);
+  }
+
+  private void clearElement() {
+    elementOffset = -1;
+    elementLength = -1;
+  }
+
+  private void checkElement() {
+    if (elementOffset < 0) {
+      throw new NoSuchElementException("next() has not returned true");
+    }
+  }
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.collections;
+
+import com.google.common.base.Preconditions;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Growable long array backed by fixed size segments. Growing adds a new segment instead of copying
+ * the existing values, so append() is O(1) in the worst case, not just amortized.
+ *
+ * <p>Primitive accessors, {@link #getLong(int)} and {@link #appendLong(long)}, avoid boxing. As
+ * with {@link LongArray}, values must be >= 0; negative values mark empty slots and are reported
+ * as {@link #EMPTY} by getLong() and null by get().
+ *
+ * <p>Thread safety: single-writer, multi-reader. All mutating calls (set, append, remove, resize
+ * and Iterator.remove()) must come from one thread at a time (or be externally synchronized).
+ * Reads take no locks: a value written by the writer is visible to a reader once the reader
+ * observes the corresponding size() or capacity().
+ */
+public class SegmentedLongArray implements Array<Long> {
+  public static final long EMPTY = -1;
+
+  private static final int DEFAULT_SEGMENT_SHIFT = 10; // 1024 longs, 8kB per segment
+  private static final int MAX_SEGMENT_SHIFT = 30;
+
+  private final int segmentShift;
+  private final int segmentMask;
+  private final int segmentSize;
+  // only the directory is copied on growth, never the segments themselves
+  private volatile AtomicLongArray[] segments;
+  private volatile int size = 0;
+  // only touched by the writer
+  private int nextWritePosition = 0;
+
+  /**
+   * @param segmentShift log2 of the number of longs in a segment
+   * @param initialCapacity minimum initial capacity; rounded up to a whole number of segments
+   */
+  public SegmentedLongArray(int segmentShift, int initialCapacity) {
+    Preconditions.checkArgument(
+        segmentShift >= 0 && segmentShift <= MAX_SEGMENT_SHIFT,
+        "segmentShift must be in [0, %s]",
+        MAX_SEGMENT_SHIFT);
+    Preconditions.checkArgument(initialCapacity >= 0, "initialCapacity must be >= 0");
+    this.segmentShift = segmentShift;
+    this.segmentSize = 1 << segmentShift;
+    this.segmentMask = segmentSize - 1;
+
+    int numSegments = Math.max(1, segmentsFor(initialCapacity));
+    AtomicLongArray[] initialSegments = new AtomicLongArray[numSegments];
+
+    for (int i = 0; i < numSegments; i++) {
+      initialSegments[i] = newSegment();
+    }
+
+    segments = initialSegments;
+  }
+
+  public SegmentedLongArray(int initialCapacity) {
+    this(DEFAULT_SEGMENT_SHIFT, initialCapacity);
+  }
+
+  public SegmentedLongArray() {
+    this(DEFAULT_SEGMENT_SHIFT, 0);
+  }
+
+  /**
+   * primitive version of {@link #get(int)}
+   *
+   * @param i position
+   * @return value at position i, {@link #EMPTY} if the slot is empty
+   * @throws ArrayIndexOutOfBoundsException if i is negative or >= capacity()
+   */
+  public long getLong(int i) throws ArrayIndexOutOfBoundsException {
+    AtomicLongArray[] currentSegments = segments;
+    int segment = i >>> segmentShift;
+
+    if (i < 0 || segment >= currentSegments.length) {
+      throw new ArrayIndexOutOfBoundsException(i);
+    }
+
+    long value = currentSegments[segment].get(i & segmentMask);
+
+    return value >= 0 ? value : EMPTY;
+  }
+
+  /**
+   * primitive version of {@link #append(Long)}
+   *
+   * @param value value to add, must be >= 0
+   * @return position inserted at
+   */
+  public int appendLong(long value) {
+    Preconditions.checkArgument(value >= 0, "value must be >= 0");
+
+    // skip over slots filled in by set(int, Long)
+    while (nextWritePosition < capacity() && !isEmpty(nextWritePosition)) {
+      nextWritePosition++;
+    }
+
+    if (nextWritePosition >= capacity()) {
+      addSegments(1);
+    }
+
+    int position = nextWritePosition++;
+
+    segmentFor(position).lazySet(position & segmentMask, value);
+    // volatile write publishes the value above to readers that observe the new size
+    size = size + 1;
+
+    return position;
+  }
+
+  /**
+   * primitive version of {@link #set(int, Long)}
+   *
+   * @param i position, must be < capacity()
+   * @param value value to place, must be >= 0
+   * @return previous value, {@link #EMPTY} if the slot was empty
+   */
+  public long setLong(int i, long value) throws ArrayIndexOutOfBoundsException {
+    Preconditions.checkArgument(value >= 0, "value must be >= 0");
+    checkIndex(i);
+
+    long oldValue = segmentFor(i).getAndSet(i & segmentMask, value);
+
+    if (oldValue < 0) {
+      size = size + 1;
+
+      return EMPTY;
+    }
+
+    return oldValue;
+  }
+
+  /**
+   * primitive version of {@link #remove(int)}
+   *
+   * @param i position
+   * @return value at the position, {@link #EMPTY} if it was empty
+   */
+  public long removeLong(int i) throws ArrayIndexOutOfBoundsException {
+    checkIndex(i);
+
+    long oldValue = segmentFor(i).getAndSet(i & segmentMask, EMPTY);
+
+    if (oldValue < 0) {
+      return EMPTY;
+    }
+
+    size = size - 1;
+
+    return oldValue;
+  }
+
+  @Override
+  public Long get(int i) throws IndexOutOfBoundsException {
+    if (i >= size()) {
+      throw new ArrayIndexOutOfBoundsException(i);
+    }
+
+    return convertValue(getLong(i));
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public int capacity() {
+    return segments.length << segmentShift;
+  }
+
+  @Override
+  public Long set(int i, Long value) throws ArrayIndexOutOfBoundsException {
+    if (value == null) {
+      throw new NullPointerException("null values not allowed");
+    }
+
+    return convertValue(setLong(i, value));
+  }
+
+  @Override
+  public int append(Long value) {
+    if (value == null) {
+      throw new NullPointerException("null values not allowed");
+    }
+
+    return appendLong(value);
+  }
+
+  @Override
+  public Long remove(int i) throws ArrayIndexOutOfBoundsException {
+    return convertValue(removeLong(i));
+  }
+
+  /**
+   * grows by whole segments; existing values are never copied
+   *
+   * @param sizeHint the new capacity. Rounded up to a multiple of the segment size
+   * @return actual capacity
+   */
+  @Override
+  public int resize(int sizeHint) {
+    Preconditions.checkArgument(sizeHint > 0, "sizeHint must be > 0");
+
+    int missingSegments = segmentsFor(sizeHint) - segments.length;
+
+    if (missingSegments > 0) {
+      addSegments(missingSegments);
+    }
+
+    return capacity();
+  }
+
+  @Override
+  public Iterator<Long> iterator() {
+    return new Iter();
+  }
+
+  private void addSegments(int count) {
+    AtomicLongArray[] currentSegments = segments;
+    AtomicLongArray[] newSegments =
+        Arrays.copyOf(currentSegments, currentSegments.length + count);
+
+    for (int i = currentSegments.length; i < newSegments.length; i++) {
+      newSegments[i] = newSegment();
+    }
+
+    segments = newSegments;
+  }
+
+  private AtomicLongArray newSegment() {
+    long[] values = new long[segmentSize];
+
+    Arrays.fill(values, EMPTY);
+
+    return new AtomicLongArray(values);
+  }
+
+  private int segmentsFor(int capacity) {
+    return (int) (((long) capacity + segmentMask) >>> segmentShift);
+  }
+
+  private AtomicLongArray segmentFor(int position) {
+    return segments[position >>> segmentShift];
+  }
+
+  private void checkIndex(int i) {
+    if (i < 0 || i >= capacity()) {
+      throw new ArrayIndexOutOfBoundsException(
+          String.format("index %d outside of capacity %d", i, capacity()));
+    }
+  }
+
+  private boolean isEmpty(int position) {
+    return segmentFor(position).get(position & segmentMask) < 0;
+  }
+
+  private static Long convertValue(long value) {
+    return value >= 0 ? value : null;
+  }
+
+  /**
+   * Lock-free iterator. Terminates after seeing the size() elements that existed at creation, or
+   * after reaching the capacity at creation, whichever is first. remove() is a write and is subject
+   * to the single-writer rule.
+   */
+  private class Iter implements Iterator<Long> {
+    private final int sizeSnapshot = size;
+    private final int capacitySnapshot = capacity();
+    private int position = 0;
+    private int numSeen = 0;
+    // -2 is no read called yet, -1 means remove was called on this position
+    private int lastReadPosition = -2;
+    private long nextValue = EMPTY;
+
+    @Override
+    public boolean hasNext() {
+      while (nextValue < 0 && numSeen < sizeSnapshot && position < capacitySnapshot) {
+        nextValue = getLong(position);
+        position++;
+      }
+
+      return nextValue >= 0;
+    }
+
+    @Override
+    public Long next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+
+      long value = nextValue;
+
+      nextValue = EMPTY;
+      numSeen++;
+      lastReadPosition = position - 1;
+
+      return value;
+    }
+
+    @Override
+    public void remove() {
+      if (lastReadPosition == -2) {
+        throw new IllegalStateException("next() has not been called yet");
+      }
+      if (lastReadPosition == -1) {
+        throw new IllegalStateException("remove already called for this position");
+      }
+
+      removeLong(lastReadPosition);
+      lastReadPosition = -1;
+    }
+  }
+}
@@ -15,6 +15,7 @@
  */
 package com.facebook.collections;
 
+import java.util.Random;
 import org.testng.Assert;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -55,4 +56,69 @@ public class TestByteArray {
     Assert.assertFalse(byteArray1.equals(nullArray));
     Assert.assertFalse(nullArray.equals(byteArray1));
   }
+
+  @Test(groups = "fast")
+  public void testViewsCompareWordAtATime() throws Exception {
+    byte[] bytes = "xxstring a long enough to span words b".getBytes();
+    ByteArray view = ByteArray.wrap(bytes, 2, bytes.length - 4);
+    ByteArray pure = ByteArray.wrap("string a long enough to span words".getBytes());
+
+    Assert.assertEquals(view.compareTo(pure), 0);
+    Assert.assertEquals(ByteArray.wrap(bytes, 2).compareTo(pure), 1);
+    Assert.assertEquals(pure.compareTo(ByteArray.wrap(bytes, 2)), -1);
+  }
+
+  @Test(groups = "fast")
+  public void testSignedVsUnsigned() throws Exception {
+    ByteArray low = ByteArray.wrap(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 0x10});
+    ByteArray high = ByteArray.wrap(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, (byte) 0x90});
+
+    Assert.assertEquals(ByteArray.BYTE_ARRAY_COMPARATOR.compare(low, high), 1);
+    Assert.assertEquals(ByteArray.UNSIGNED_BYTE_ARRAY_COMPARATOR.compare(low, high), -1);
+    Assert.assertEquals(ByteArray.UNSIGNED_BYTE_ARRAY_COMPARATOR.compare(high, low), 1);
+    Assert.assertEquals(ByteArray.UNSIGNED_BYTE_ARRAY_COMPARATOR.compare(low, low), 0);
+  }
+
+  @Test(groups = "fast")
+  public void testMatchesByteAtATime() throws Exception {
+    Random random = new Random(0);
+
+    for (int i = 0; i < 10000; i++) {
+      byte[] bytes1 = randomBytes(random);
+      byte[] bytes2 = randomBytes(random);
+      // share a prefix most of the time so mismatches land in all positions of a word
+      System.arraycopy(
+          bytes1, 0, bytes2, 0, random.nextInt(Math.min(bytes1.length, bytes2.length) + 1));
+
+      ByteArray array1 = ByteArray.wrap(bytes1);
+      ByteArray array2 = ByteArray.wrap(bytes2);
+
+      Assert.assertEquals(
+          ByteArray.BYTE_ARRAY_COMPARATOR.compare(array1, array2),
+          compareSlowly(bytes1, bytes2, false));
+      Assert.assertEquals(
+          ByteArray.UNSIGNED_BYTE_ARRAY_COMPARATOR.compare(array1, array2),
+          compareSlowly(bytes1, bytes2, true));
+    }
+  }
+
+  private static byte[] randomBytes(Random random) {
+    byte[] bytes = new byte[random.nextInt(40)];
+
+    random.nextBytes(bytes);
+
+    return bytes;
+  }
+
+  private static int compareSlowly(byte[] bytes1, byte[] bytes2, boolean unsigned) {
+    for (int i = 0; i < Math.min(bytes1.length, bytes2.length); i++) {
+      int result = unsigned ? (bytes1[i] & 0xFF) - (bytes2[i] & 0xFF) : bytes1[i] - bytes2[i];
+
+      if (result != 0) {
+        return Integer.signum(result);
+      }
+    }
+
+    return Integer.signum(bytes1.length - bytes2.length);
+  }
 }
@@ -16,9 +16,14 @@
 package com.facebook.collections;
 
 import com.facebook.collectionsbase.Lists;
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.List;
+import java.util.NoSuchElementException;
 import org.testng.Assert;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -82,6 +87,18 @@ public class TestPackedByteArray {
     Assert.assertEquals(Lists.compareArrays(bytes1, bytes2), 1);
   }
 
+  @Test(groups = "fast")
+  public void testCompareComparableUnsigned() throws Exception {
+    byte[] bytes1 = PackedByteArray.packComparable(original[4], new byte[] {(byte) 0x7f});
+    byte[] bytes2 = PackedByteArray.packComparable(original[4], new byte[] {(byte) 0x80});
+
+    Assert.assertEquals(PackedByteArray.compareComparable(bytes1, bytes2), -1);
+    Assert.assertEquals(PackedByteArray.compareComparable(bytes2, bytes1), 1);
+    Assert.assertEquals(PackedByteArray.compareComparable(bytes1, bytes1.clone()), 0);
+    // signed comparison orders these the other way around
+    Assert.assertEquals(Lists.compareArrays(bytes1, bytes2), 1);
+  }
+
   @Test(groups = "fast")
   public void testConversions() throws Exception {
     byte[] packed =
@@ -102,4 +119,108 @@ public class TestPackedByteArray {
       Assert.assertEquals(bytesList.get(i), unpacked[i]);
     }
   }
+
+  @Test(groups = "fast")
+  public void testViews() throws Exception {
+    byte[] packed = PackedByteArray.pack(original);
+    ByteArray[] views = PackedByteArray.unpackViews(packed);
+
+    Assert.assertEquals(views.length, original.length);
+
+    for (int i = 0; i < original.length; i++) {
+      ByteArray expected = ByteArray.wrap(original[i]);
+
+      Assert.assertSame(views[i].getArray(), packed);
+      Assert.assertEquals(ByteArray.BYTE_ARRAY_COMPARATOR.compare(views[i], expected), 0);
+      Assert.assertEquals(
+          ByteArray.BYTE_ARRAY_COMPARATOR.compare(
+              PackedByteArray.getElementView(packed, i), expected),
+          0);
+    }
+  }
+
+  @Test(groups = "fast")
+  public void testComparableViews() throws Exception {
+    byte[] packed = PackedByteArray.packComparable(original);
+    List<ByteArray> views = PackedByteArray.unpackComparableViews(packed);
+    List<byte[]> copies = PackedByteArray.unpackComparable(packed);
+
+    Assert.assertEquals(views.size(), original.length);
+    Assert.assertEquals(copies.size(), original.length);
+
+    for (int i = 0; i < original.length; i++) {
+      Assert.assertEquals(copies.get(i), original[i]);
+      Assert.assertEquals(
+          ByteArray.BYTE_ARRAY_COMPARATOR.compare(views.get(i), ByteArray.wrap(original[i])), 0);
+    }
+  }
+
+  @Test(groups = "fast")
+  public void testCursor() throws Exception {
+    byte[] packed = PackedByteArray.packComparable(original[3], new byte[0], original[4]);
+    PackedByteArrayCursor cursor = PackedByteArray.comparableCursor(packed);
+
+    Assert.assertTrue(cursor.next());
+    Assert.assertEquals(cursor.getElementIndex(), 0);
+    Assert.assertEquals(cursor.copyElement(), original[3]);
+    Assert.assertEquals(cursor.compareElement(original[3]), 0);
+    Assert.assertEquals(cursor.compareElement(new byte[] {10, 100}), 1);
+    ByteArray element = cursor.getElement();
+    Assert.assertTrue(cursor.next());
+    Assert.assertEquals(cursor.getElementLength(), 0);
+    Assert.assertTrue(cursor.next());
+    // flyweight: same instance, moved to the current element
+    Assert.assertSame(cursor.getElement(), element);
+    Assert.assertEquals(cursor.copyElement(), original[4]);
+    Assert.assertFalse(cursor.next());
+    Assert.assertFalse(cursor.next());
+    Assert.assertEquals(cursor.getEndPosition(), packed.length);
+  }
+
+  @Test(groups = "fast", expectedExceptions = NoSuchElementException.class)
+  public void testCursorNoElement() throws Exception {
+    PackedByteArray.comparableCursor(PackedByteArray.packComparable(original[0])).getElement();
+  }
+
+  @Test(groups = "fast")
+  public void testByteBufferInput() throws Exception {
+    byte[] first = PackedByteArray.packComparable(original[0], original[1]);
+    byte[] second = PackedByteArray.packComparable(original[2]);
+    ByteBuffer heap = ByteBuffer.allocate(first.length + second.length);
+    ByteBuffer direct = ByteBuffer.allocateDirect(first.length + second.length);
+
+    for (ByteBuffer buffer : new ByteBuffer[] {heap, direct}) {
+      buffer.put(first).put(second).flip();
+
+      List<ByteArray> firstList =
+          PackedByteArray.readByteArrayViewList(buffer, (byte) 1, (byte) 0);
+
+      Assert.assertEquals(buffer.position(), first.length);
+      Assert.assertEquals(firstList.size(), 2);
+      Assert.assertEquals(
+          ByteArray.BYTE_ARRAY_COMPARATOR.compare(firstList.get(1), ByteArray.wrap(original[1])),
+          0);
+
+      PackedByteArrayCursor cursor = PackedByteArray.comparableCursor(buffer);
+
+      Assert.assertTrue(cursor.next());
+      Assert.assertEquals(cursor.compareElement(original[2]), 0);
+      Assert.assertEquals(cursor.copyElement(), original[2]);
+      Assert.assertFalse(cursor.next());
+      Assert.assertEquals(cursor.getEndPosition(), first.length + second.length);
+    }
+  }
+
+  @Test(groups = "fast")
+  public void testReadByteArrayList() throws Exception {
+    byte[] packed = PackedByteArray.packComparable(original);
+    DataInput input = new DataInputStream(new ByteArrayInputStream(packed));
+    List<byte[]> bytesList = PackedByteArray.readByteArrayList(input, (byte) 1, (byte) 0);
+
+    Assert.assertEquals(bytesList.size(), original.length);
+
+    for (int i = 0; i < original.length; i++) {
+      Assert.assertEquals(bytesList.get(i), original[i]);
+    }
+  }
 }
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.collections;
+
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TestSegmentedLongArray {
+  private SegmentedLongArray array;
+  private SegmentedLongArray smallSegments;
+
+  @BeforeMethod(alwaysRun = true)
+  public void setUp() throws Exception {
+    array = new SegmentedLongArray();
+    array.append(1L);
+    array.append(2L);
+    array.append(3L);
+    array.append(4L);
+    array.append(5L);
+    array.append(6L);
+    // 4 longs per segment
+    smallSegments = new SegmentedLongArray(2, 4);
+  }
+
+  @Test(groups = "fast")
+  public void testSanity() throws Exception {
+    array.append(1L);
+    Assert.assertEquals(array.size(), 7);
+    Assert.assertEquals(array.get(0).longValue(), 1L);
+    array.appendLong(2L);
+    Assert.assertEquals(array.size(), 8);
+    Assert.assertEquals(array.getLong(5), 6L);
+    Assert.assertEquals(array.getLong(7), 2L);
+    Assert.assertEquals(array.getLong(8), SegmentedLongArray.EMPTY);
+  }
+
+  @Test(groups = "fast", expectedExceptions = ArrayIndexOutOfBoundsException.class)
+  public void testOutOfBounds() throws Exception {
+    array.get(7);
+  }
+
+  @Test(groups = "fast", expectedExceptions = ArrayIndexOutOfBoundsException.class)
+  public void testGetLongOutOfCapacity() throws Exception {
+    array.getLong(array.capacity());
+  }
+
+  @Test(groups = "fast")
+  public void testGrowth() throws Exception {
+    Assert.assertEquals(smallSegments.capacity(), 4);
+
+    for (long i = 0; i < 9; i++) {
+      Assert.assertEquals(smallSegments.appendLong(i * 2), i);
+    }
+
+    Assert.assertEquals(smallSegments.size(), 9);
+    Assert.assertEquals(smallSegments.capacity(), 12);
+
+    for (int i = 0; i < 9; i++) {
+      Assert.assertEquals(smallSegments.getLong(i), i * 2L);
+    }
+  }
+
+  @Test(groups = "fast")
+  public void testResize() throws Exception {
+    Assert.assertEquals(smallSegments.resize(5), 8);
+    Assert.assertEquals(smallSegments.resize(2), 8);
+    Assert.assertEquals(smallSegments.capacity(), 8);
+  }
+
+  @Test(groups = "fast")
+  public void testAppendSkipsSetSlots() throws Exception {
+    smallSegments.append(1L);
+    smallSegments.set(1, 10L);
+    smallSegments.set(2, 20L);
+
+    Assert.assertEquals(smallSegments.append(3L), 3);
+    Assert.assertEquals(smallSegments.size(), 4);
+    Assert.assertEquals(smallSegments.get(1).longValue(), 10L);
+  }
+
+  @Test(groups = "fast")
+  public void testSet() throws Exception {
+    Assert.assertEquals(array.set(3, 10L).longValue(), 4L);
+    Assert.assertEquals(array.size(), 6);
+    Assert.assertNull(array.set(6, 7L));
+    Assert.assertEquals(array.size(), 7);
+  }
+
+  @Test(groups = "fast", expectedExceptions = ArrayIndexOutOfBoundsException.class)
+  public void testSetOutOfBounds() throws Exception {
+    array.set(array.capacity(), 100L);
+  }
+
+  @Test(groups = "fast", expectedExceptions = IllegalArgumentException.class)
+  public void testNegativeValue() throws Exception {
+    array.appendLong(-5L);
+  }
+
+  @Test(groups = "fast")
+  public void testRemove() throws Exception {
+    Assert.assertEquals(array.remove(3).longValue(), 4L);
+    Assert.assertNull(array.get(3));
+    Assert.assertNull(array.remove(3));
+    Assert.assertEquals(array.size(), 5);
+    assertArrayIs(array, 1, 2, 3, 5, 6);
+  }
+
+  @Test(groups = "fast")
+  public void testIterator() throws Exception {
+    Iterator<Long> iter = array.iterator();
+    // hasNext() shouldn't be required
+    Assert.assertEquals(iter.next().longValue(), 1L);
+    // repeated hasNext() shouldn't change value
+    iter.hasNext();
+    iter.hasNext();
+    Assert.assertEquals(iter.next().longValue(), 2L);
+    iter.remove();
+    Assert.assertEquals(iter.next().longValue(), 3L);
+    Assert.assertEquals(iter.next().longValue(), 4L);
+    Assert.assertEquals(iter.next().longValue(), 5L);
+    Assert.assertEquals(iter.next().longValue(), 6L);
+    Assert.assertFalse(iter.hasNext());
+    assertArrayIs(array, 1, 3, 4, 5, 6);
+  }
+
+  @Test(groups = "fast", expectedExceptions = IllegalStateException.class)
+  public void testIteratorRepeatedRemove() throws Exception {
+    Iterator<Long> iter = array.iterator();
+    iter.next();
+    iter.remove();
+    iter.remove();
+  }
+
+  @Test(groups = "fast")
+  public void testConcurrentReader() throws Exception {
+    final SegmentedLongArray shared = new SegmentedLongArray(4, 0);
+    final int numValues = 100000;
+    final CountDownLatch started = new CountDownLatch(1);
+    final AtomicReference<String> failure = new AtomicReference<>();
+    Thread reader =
+        new Thread(
+            () -> {
+              started.countDown();
+
+              int seen = 0;
+
+              while (seen < numValues) {
+                int size = shared.size();
+
+                for (int i = seen; i < size; i++) {
+                  if (shared.getLong(i) != i) {
+                    failure.set(String.format("position %d had %d", i, shared.getLong(i)));
+
+                    return;
+                  }
+                }
+
+                seen = size;
+              }
+            });
+
+    reader.start();
+    started.await();
+
+    for (int i = 0; i < numValues; i++) {
+      shared.appendLong(i);
+    }
+
+    reader.join();
+    Assert.assertNull(failure.get());
+  }
+
+  private void assertArrayIs(SegmentedLongArray array, long... values) {
+    int i = 0;
+
+    for (Long arrayValue : array) {
+      Assert.assertEquals(arrayValue.longValue(), values[i]);
+      i++;
+    }
+
+    Assert.assertEquals(i, values.length);
+  }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.concurrency;
+
+import com.google.common.base.Preconditions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * runs at most {@link AdaptiveConcurrencyLimiter#getLimit()} tasks at once on another executor.
+ * Tasks over the limit wait in a queue of up to maxQueued; beyond that they are shed with a
+ * RejectedExecutionException. The limiter learns from how long tasks run on the executor, not
+ * from the time they spent queued here.
+ *
+ * <p>Shutdown goes to the wrapped executor; tasks still queued here when it stops accepting work
+ * are dropped.
+ */
+public class AdaptiveConcurrencyExecutorService extends AbstractExecutorService {
+  private static final Logger LOG =
+      LoggerFactory.getLogger(AdaptiveConcurrencyExecutorService.class);
+
+  private final ExecutorService executor;
+  private final AdaptiveConcurrencyLimiter limiter;
+  private final BlockingQueue<Runnable> queue;
+
+  /**
+   * @param executor runs the tasks
+   * @param limiter may be shared with other executors and callers limiting the same resource
+   * @param maxQueued tasks held here while the limit is reached; 0 to shed right away
+   */
+  public AdaptiveConcurrencyExecutorService(
+      ExecutorService executor, AdaptiveConcurrencyLimiter limiter, int maxQueued) {
+    Preconditions.checkArgument(maxQueued >= 0, "maxQueued must be >= 0");
+    this.executor = executor;
+    this.limiter = limiter;
+    // offer() to a SynchronousQueue with no thread taking fails, so nothing is ever queued
+    this.queue = maxQueued == 0 ? new SynchronousQueue<>() : new LinkedBlockingQueue<>(maxQueued);
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    Preconditions.checkNotNull(command, "command is null");
+
+    if (limiter.tryAcquireQuietly()) {
+      submitWithPermit(command);
+    } else if (queue.offer(command)) {
+      // a permit may have been released between tryAcquireQuietly() and offer()
+      drainQueue();
+    } else {
+      limiter.getRejected().add(1);
+
+      throw new RejectedExecutionException("concurrency limit reached and queue full");
+    }
+  }
+
+  /** @return tasks waiting here for a permit */
+  public int getQueueSize() {
+    return queue.size();
+  }
+
+  private void submitWithPermit(Runnable command) {
+    try {
+      executor.execute(new LimitedTask(command));
+    } catch (RejectedExecutionException e) {
+      // the executor is overloaded too
+      limiter.release(0, false);
+
+      throw e;
+    }
+  }
+
+  private void drainQueue() {
+    while (!queue.isEmpty() && limiter.tryAcquireQuietly()) {
+      Runnable command = queue.poll();
+
+      if (command == null) {
+        // another thread took it
+        limiter.releaseUnused();
+
+        return;
+      }
+
+      try {
+        submitWithPermit(command);
+      } catch (RejectedExecutionException e) {
+        LOG.warn("executor rejected a queued task, dropping it", e);
+      }
+    }
+  }
+
+  private class LimitedTask implements Runnable {
+    private final Runnable command;
+
+    private LimitedTask(Runnable command) {
+      this.command = command;
+    }
+
+    @Override
+    public void run() {
+      long startNanos = System.nanoTime();
+      boolean succeeded = false;
+
+      try {
+        command.run();
+        succeeded = !failed(command);
+      } finally {
+        limiter.release(System.nanoTime() - startNanos, succeeded);
+        drainQueue();
+      }
+    }
+  }
+
+  /** submit() wraps tasks in a FutureTask, which keeps the failure rather than throwing it */
+  private static boolean failed(Runnable command) {
+    if (!(command instanceof Future)) {
+      return false;
+    }
+
+    Future<?> future = (Future<?>) command;
+
+    if (!future.isDone() || future.isCancelled()) {
+      return false;
+    }
+
+    try {
+      future.get();
+
+      return false;
+    } catch (ExecutionException e) {
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+
+      return false;
+    }
+  }
+
+  @Override
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  @Override
+  public List<Runnable> shutdownNow() {
+    List<Runnable> pending = new ArrayList<>();
+
+    queue.drainTo(pending);
+    pending.addAll(executor.shutdownNow());
+
+    return pending;
+  }
+
+  @Override
+  public boolean isShutdown() {
+    return executor.isShutdown();
+  }
+
+  @Override
+  public boolean isTerminated() {
+    return executor.isTerminated();
+  }
+
+  @Override
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    return executor.awaitTermination(timeout, unit);
+  }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.concurrency;
+
+import com.facebook.stats.MultiWindowRate;
+import com.facebook.stats.mx.Stats;
+import com.google.common.base.Preconditions;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * concurrency limit that adapts to the latency of the work it admits, using AIMD: while tasks
+ * finish within targetLatency and the limit is actually being used, it grows by about one per
+ * limit's worth of completions; when a task is slower than that or fails, it is multiplied by
+ * backoffRatio, at most once per limit's worth of completions so one burst of slow tasks is not
+ * counted over and over.
+ *
+ * <p>Callers take a permit before starting a task and give it back with the task's latency:
+ *
+ * <pre>
+ *   if (limiter.tryAcquire()) {
+ *     long start = System.nanoTime();
+ *     boolean succeeded = false;
+ *
+ *     try {
+ *       callBackend();
+ *       succeeded = true;
+ *     } finally {
+ *       limiter.release(System.nanoTime() - start, succeeded);
+ *     }
+ *   }
+ * </pre>
+ *
+ * <p>wrap() does this for a Runnable, blocking for a permit, which is how to bound a {@link
+ * ParallelRunner} call: give it numThreads equal to maxLimit and wrapped tasks. {@link
+ * AdaptiveConcurrencyExecutorService} does it for every task of an ExecutorService.
+ *
+ * <p>The Stats instance gets prefix.limit and prefix.in_flight counters and a prefix.rejected
+ * rate.
+ */
+public class AdaptiveConcurrencyLimiter {
+  private static final double DEFAULT_BACKOFF_RATIO = 0.9;
+
+  private final int minLimit;
+  private final int maxLimit;
+  private final long targetLatencyNanos;
+  private final double backoffRatio;
+  private final MultiWindowRate rejected;
+  // guarded by this
+  private double limit;
+  private int inFlight = 0;
+  private long completions = 0;
+  private long lastDecrease;
+
+  /**
+   * @param initialLimit
+   * @param minLimit the limit never goes below this
+   * @param maxLimit the limit never goes above this
+   * @param targetLatency tasks slower than this make the limit go down
+   * @param targetLatencyUnit
+   * @param backoffRatio factor applied to the limit on a decrease, between 0 and 1
+   * @param stats
+   * @param prefix for the stats keys
+   */
+  public AdaptiveConcurrencyLimiter(
+      int initialLimit,
+      int minLimit,
+      int maxLimit,
+      long targetLatency,
+      TimeUnit targetLatencyUnit,
+      double backoffRatio,
+      Stats stats,
+      String prefix) {
+    Preconditions.checkArgument(minLimit > 0, "minLimit must be > 0");
+    Preconditions.checkArgument(maxLimit >= minLimit, "maxLimit must be >= minLimit");
+    Preconditions.checkArgument(
+        initialLimit >= minLimit && initialLimit <= maxLimit,
+        "initialLimit must be between minLimit and maxLimit");
+    Preconditions.checkArgument(
+        backoffRatio > 0 && backoffRatio < 1, "backoffRatio must be between 0 and 1");
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.targetLatencyNanos = targetLatencyUnit.toNanos(targetLatency);
+    this.backoffRatio = backoffRatio;
+    this.limit = initialLimit;
+    // so the first slow task already backs off
+    this.lastDecrease = -maxLimit;
+    rejected = stats.getRate(prefix + ".rejected");
+    stats.addDynamicCounter(prefix + ".limit", () -> (long) getLimit());
+    stats.addDynamicCounter(prefix + ".in_flight", () -> (long) getInFlight());
+  }
+
+  public AdaptiveConcurrencyLimiter(
+      int initialLimit,
+      int minLimit,
+      int maxLimit,
+      long targetLatency,
+      TimeUnit targetLatencyUnit,
+      Stats stats,
+      String prefix) {
+    this(
+        initialLimit,
+        minLimit,
+        maxLimit,
+        targetLatency,
+        targetLatencyUnit,
+        DEFAULT_BACKOFF_RATIO,
+        stats,
+        prefix);
+  }
+
+  /** @return true if a permit was taken; false, counted as rejected, if the limit is reached */
+  public boolean tryAcquire() {
+    if (!tryAcquireQuietly()) {
+      rejected.add(1);
+
+      return false;
+    }
+
+    return true;
+  }
+
+  /** for callers that queue the task when there is no permit, rather than rejecting it */
+  synchronized boolean tryAcquireQuietly() {
+    if (inFlight >= getLimit()) {
+      return false;
+    }
+
+    inFlight++;
+
+    return true;
+  }
+
+  /** waits until a permit is free */
+  public synchronized void acquire() throws InterruptedException {
+    while (inFlight >= getLimit()) {
+      wait();
+    }
+
+    inFlight++;
+  }
+
+  /**
+   * @return false, counted as rejected, if no permit was free within timeout
+   */
+  public synchronized boolean acquire(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadlineNanos = System.nanoTime() + unit.toNanos(timeout);
+
+    while (inFlight >= getLimit()) {
+      long remainingNanos = deadlineNanos - System.nanoTime();
+
+      if (remainingNanos <= 0) {
+        rejected.add(1);
+
+        return false;
+      }
+
+      TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+    }
+
+    inFlight++;
+
+    return true;
+  }
+
+  /**
+   * gives back a permit and adjusts the limit
+   *
+   * @param latencyNanos how long the task took
+   * @param succeeded false if the task failed, e.g. timed out or was turned away downstream
+   */
+  public synchronized void release(long latencyNanos, boolean succeeded) {
+    Preconditions.checkState(inFlight > 0, "release() without a permit");
+
+    // only grow while the limit is what holds tasks back, or an idle limiter would creep up to max
+    boolean limitInUse = inFlight * 2 >= limit;
+
+    inFlight--;
+    completions++;
+
+    if (!succeeded || latencyNanos > targetLatencyNanos) {
+      if (completions - lastDecrease >= limit) {
+        limit = Math.max(minLimit, limit * backoffRatio);
+        lastDecrease = completions;
+      }
+    } else if (limitInUse) {
+      limit = Math.min(maxLimit, limit + 1 / limit);
+    }
+
+    notifyAll();
+  }
+
+  /** gives back a permit that was not used to run anything, leaving the limit alone */
+  public synchronized void releaseUnused() {
+    Preconditions.checkState(inFlight > 0, "releaseUnused() without a permit");
+    inFlight--;
+    notifyAll();
+  }
+
+  /** @return task that holds a permit while it runs, waiting for one if needed */
+  public Runnable wrap(Runnable task) {
+    return () -> {
+      try {
+        acquire();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+
+        throw new RuntimeException("interrupted waiting for a permit", e);
+      }
+
+      long startNanos = System.nanoTime();
+      boolean succeeded = false;
+
+      try {
+        task.run();
+        succeeded = true;
+      } finally {
+        release(System.nanoTime() - startNanos, succeeded);
+      }
+    };
+  }
+
+  public synchronized int getLimit() {
+    return (int) limit;
+  }
+
+  public synchronized int getInFlight() {
+    return inFlight;
+  }
+
+  public MultiWindowRate getRejected() {
+    return rejected;
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.concurrency;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * non-blocking counterpart of {@link CoreConcurrentCache}: get() never waits for a value, it
+ * returns a future for it. The first get() of a key inserts a placeholder future into the map with
+ * putIfAbsent, then starts the load; concurrent gets of the key find the placeholder and share it,
+ * so there is one load per key and no thread parks on another's.
+ *
+ * <p>As with the other caches, a failed load stays cached until remove(...) or removeIfError(...).
+ *
+ * <p>Every method hands out a dependent copy of the stored future, so a caller that completes or
+ * cancels its future affects no one else. Dependent stages added with the non-async
+ * CompletableFuture methods run on whichever thread completes the loader's future; use the *Async
+ * variants to keep slow work off that thread.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class AsyncConcurrentCache<K, V> {
+  private final ConcurrentMap<K, CompletableFuture<V>> cache = new ConcurrentHashMap<>();
+  private final AsyncValueFactory<K, V> valueFactory;
+
+  public AsyncConcurrentCache(AsyncValueFactory<K, V> valueFactory) {
+    this.valueFactory = valueFactory;
+  }
+
+  /**
+   * @param key
+   * @return future for the value, completed by the one load shared with all other callers for
+   *     this key; it may already be complete. Load failures complete it exceptionally.
+   */
+  public CompletableFuture<V> get(K key) {
+    CompletableFuture<V> future = cache.get(key);
+
+    if (future != null) {
+      return copy(future);
+    }
+
+    CompletableFuture<V> placeholder = new CompletableFuture<>();
+    CompletableFuture<V> existingFuture = cache.putIfAbsent(key, placeholder);
+
+    // did another thread insert a future into the cache before us?  If so, use it
+    if (existingFuture != null) {
+      return copy(existingFuture);
+    }
+
+    load(key, placeholder);
+
+    return copy(placeholder);
+  }
+
+  /**
+   * atomic insert that will replace any existing value
+   *
+   * @return future previously mapped to key, or null if none is present
+   */
+  public CompletableFuture<V> put(K key, V value) {
+    return copyOrNull(cache.put(key, CompletableFuture.completedFuture(value)));
+  }
+
+  /** @return future removed from the cache, or null if not present */
+  public CompletableFuture<V> remove(K key) {
+    return copyOrNull(cache.remove(key));
+  }
+
+  /**
+   * removes the key if its load has failed. In-flight loads are left alone
+   *
+   * @return true iff the key was removed
+   */
+  public boolean removeIfError(K key) {
+    CompletableFuture<V> future = cache.get(key);
+
+    return future != null && future.isCompletedExceptionally() && cache.remove(key, future);
+  }
+
+  /** @return the future for key if there is one, without starting a load; null otherwise */
+  public CompletableFuture<V> getIfPresent(K key) {
+    return copyOrNull(cache.get(key));
+  }
+
+  public void clear() {
+    cache.clear();
+  }
+
+  /** @return number of keys in the cache, including in-flight loads */
+  public int size() {
+    return cache.size();
+  }
+
+  // completing or cancelling the copy leaves the cached future alone
+  private static <V> CompletableFuture<V> copy(CompletableFuture<V> future) {
+    return future.thenApply(Function.identity());
+  }
+
+  private static <V> CompletableFuture<V> copyOrNull(CompletableFuture<V> future) {
+    return future == null ? null : copy(future);
+  }
+
+  private void load(K key, CompletableFuture<V> placeholder) {
+    CompletableFuture<V> loadFuture;
+
+    try {
+      loadFuture = valueFactory.create(key);
+    } catch (Throwable t) {
+      placeholder.completeExceptionally(t);
+
+      return;
+    }
+
+    if (loadFuture == null) {
+      placeholder.completeExceptionally(
+          new NullPointerException("AsyncValueFactory returned null for key " + key));
+
+      return;
+    }
+
+    loadFuture.whenComplete(
+        (value, throwable) -> {
+          if (throwable != null) {
+            placeholder.completeExceptionally(throwable);
+          } else {
+            placeholder.complete(value);
+          }
+        });
+  }
+}
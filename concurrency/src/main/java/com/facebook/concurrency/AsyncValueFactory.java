@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.concurrency;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * ValueFactory for {@link AsyncConcurrentCache}: starts creating the value and returns right away
+ *
+ * @param <I> input (key) type
+ * @param <O> output (value) type
+ */
+public interface AsyncValueFactory<I, O> {
+  /**
+   * @param input
+   * @return future for the value; a failure may be reported either by completing it exceptionally
+   *     or by throwing
+   */
+  public CompletableFuture<O> create(I input) throws Exception;
+}
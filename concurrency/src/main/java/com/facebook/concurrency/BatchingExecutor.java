@@ -0,0 +1,415 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.concurrency;
+
+import com.facebook.stats.MultiWindowDistribution;
+import com.facebook.stats.MultiWindowRate;
+import com.facebook.stats.mx.Stats;
+import com.facebook.util.function.ExtConsumer;
+import com.google.common.base.Preconditions;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToLongFunction;
+import org.joda.time.DateTimeUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * collects items and hands them to a processor in batches, e.g. for log shipping or bulk DB
+ * writes. A batch is closed when it reaches maxBatchSize items or maxBatchBytes bytes, or
+ * maxDelay after its first item was added, whichever comes first.
+ *
+ * <pre>
+ *   BatchingExecutor&lt;LogLine&gt; shipper = new BatchingExecutor&lt;&gt;(
+ *     lines -&gt; client.send(lines), executor, scheduler,
+ *     500, 100, TimeUnit.MILLISECONDS, 10000, 4, stats, "log_shipper"
+ *   );
+ *
+ *   shipper.add(line);
+ * </pre>
+ *
+ * <p>Up to maxConcurrentBatches batches are processed at once on the executor; closed batches
+ * beyond that wait their turn, in order. Once maxPendingItems items are waiting or being
+ * processed, add() blocks (and tryAdd() fails) until a batch completes, so a slow processor slows
+ * down its producers instead of filling the heap.
+ *
+ * <p>The Stats instance gets prefix.batch_size and prefix.batch_latency_ms distributions (the
+ * latter from a batch's first item being added until the batch is processed), prefix.items and
+ * prefix.failed_batches rates, and a prefix.pending counter.
+ *
+ * @param <T>
+ */
+public class BatchingExecutor<T> {
+  private static final Logger LOG = LoggerFactory.getLogger(BatchingExecutor.class);
+
+  private final ExtConsumer<List<T>, ? extends Exception> processor;
+  private final ExecutorService executor;
+  private final ScheduledExecutorService scheduler;
+  private final int maxBatchSize;
+  private final long maxBatchBytes;
+  private final ToLongFunction<? super T> sizer;
+  private final long maxDelayMillis;
+  private final int maxPendingItems;
+  private final int maxConcurrentBatches;
+  private final MultiWindowDistribution batchSize;
+  private final MultiWindowDistribution batchLatencyMillis;
+  private final MultiWindowRate items;
+  private final MultiWindowRate failedBatches;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notFull = lock.newCondition();
+  private final Condition drained = lock.newCondition();
+  // all guarded by lock
+  private final ArrayDeque<Batch> closedBatches = new ArrayDeque<>();
+  private Batch currentBatch;
+  private int pendingItems = 0;
+  private int runningBatches = 0;
+  private boolean shutdown = false;
+
+  /**
+   * @param processor called with each batch; failures are logged and the batch dropped
+   * @param executor processes the batches
+   * @param scheduler closes batches once maxDelay has passed
+   * @param maxBatchSize max items per batch
+   * @param maxBatchBytes max total size of a batch's items, as measured by sizer
+   * @param sizer size in bytes of an item, measured once when it is added
+   * @param maxDelay max time from an item being added until its batch is closed
+   * @param maxDelayUnit
+   * @param maxPendingItems max items added but not yet processed before add() blocks
+   * @param maxConcurrentBatches max batches processed at once
+   * @param stats
+   * @param prefix for the stats keys
+   */
+  public BatchingExecutor(
+      ExtConsumer<List<T>, ? extends Exception> processor,
+      ExecutorService executor,
+      ScheduledExecutorService scheduler,
+      int maxBatchSize,
+      long maxBatchBytes,
+      ToLongFunction<? super T> sizer,
+      long maxDelay,
+      TimeUnit maxDelayUnit,
+      int maxPendingItems,
+      int maxConcurrentBatches,
+      Stats stats,
+      String prefix) {
+    Preconditions.checkArgument(maxBatchSize > 0, "maxBatchSize must be > 0");
+    Preconditions.checkArgument(maxBatchBytes > 0, "maxBatchBytes must be > 0");
+    Preconditions.checkArgument(maxDelay >= 0, "maxDelay must be >= 0");
+    Preconditions.checkArgument(
+        maxPendingItems >= maxBatchSize, "maxPendingItems must be >= maxBatchSize");
+    Preconditions.checkArgument(maxConcurrentBatches > 0, "maxConcurrentBatches must be > 0");
+    this.processor = processor;
+    this.executor = executor;
+    this.scheduler = scheduler;
+    this.maxBatchSize = maxBatchSize;
+    this.maxBatchBytes = maxBatchBytes;
+    this.sizer = sizer;
+    this.maxDelayMillis = maxDelayUnit.toMillis(maxDelay);
+    this.maxPendingItems = maxPendingItems;
+    this.maxConcurrentBatches = maxConcurrentBatches;
+    batchSize = stats.getDistribution(prefix + ".batch_size");
+    batchLatencyMillis = stats.getDistribution(prefix + ".batch_latency_ms");
+    items = stats.getRate(prefix + ".items");
+    failedBatches = stats.getRate(prefix + ".failed_batches");
+    stats.addDynamicCounter(prefix + ".pending", () -> (long) getPendingItems());
+  }
+
+  /** batches are limited by item count and time only */
+  public BatchingExecutor(
+      ExtConsumer<List<T>, ? extends Exception> processor,
+      ExecutorService executor,
+      ScheduledExecutorService scheduler,
+      int maxBatchSize,
+      long maxDelay,
+      TimeUnit maxDelayUnit,
+      int maxPendingItems,
+      int maxConcurrentBatches,
+      Stats stats,
+      String prefix) {
+    this(
+        processor,
+        executor,
+        scheduler,
+        maxBatchSize,
+        Long.MAX_VALUE,
+        item -> 0,
+        maxDelay,
+        maxDelayUnit,
+        maxPendingItems,
+        maxConcurrentBatches,
+        stats,
+        prefix);
+  }
+
+  /**
+   * adds item to the current batch, waiting for room if maxPendingItems are pending
+   *
+   * @throws RejectedExecutionException after shutdown()
+   */
+  public void add(T item) throws InterruptedException {
+    lock.lockInterruptibly();
+
+    try {
+      while (pendingItems >= maxPendingItems && !shutdown) {
+        notFull.await();
+      }
+
+      addLocked(item);
+    } finally {
+      lock.unlock();
+    }
+
+    dispatch();
+  }
+
+  /**
+   * @return false, without adding item, if it would have to wait for room
+   * @throws RejectedExecutionException after shutdown()
+   */
+  public boolean tryAdd(T item) {
+    lock.lock();
+
+    try {
+      if (pendingItems >= maxPendingItems && !shutdown) {
+        return false;
+      }
+
+      addLocked(item);
+    } finally {
+      lock.unlock();
+    }
+
+    dispatch();
+
+    return true;
+  }
+
+  /** closes the current batch now, rather than waiting for it to fill up or time out */
+  public void flush() {
+    lock.lock();
+
+    try {
+      closeCurrentBatch();
+    } finally {
+      lock.unlock();
+    }
+
+    dispatch();
+  }
+
+  /** flushes the current batch; later calls to add() are rejected */
+  public void shutdown() {
+    lock.lock();
+
+    try {
+      shutdown = true;
+      // wake up blocked producers so they see the shutdown
+      notFull.signalAll();
+    } finally {
+      lock.unlock();
+    }
+
+    flush();
+  }
+
+  /** @return true once every item added has been processed */
+  public boolean awaitDrained(long timeout, TimeUnit unit) throws InterruptedException {
+    long remainingNanos = unit.toNanos(timeout);
+
+    lock.lock();
+
+    try {
+      while (pendingItems > 0) {
+        if (remainingNanos <= 0) {
+          return false;
+        }
+
+        remainingNanos = drained.awaitNanos(remainingNanos);
+      }
+
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** @return items added but not yet processed, including those being processed */
+  public int getPendingItems() {
+    lock.lock();
+
+    try {
+      return pendingItems;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void addLocked(T item) {
+    if (shutdown) {
+      throw new RejectedExecutionException("BatchingExecutor has been shut down");
+    }
+
+    long itemBytes = sizer.applyAsLong(item);
+
+    Preconditions.checkArgument(itemBytes >= 0, "item size must be >= 0");
+
+    if (currentBatch == null) {
+      Batch batch = new Batch();
+
+      currentBatch = batch;
+
+      if (maxDelayMillis < Long.MAX_VALUE) {
+        batch.timeout =
+            scheduler.schedule(() -> closeOnTimeout(batch), maxDelayMillis, TimeUnit.MILLISECONDS);
+      }
+    } else if (currentBatch.bytes + itemBytes > maxBatchBytes) {
+      // close the batch before it goes over; an item bigger than maxBatchBytes gets one to itself
+      closeCurrentBatch();
+      addLocked(item);
+
+      return;
+    }
+
+    currentBatch.items.add(item);
+    currentBatch.bytes += itemBytes;
+    pendingItems++;
+    items.add(1);
+
+    if (currentBatch.items.size() >= maxBatchSize || currentBatch.bytes >= maxBatchBytes) {
+      closeCurrentBatch();
+    }
+  }
+
+  private void closeOnTimeout(Batch batch) {
+    lock.lock();
+
+    try {
+      // the batch may have been closed by size, or by an earlier flush
+      if (currentBatch != batch) {
+        return;
+      }
+
+      closeCurrentBatch();
+    } finally {
+      lock.unlock();
+    }
+
+    dispatch();
+  }
+
+  private void closeCurrentBatch() {
+    if (currentBatch == null) {
+      return;
+    }
+
+    if (currentBatch.timeout != null) {
+      currentBatch.timeout.cancel(false);
+    }
+
+    closedBatches.add(currentBatch);
+    currentBatch = null;
+  }
+
+  /** starts processing tasks for closed batches, up to maxConcurrentBatches */
+  private void dispatch() {
+    int toStart;
+
+    lock.lock();
+
+    try {
+      toStart = Math.min(closedBatches.size(), maxConcurrentBatches - runningBatches);
+
+      if (toStart <= 0) {
+        return;
+      }
+
+      runningBatches += toStart;
+    } finally {
+      lock.unlock();
+    }
+
+    for (int i = 0; i < toStart; i++) {
+      try {
+        executor.execute(this::processBatches);
+      } catch (RejectedExecutionException e) {
+        LOG.warn("executor rejected batch processing, processing on the calling thread");
+        processBatches();
+      }
+    }
+  }
+
+  /** holds one of the runningBatches slots; keeps going while there are closed batches */
+  private void processBatches() {
+    while (true) {
+      Batch batch;
+
+      lock.lock();
+
+      try {
+        batch = closedBatches.poll();
+
+        if (batch == null) {
+          runningBatches--;
+
+          return;
+        }
+      } finally {
+        lock.unlock();
+      }
+
+      try {
+        processor.accept(batch.items);
+      } catch (Exception e) {
+        LOG.warn("Ignoring Task Failure", e);
+        failedBatches.add(1);
+      } finally {
+        batchSize.add(batch.items.size());
+        batchLatencyMillis.add(DateTimeUtils.currentTimeMillis() - batch.startMillis);
+        completed(batch);
+      }
+    }
+  }
+
+  private void completed(Batch batch) {
+    lock.lock();
+
+    try {
+      pendingItems -= batch.items.size();
+      notFull.signalAll();
+
+      if (pendingItems == 0) {
+        drained.signalAll();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private class Batch {
+    private final List<T> items = new ArrayList<>();
+    private final long startMillis = DateTimeUtils.currentTimeMillis();
+    private long bytes = 0;
+    private ScheduledFuture<?> timeout;
+  }
+}
@@ -0,0 +1,733 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.concurrency;
+
+import com.facebook.util.exceptions.ExceptionHandler;
+import com.google.common.base.Preconditions;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ConcurrentCache bounded by entry count or total weight, evicting with W-TinyLFU:
+ *
+ * <ul>
+ *   <li>new entries enter a small LRU admission window (1% of the capacity)
+ *   <li>entries leaving the window are candidates for the main space, a segmented LRU (probation
+ *       and protected)
+ *   <li>when the cache is full, a candidate is only admitted if a count-min sketch says it has been
+ *       used more often recently than the main space's eviction victim
+ * </ul>
+ *
+ * <p>Loads are de-duplicated by an underlying {@link CoreConcurrentCache}, so get() behaves as it
+ * does there (including caching exceptions until removeIfError()). The request path never takes
+ * the eviction lock: reads are sampled into small lossy, striped buffers and writes are queued;
+ * both are replayed against the policy in batches by whichever thread runs the maintenance task on
+ * the supplied executor (ForkJoinPool.commonPool() by default; pass Runnable::run to keep it on
+ * the caller's thread, under a tryLock). Evicted entries are reported to the EvictionListener
+ * after the lock is released.
+ *
+ * <p>Entries removed through iterator().remove() or clear() stop counting towards the bound.
+ *
+ * @param <K> key to use in the cache
+ * @param <V> value of the cache
+ * @param <E> exception that may be thrown when creating the value for the cache
+ */
+public class BoundedConcurrentCache<K, V, E extends Exception>
+    implements ConcurrentCache<K, V, E> {
+  private static final Logger LOG = LoggerFactory.getLogger(BoundedConcurrentCache.class);
+
+  private static final int READ_BUFFER_STRIPES = 4; // power of 2
+  private static final int READ_BUFFER_SIZE = 64; // power of 2
+  private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+  // schedule maintenance every READ_DRAIN_INTERVAL reads on a stripe
+  private static final int READ_DRAIN_INTERVAL = READ_BUFFER_SIZE / 2;
+  private static final double WINDOW_FRACTION = 0.01;
+  private static final double PROTECTED_FRACTION = 0.8;
+  private static final long MAX_SKETCH_SIZE = 1 << 20;
+
+  private final ConcurrentMap<K, Object> map = new ConcurrentHashMap<>();
+  private final ConcurrentCache<K, Node<K, V, E>, E> baseCache;
+  private final Weigher<? super K, ? super V> weigher;
+  private final EvictionListener<K, V> evictionListener;
+  private final Executor executor;
+  private final ReadBuffer[] readBuffers = new ReadBuffer[READ_BUFFER_STRIPES];
+  private final Queue<Runnable> writeBuffer = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+  private final Runnable drainTask = this::runMaintenance;
+
+  // policy state, all guarded by evictionLock
+  private final ReentrantLock evictionLock = new ReentrantLock();
+  private final FrequencySketch sketch;
+  private final AccessOrderQueue<K, V, E> window = new AccessOrderQueue<>();
+  private final AccessOrderQueue<K, V, E> probation = new AccessOrderQueue<>();
+  private final AccessOrderQueue<K, V, E> protectedQueue = new AccessOrderQueue<>();
+  private final long maximumWeight;
+  private final long windowMaximum;
+  private final long protectedMaximum;
+  private long windowWeight = 0;
+  private long protectedWeight = 0;
+  private long weightedSize = 0;
+
+  /**
+   * @param valueFactory
+   * @param maximumWeight bound on the sum of the weights of all entries
+   * @param weigher weight of each entry; entries whose value creation failed weigh 1
+   * @param evictionListener notified of entries evicted to honor the bound (not of explicit
+   *     removals)
+   * @param exceptionHandler
+   * @param executor runs maintenance (policy updates, eviction and listener calls). Should not
+   *     reject tasks; if it does, maintenance falls back to the calling thread. Runnable::run
+   *     runs it on the calling thread, on the request path
+   */
+  public BoundedConcurrentCache(
+      ValueFactory<K, V, E> valueFactory,
+      long maximumWeight,
+      Weigher<? super K, ? super V> weigher,
+      EvictionListener<K, V> evictionListener,
+      ExceptionHandler<E> exceptionHandler,
+      Executor executor) {
+    Preconditions.checkArgument(maximumWeight > 0, "maximumWeight must be > 0");
+    this.baseCache =
+        new CoreConcurrentCache<>(
+            new NodeValueFactory(valueFactory, exceptionHandler), exceptionHandler, map);
+    this.maximumWeight = maximumWeight;
+    this.weigher = weigher;
+    this.evictionListener = evictionListener;
+    this.executor = executor;
+    this.windowMaximum = Math.max(1, (long) (maximumWeight * WINDOW_FRACTION));
+    this.protectedMaximum = (long) ((maximumWeight - windowMaximum) * PROTECTED_FRACTION);
+    this.sketch = new FrequencySketch(Math.min(maximumWeight, MAX_SKETCH_SIZE));
+
+    for (int i = 0; i < READ_BUFFER_STRIPES; i++) {
+      readBuffers[i] = new ReadBuffer();
+    }
+  }
+
+  /**
+   * bounded by number of entries; maintenance runs on ForkJoinPool.commonPool()
+   *
+   * @param valueFactory
+   * @param maximumSize
+   * @param evictionListener
+   * @param exceptionHandler
+   */
+  public BoundedConcurrentCache(
+      ValueFactory<K, V, E> valueFactory,
+      long maximumSize,
+      EvictionListener<K, V> evictionListener,
+      ExceptionHandler<E> exceptionHandler) {
+    this(
+        valueFactory,
+        maximumSize,
+        (key, value) -> 1,
+        evictionListener,
+        exceptionHandler,
+        ForkJoinPool.commonPool());
+  }
+
+  @Override
+  public V get(K key) throws E {
+    Node<K, V, E> node = baseCache.get(key);
+
+    recordAccess(node);
+
+    return node.get();
+  }
+
+  @Override
+  public V put(K key, V value) throws E {
+    Node<K, V, E> node = new Node<>(key, value, null, weigh(key, value));
+    Node<K, V, E> existingNode = baseCache.put(key, node);
+
+    if (node.register()) {
+      afterWrite(() -> onAdd(node));
+    }
+
+    if (existingNode == null) {
+      return null;
+    }
+
+    retire(existingNode);
+
+    return existingNode.get();
+  }
+
+  @Override
+  public V remove(K key) throws E {
+    Node<K, V, E> node = baseCache.remove(key);
+
+    if (node == null) {
+      return null;
+    }
+
+    retire(node);
+
+    return node.get();
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public boolean removeIfError(K key) {
+    Object value = map.get(key);
+
+    // in-flight loads are still wrapped in the base cache's private future type
+    if (value instanceof Node && ((Node<K, V, E>) value).exception != null) {
+      if (map.remove(key, value)) {
+        retire((Node<K, V, E>) value);
+
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  @Override
+  public CallableSnapshot<V, E> getIfPresent(K key) {
+    CallableSnapshot<Node<K, V, E>, E> snapshot = baseCache.getIfPresent(key);
+
+    if (snapshot == null) {
+      return null;
+    }
+
+    Node<K, V, E> node = getNode(snapshot);
+
+    recordAccess(node);
+
+    return node.toSnapshot();
+  }
+
+  @Override
+  public void clear() {
+    baseCache.clear();
+    evictionLock.lock();
+
+    try {
+      drainBuffers();
+      retireAll(window);
+      retireAll(probation);
+      retireAll(protectedQueue);
+      windowWeight = 0;
+      protectedWeight = 0;
+      weightedSize = 0;
+    } finally {
+      unlockEvictionLock();
+    }
+  }
+
+  /** synchronously replays buffered reads and writes and evicts down to the bound */
+  @Override
+  public void prune() {
+    List<Node<K, V, E>> evicted;
+
+    evictionLock.lock();
+
+    try {
+      evicted = maintenance();
+    } finally {
+      unlockEvictionLock();
+    }
+
+    notifyEvicted(evicted);
+  }
+
+  @Override
+  public int size() {
+    return baseCache.size();
+  }
+
+  /**
+   * @return sum of the weights of the entries the eviction policy knows about; may lag behind
+   *     recent writes until maintenance runs
+   */
+  public long weightedSize() {
+    evictionLock.lock();
+
+    try {
+      return weightedSize;
+    } finally {
+      unlockEvictionLock();
+    }
+  }
+
+  public long getMaximumWeight() {
+    return maximumWeight;
+  }
+
+  @Override
+  public Iterator<Map.Entry<K, CallableSnapshot<V, E>>> iterator() {
+    Iterator<Map.Entry<K, CallableSnapshot<Node<K, V, E>, E>>> iterator = baseCache.iterator();
+
+    return new Iterator<Map.Entry<K, CallableSnapshot<V, E>>>() {
+      private Node<K, V, E> lastNode;
+
+      @Override
+      public boolean hasNext() {
+        return iterator.hasNext();
+      }
+
+      @Override
+      public Map.Entry<K, CallableSnapshot<V, E>> next() {
+        Map.Entry<K, CallableSnapshot<Node<K, V, E>, E>> entry = iterator.next();
+
+        lastNode = getNode(entry.getValue());
+
+        return new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), lastNode.toSnapshot());
+      }
+
+      @Override
+      public void remove() {
+        iterator.remove();
+        retire(lastNode);
+      }
+    };
+  }
+
+  private int weigh(K key, V value) {
+    int weight = weigher.weigh(key, value);
+
+    Preconditions.checkState(weight >= 0, "negative weight %s for key %s", weight, key);
+
+    return weight;
+  }
+
+  private Node<K, V, E> getNode(CallableSnapshot<Node<K, V, E>, E> snapshot) {
+    try {
+      return snapshot.get();
+    } catch (Exception e) {
+      // NodeValueFactory never throws: failures are stored in the Node
+      throw new RuntimeException("Node create should not fail", e);
+    }
+  }
+
+  /**
+   * the first thread to see a new node hands it to the policy; later accesses are recorded as
+   * reads. A node is only registered once it is visible in the map, which keeps the policy from
+   * evicting a node before CoreConcurrentCache has swapped it in for its placeholder. A load that
+   * raced with clear() or remove() may never be mapped at all; onAdd() drops such nodes.
+   */
+  private void recordAccess(Node<K, V, E> node) {
+    if (node.register()) {
+      afterWrite(() -> onAdd(node));
+    } else if (readBuffers[stripe()].record(node)) {
+      scheduleDrain();
+    }
+  }
+
+  private void retire(Node<K, V, E> node) {
+    if (node.retire()) {
+      afterWrite(() -> onRemove(node));
+    }
+  }
+
+  private void afterWrite(Runnable task) {
+    writeBuffer.add(task);
+    scheduleDrain();
+  }
+
+  private void scheduleDrain() {
+    if (drainScheduled.compareAndSet(false, true)) {
+      try {
+        executor.execute(drainTask);
+      } catch (RejectedExecutionException e) {
+        LOG.warn("maintenance rejected by executor, running in caller", e);
+        runMaintenance();
+      }
+    }
+  }
+
+  private void runMaintenance() {
+    // clear first so events arriving while we drain schedule another pass
+    drainScheduled.set(false);
+
+    // if the lock is busy, its holder sees our writes when it unlocks
+    if (evictionLock.tryLock()) {
+      List<Node<K, V, E>> evicted;
+
+      try {
+        evicted = maintenance();
+      } finally {
+        unlockEvictionLock();
+      }
+
+      notifyEvicted(evicted);
+    }
+  }
+
+  /**
+   * writes queued while the lock was held may have found it busy in runMaintenance() and given up
+   * their pass, so every holder schedules one for them on the way out
+   */
+  private void unlockEvictionLock() {
+    evictionLock.unlock();
+
+    if (!writeBuffer.isEmpty()) {
+      scheduleDrain();
+    }
+  }
+
+  private List<Node<K, V, E>> maintenance() {
+    drainBuffers();
+
+    return evict();
+  }
+
+  private void drainBuffers() {
+    for (ReadBuffer readBuffer : readBuffers) {
+      readBuffer.drainTo(this);
+    }
+
+    Runnable task;
+
+    while ((task = writeBuffer.poll()) != null) {
+      task.run();
+    }
+  }
+
+  private void onAdd(Node<K, V, E> node) {
+    if (node.isRetired() || node.queue != null) {
+      return;
+    }
+
+    // not mapped now means never mapped again: its placeholder is gone. Checked under the lock, so
+    // a clear() that unmaps it later still finds it in the queues
+    if (map.get(node.key) != node) {
+      node.retire();
+
+      return;
+    }
+
+    sketch.increment(node.hash);
+    window.addLast(node);
+    windowWeight += node.weight;
+    weightedSize += node.weight;
+  }
+
+  private void onRead(Node<K, V, E> node) {
+    if (node.queue == null) {
+      // not added yet, or already removed
+      return;
+    }
+
+    sketch.increment(node.hash);
+
+    if (node.queue == probation) {
+      // second access: promote, demoting the least recently used protected entries if needed
+      probation.remove(node);
+      protectedQueue.addLast(node);
+      protectedWeight += node.weight;
+
+      while (protectedWeight > protectedMaximum && protectedQueue.peekFirst() != node) {
+        Node<K, V, E> demoted = protectedQueue.pollFirst();
+
+        protectedWeight -= demoted.weight;
+        probation.addLast(demoted);
+      }
+    } else {
+      node.queue.moveToBack(node);
+    }
+  }
+
+  private void onRemove(Node<K, V, E> node) {
+    unlink(node);
+  }
+
+  private void unlink(Node<K, V, E> node) {
+    if (node.queue == null) {
+      return;
+    }
+
+    if (node.queue == window) {
+      windowWeight -= node.weight;
+    } else if (node.queue == protectedQueue) {
+      protectedWeight -= node.weight;
+    }
+
+    weightedSize -= node.weight;
+    node.queue.remove(node);
+  }
+
+  private List<Node<K, V, E>> evict() {
+    List<Node<K, V, E>> evicted = new ArrayList<>();
+    // entries that just left the window, oldest first, sit at the tail of probation
+    Node<K, V, E> candidate = null;
+
+    while (windowWeight > windowMaximum) {
+      Node<K, V, E> node = window.pollFirst();
+
+      windowWeight -= node.weight;
+      probation.addLast(node);
+
+      if (candidate == null) {
+        candidate = node;
+      }
+    }
+
+    while (weightedSize > maximumWeight) {
+      Node<K, V, E> victim = probation.peekFirst();
+
+      if (victim == candidate) {
+        // probation holds only candidates; contest the protected segment instead
+        victim = protectedQueue.peekFirst();
+      }
+
+      if (candidate == null) {
+        // nothing to admit: evict the oldest entry
+        Node<K, V, E> node = victim != null ? victim : window.peekFirst();
+
+        if (node == null) {
+          break;
+        }
+
+        evictNode(node, evicted);
+      } else if (victim == null || !admit(candidate, victim)) {
+        Node<K, V, E> next = candidate.next;
+
+        evictNode(candidate, evicted);
+        candidate = next;
+      } else {
+        evictNode(victim, evicted);
+      }
+    }
+
+    return evicted;
+  }
+
+  /** TinyLFU: the candidate must have been used more often recently than the victim */
+  private boolean admit(Node<K, V, E> candidate, Node<K, V, E> victim) {
+    return sketch.frequency(candidate.hash) > sketch.frequency(victim.hash);
+  }
+
+  private void evictNode(Node<K, V, E> node, List<Node<K, V, E>> evicted) {
+    unlink(node);
+
+    // only report nodes that were still mapped; others were removed or replaced concurrently
+    if (node.retire() && map.remove(node.key, node)) {
+      evicted.add(node);
+    }
+  }
+
+  private void retireAll(AccessOrderQueue<K, V, E> queue) {
+    Node<K, V, E> node;
+
+    while ((node = queue.pollFirst()) != null) {
+      node.retire();
+    }
+  }
+
+  private void notifyEvicted(List<Node<K, V, E>> evicted) {
+    for (Node<K, V, E> node : evicted) {
+      try {
+        evictionListener.evicted(node.key, node.value);
+      } catch (Throwable t) {
+        LOG.error("Error in eviction listener for key " + node.key, t);
+      }
+    }
+  }
+
+  private static int stripe() {
+    return (int) Thread.currentThread().getId() & (READ_BUFFER_STRIPES - 1);
+  }
+
+  private class NodeValueFactory implements ValueFactory<K, Node<K, V, E>, E> {
+    private final ValueFactory<K, V, E> valueFactory;
+    private final ExceptionHandler<E> exceptionHandler;
+
+    private NodeValueFactory(
+        ValueFactory<K, V, E> valueFactory, ExceptionHandler<E> exceptionHandler) {
+      this.valueFactory = valueFactory;
+      this.exceptionHandler = exceptionHandler;
+    }
+
+    @Override
+    public Node<K, V, E> create(K key) {
+      V value;
+
+      try {
+        value = valueFactory.create(key);
+      } catch (Exception e) {
+        return new Node<>(key, null, exceptionHandler.handle(e), 1);
+      }
+
+      return new Node<>(key, value, null, weigh(key, value));
+    }
+  }
+
+  /**
+   * lossy ring of recently read nodes. Writers may overwrite each other's slots or slots not yet
+   * drained; the policy only needs a sample of reads.
+   */
+  private static class ReadBuffer {
+    private final AtomicReferenceArray<Node<?, ?, ?>> slots =
+        new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+    private final AtomicLong writeCount = new AtomicLong();
+
+    /** @return true if enough reads accumulated that the buffer should be drained */
+    private boolean record(Node<?, ?, ?> node) {
+      long count = writeCount.getAndIncrement();
+
+      slots.lazySet((int) count & READ_BUFFER_MASK, node);
+
+      return (count & (READ_DRAIN_INTERVAL - 1)) == READ_DRAIN_INTERVAL - 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <K, V, E extends Exception> void drainTo(BoundedConcurrentCache<K, V, E> cache) {
+      for (int i = 0; i < READ_BUFFER_SIZE; i++) {
+        Node<?, ?, ?> node = slots.getAndSet(i, null);
+
+        if (node != null) {
+          cache.onRead((Node<K, V, E>) node);
+        }
+      }
+    }
+  }
+
+  /**
+   * a cache value plus its position in the eviction policy. key/value/exception/weight are
+   * immutable; prev/next/queue are guarded by the eviction lock.
+   */
+  private static class Node<K, V, E extends Exception> {
+    private static final int NEW = 0;
+    private static final int REGISTERED = 1;
+    private static final int RETIRED = 2;
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<Node> STATE_UPDATER =
+        AtomicIntegerFieldUpdater.newUpdater(Node.class, "state");
+
+    private final K key;
+    private final V value;
+    private final E exception;
+    private final int weight;
+    private final int hash;
+    private volatile int state = NEW;
+    private Node<K, V, E> prev;
+    private Node<K, V, E> next;
+    private AccessOrderQueue<K, V, E> queue;
+
+    private Node(K key, V value, E exception, int weight) {
+      this.key = key;
+      this.value = value;
+      this.exception = exception;
+      this.weight = weight;
+      this.hash = key.hashCode();
+    }
+
+    private V get() throws E {
+      if (exception != null) {
+        throw exception;
+      }
+
+      return value;
+    }
+
+    private CallableSnapshot<V, E> toSnapshot() {
+      return exception == null
+          ? new CallableSnapshot<>(new FixedValueCallable<>(value), new NullExceptionHandler<>())
+          : CallableSnapshot.createWithException(exception);
+    }
+
+    /** @return true for exactly one caller, unless the node was retired first */
+    private boolean register() {
+      return state == NEW && STATE_UPDATER.compareAndSet(this, NEW, REGISTERED);
+    }
+
+    /** @return true if the node had been registered with the policy and now must be unlinked */
+    private boolean retire() {
+      return STATE_UPDATER.getAndSet(this, RETIRED) == REGISTERED;
+    }
+
+    private boolean isRetired() {
+      return state == RETIRED;
+    }
+  }
+
+  /** intrusive doubly-linked list, least recently used at the head */
+  private static class AccessOrderQueue<K, V, E extends Exception> {
+    private Node<K, V, E> head;
+    private Node<K, V, E> tail;
+
+    private Node<K, V, E> peekFirst() {
+      return head;
+    }
+
+    private Node<K, V, E> pollFirst() {
+      Node<K, V, E> node = head;
+
+      if (node != null) {
+        remove(node);
+      }
+
+      return node;
+    }
+
+    private void addLast(Node<K, V, E> node) {
+      node.queue = this;
+      node.prev = tail;
+      node.next = null;
+
+      if (tail == null) {
+        head = node;
+      } else {
+        tail.next = node;
+      }
+
+      tail = node;
+    }
+
+    private void remove(Node<K, V, E> node) {
+      if (node.prev == null) {
+        head = node.next;
+      } else {
+        node.prev.next = node.next;
+      }
+
+      if (node.next == null) {
+        tail = node.prev;
+      } else {
+        node.next.prev = node.prev;
+      }
+
+      node.prev = null;
+      node.next = null;
+      node.queue = null;
+    }
+
+    private void moveToBack(Node<K, V, E> node) {
+      if (tail != node) {
+        remove(node);
+        addLast(node);
+      }
+    }
+  }
+}
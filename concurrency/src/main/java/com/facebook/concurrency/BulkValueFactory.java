@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.concurrency;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * ValueFactory that can also create many values in one call, e.g. a multi-get against a backing
+ * store. {@link CoreConcurrentCache#getAll(Iterable)} uses createAll() for all the keys it has to
+ * load.
+ *
+ * @param <I> input (key) type
+ * @param <O> output (value) type
+ * @param <E> exception thrown on creation
+ */
+public interface BulkValueFactory<I, O, E extends Exception> extends ValueFactory<I, O, E> {
+  /**
+   * @param inputs distinct inputs, never empty
+   * @return created values. Inputs that are missing from the result (or map to null) are created
+   *     individually with {@link #create(Object)}; a null result counts as an empty map, so every
+   *     input is created individually
+   * @throws E if the whole batch failed; the exception is cached for every input in it
+   */
+  public Map<I, O> createAll(Collection<I> inputs) throws E;
+
+  @Override
+  default O create(I input) throws E {
+    Map<I, O> values = createAll(Collections.singletonList(input));
+
+    return values == null ? null : values.get(input);
+  }
+}
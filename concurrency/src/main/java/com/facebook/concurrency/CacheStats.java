@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.concurrency;
+
+import com.facebook.stats.MultiWindowDistribution;
+import com.facebook.stats.mx.Stats;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * counters for one cache, exported through {@link Stats} under a prefix:
+ *
+ * <ul>
+ *   <li>prefix.requests: get(), getAll() (per key) and getIfPresent() calls
+ *   <li>prefix.hits: requests - misses
+ *   <li>prefix.misses: values created by the ValueFactory, plus getIfPresent() calls that found
+ *       nothing. Background reloads (RefreshingConcurrentCache) go through the factory and count
+ *       too
+ *   <li>prefix.load_failures: ValueFactory calls that threw
+ *   <li>prefix.evictions: EvictionListener notifications
+ *   <li>prefix.size: current size of the cache
+ *   <li>prefix.load_micros: distribution of ValueFactory latency, one sample per create() or
+ *       createAll() call
+ * </ul>
+ *
+ * <p>Counters are LongAdders, so a hit only increments a per-thread cell and allocates nothing.
+ * Usage: instrument the ValueFactory and EvictionListener a cache is built with, and wrap the cache
+ * in an {@link InstrumentedConcurrentCache}:
+ *
+ * <pre>
+ *   CacheStats cacheStats = new CacheStats(stats, "user_cache");
+ *   ConcurrentCache&lt;K, V, E&gt; cache = new InstrumentedConcurrentCache&lt;&gt;(
+ *     new ExpiringConcurrentCache&lt;&gt;(
+ *       cacheStats.instrument(valueFactory), 10, TimeUnit.MINUTES,
+ *       cacheStats.instrument(evictionListener), exceptionHandler),
+ *     cacheStats);
+ * </pre>
+ */
+public class CacheStats {
+  private final Stats stats;
+  private final String prefix;
+  private final LongAdder requests = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder loadFailures = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final MultiWindowDistribution loadMicros;
+
+  public CacheStats(Stats stats, String prefix) {
+    this.stats = stats;
+    this.prefix = prefix;
+    loadMicros = stats.getDistribution(prefix + ".load_micros");
+    stats.addDynamicCounter(prefix + ".requests", requests::sum);
+    stats.addDynamicCounter(prefix + ".hits", this::getHitCount);
+    stats.addDynamicCounter(prefix + ".misses", misses::sum);
+    stats.addDynamicCounter(prefix + ".load_failures", loadFailures::sum);
+    stats.addDynamicCounter(prefix + ".evictions", evictions::sum);
+  }
+
+  /**
+   * @return factory that records misses, failures and latency. A BulkValueFactory stays a
+   *     BulkValueFactory
+   */
+  public <K, V, E extends Exception> ValueFactory<K, V, E> instrument(
+      ValueFactory<K, V, E> valueFactory) {
+    if (valueFactory instanceof BulkValueFactory) {
+      return new InstrumentedBulkValueFactory<>((BulkValueFactory<K, V, E>) valueFactory);
+    }
+
+    return input -> {
+      long start = System.nanoTime();
+      boolean success = false;
+
+      try {
+        V value = valueFactory.create(input);
+
+        success = true;
+
+        return value;
+      } finally {
+        recordLoad(1, start, success);
+      }
+    };
+  }
+
+  public <K, V> EvictionListener<K, V> instrument(EvictionListener<K, V> evictionListener) {
+    return (key, value) -> {
+      evictions.increment();
+      evictionListener.evicted(key, value);
+    };
+  }
+
+  public long getRequestCount() {
+    return requests.sum();
+  }
+
+  /** @return requests - misses; the two are read separately, so this is approximate under load */
+  public long getHitCount() {
+    return Math.max(0, requests.sum() - misses.sum());
+  }
+
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  public long getLoadFailureCount() {
+    return loadFailures.sum();
+  }
+
+  public long getEvictionCount() {
+    return evictions.sum();
+  }
+
+  public MultiWindowDistribution getLoadMicros() {
+    return loadMicros;
+  }
+
+  void recordRequests(int count) {
+    requests.add(count);
+  }
+
+  void recordMiss() {
+    misses.increment();
+  }
+
+  void registerSize(Callable<Long> size) {
+    stats.addDynamicCounter(prefix + ".size", size);
+  }
+
+  private void recordLoad(int count, long startNanos, boolean success) {
+    loadMicros.add(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+    misses.add(count);
+
+    if (!success) {
+      loadFailures.add(count);
+    }
+  }
+
+  private class InstrumentedBulkValueFactory<K, V, E extends Exception>
+      implements BulkValueFactory<K, V, E> {
+    private final BulkValueFactory<K, V, E> bulkValueFactory;
+
+    private InstrumentedBulkValueFactory(BulkValueFactory<K, V, E> bulkValueFactory) {
+      this.bulkValueFactory = bulkValueFactory;
+    }
+
+    @Override
+    public Map<K, V> createAll(Collection<K> inputs) throws E {
+      long start = System.nanoTime();
+      boolean success = false;
+
+      try {
+        Map<K, V> values = bulkValueFactory.createAll(inputs);
+
+        success = true;
+
+        return values;
+      } finally {
+        recordLoad(inputs.size(), start, success);
+      }
+    }
+
+    @Override
+    public V create(K input) throws E {
+      long start = System.nanoTime();
+      boolean success = false;
+
+      try {
+        V value = bulkValueFactory.create(input);
+
+        success = true;
+
+        return value;
+      } finally {
+        recordLoad(1, start, success);
+      }
+    }
+  }
+}
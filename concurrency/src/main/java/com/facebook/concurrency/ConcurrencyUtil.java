@@ -43,6 +43,9 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  *
  * <p>This is useful in prototyping parallelism to see if it help. See ParallelRunner's method
  * javadocs
+ *
+ * <p>parallelRunPerTask() is for I/O-bound fan-outs: each task gets its own virtual thread, or a
+ * cached platform thread on JDKs without them, and numThreads only bounds the tasks in flight.
  */
 public class ConcurrencyUtil {
   private static final Logger LOG = LoggerImpl.getLogger(ConcurrencyUtil.class);
@@ -51,6 +54,10 @@ public class ConcurrencyUtil {
   private static final ExecutorService CACHED_EXECUTOR = Executors.newCachedThreadPool();
   private static final ParallelRunner PARALLEL_RUNNER =
       new ParallelRunner(CACHED_EXECUTOR, "ParallelRunExt-");
+  private static final ExecutorService PER_TASK_EXECUTOR =
+      new VirtualThreadExecutorServiceFactory("ParallelRunPerTask").create();
+  private static final ParallelRunner PER_TASK_PARALLEL_RUNNER =
+      new ParallelRunner(PER_TASK_EXECUTOR, "ParallelRunPerTask-", true);
   private static final int AWAIT_TERMINATION_SECONDS = 30;
 
   static {
@@ -62,6 +69,7 @@ public class ConcurrencyUtil {
 
                   try {
                     CACHED_EXECUTOR.shutdown();
+                    PER_TASK_EXECUTOR.shutdown();
                   } finally {
                     SHUTDOWN_LOCK.writeLock().unlock();
                   }
@@ -166,11 +174,47 @@ public class ConcurrencyUtil {
     }
   }
 
+  public static void parallelRunPerTask(Iterable<? extends Runnable> tasks, int numThreads) {
+    parallelRunPerTask(tasks.iterator(), numThreads);
+  }
+
+  public static void parallelRunPerTask(Iterator<? extends Runnable> tasksIter, int numThreads) {
+    parallelRunPerTask(
+        tasksIter, numThreads, "ParallelRunPerTask-" + INSTANCE_NUMBER.getAndIncrement());
+  }
+
+  /**
+   * runs each task on its own thread, virtual if the JVM has them, with at most numThreads in
+   * flight. Pulling from tasksIter blocks while numThreads tasks are running.
+   */
+  public static void parallelRunPerTask(
+      Iterator<? extends Runnable> tasksIter, int numThreads, String baseName) {
+    // make sure the per-task executor cannot be shutdown while we use it
+    SHUTDOWN_LOCK.readLock().lock();
+
+    try {
+      if (!PER_TASK_EXECUTOR.isShutdown()) {
+        PER_TASK_PARALLEL_RUNNER.parallelRun(tasksIter, numThreads, baseName);
+      } else {
+        // we have to create a one-off for this run
+        ExecutorService executor =
+            new VirtualThreadExecutorServiceFactory("ParallelRunPerTask").create();
+
+        new ParallelRunner(executor, "ParallelRunPerTask-", true)
+            .parallelRun(tasksIter, numThreads, baseName);
+        executor.shutdown();
+      }
+    } finally {
+      SHUTDOWN_LOCK.readLock().unlock();
+    }
+  }
+
   public static void shutdown() {
     SHUTDOWN_LOCK.writeLock().lock();
 
     try {
       CACHED_EXECUTOR.shutdown();
+      PER_TASK_EXECUTOR.shutdown();
     } finally {
       SHUTDOWN_LOCK.writeLock().unlock();
     }
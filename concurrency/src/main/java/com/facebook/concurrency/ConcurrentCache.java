@@ -15,6 +15,7 @@
  */
 package com.facebook.concurrency;
 
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
@@ -41,6 +42,26 @@ public interface ConcurrentCache<K, V, E extends Exception>
    */
   public V get(K key) throws E;
 
+  /**
+   * get(...) for several keys at once. Implementations may load all missing keys in one call (see
+   * {@link BulkValueFactory}); by default this simply calls get(...) for each key.
+   *
+   * @param keys - keys to look up; duplicates are looked up once
+   * @return - values in the iteration order of keys
+   * @throws E - the creation exception of the first key that has one
+   */
+  public default Map<K, V> getAll(Iterable<? extends K> keys) throws E {
+    Map<K, V> result = new LinkedHashMap<>();
+
+    for (K key : keys) {
+      if (!result.containsKey(key)) {
+        result.put(key, get(key));
+      }
+    }
+
+    return result;
+  }
+
   /**
    * atomic insert that will replace any existing value
    *
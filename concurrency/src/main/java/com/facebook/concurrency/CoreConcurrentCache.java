@@ -19,7 +19,11 @@ import com.facebook.collections.TranslatingIterator;
 import com.facebook.collectionsbase.Mapper;
 import com.facebook.util.exceptions.ExceptionHandler;
 import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
@@ -60,20 +64,7 @@ public class CoreConcurrentCache<K, V, E extends Exception> implements Concurren
     // if there isn't entry, do a thread-safe insert into the cache,
     // and create if necessary
     if (value == null) {
-      AtomicReference<Object> valueRef = new AtomicReference<>();
-      value =
-          new PrivateFutureHelper<>(
-              () -> {
-                V producedValue = valueFactory.create(key);
-
-                // we place our value into the map in place of the factory if and
-                // only if it is still mapped to the same private future helper
-                CoreConcurrentCache.this.cache.replace(key, valueRef.get(), producedValue);
-
-                return producedValue;
-              },
-              exceptionHandler);
-      valueRef.set(value);
+      value = newFutureHelper(key, () -> valueFactory.create(key));
 
       Object existingValue = cache.putIfAbsent(key, value);
 
@@ -87,6 +78,51 @@ public class CoreConcurrentCache<K, V, E extends Exception> implements Concurren
     return decodeValue(value);
   }
 
+  /**
+   * with a {@link BulkValueFactory}, every key not in the cache gets a placeholder right away and
+   * all of them are created with a single createAll() call. A get(...) of one of those keys from
+   * another thread joins the batch rather than starting its own load. With a plain ValueFactory
+   * this is the same as calling get(...) per key.
+   */
+  @Override
+  public Map<K, V> getAll(Iterable<? extends K> keys) throws E {
+    if (!(valueFactory instanceof BulkValueFactory)) {
+      return ConcurrentCache.super.getAll(keys);
+    }
+
+    BulkLoad bulkLoad = new BulkLoad((BulkValueFactory<K, V, E>) valueFactory);
+    Map<K, Object> values = new LinkedHashMap<>();
+
+    for (K key : keys) {
+      if (values.containsKey(key)) {
+        continue;
+      }
+
+      Object value = cache.get(key);
+
+      if (value == null) {
+        Object futureHelper = newFutureHelper(key, () -> bulkLoad.get(key));
+
+        value = cache.putIfAbsent(key, futureHelper);
+
+        if (value == null) {
+          value = futureHelper;
+          bulkLoad.add(key);
+        }
+      }
+
+      values.put(key, value);
+    }
+
+    Map<K, V> result = new LinkedHashMap<>(values.size());
+
+    for (Map.Entry<K, Object> entry : values.entrySet()) {
+      result.put(entry.getKey(), decodeValue(entry.getValue()));
+    }
+
+    return result;
+  }
+
   @Override
   public V put(K key, V value) throws E {
     Object existingValue = cache.put(key, value);
@@ -152,6 +188,31 @@ public class CoreConcurrentCache<K, V, E extends Exception> implements Concurren
     }
   }
 
+  /**
+   * @param key
+   * @param producer creates the value for key
+   * @return placeholder for the map that runs producer at most once, then swaps itself for the
+   *     value it produced
+   */
+  private Object newFutureHelper(K key, Callable<V> producer) {
+    AtomicReference<Object> valueRef = new AtomicReference<>();
+    Object futureHelper =
+        new PrivateFutureHelper<>(
+            () -> {
+              V producedValue = producer.call();
+
+              // we place our value into the map in place of the factory if and
+              // only if it is still mapped to the same private future helper
+              cache.replace(key, valueRef.get(), producedValue);
+
+              return producedValue;
+            },
+            exceptionHandler);
+    valueRef.set(futureHelper);
+
+    return futureHelper;
+  }
+
   /**
    * executes a FutureHelper to get a value from a cache entry if need be
    *
@@ -193,6 +254,60 @@ public class CoreConcurrentCache<K, V, E extends Exception> implements Concurren
     }
   }
 
+  /**
+   * keys placed in the cache by one getAll(...) call. The first placeholder to run creates values
+   * for all keys added so far; keys added after that (another thread got to a placeholder before
+   * getAll(...) finished adding) are created individually, as are keys createAll() left out.
+   */
+  private class BulkLoad {
+    private final BulkValueFactory<K, V, E> bulkValueFactory;
+    // guarded by this
+    private final List<K> keys = new ArrayList<>();
+    private Map<K, V> values = null;
+    private Exception exception = null;
+
+    private BulkLoad(BulkValueFactory<K, V, E> bulkValueFactory) {
+      this.bulkValueFactory = bulkValueFactory;
+    }
+
+    private synchronized void add(K key) {
+      keys.add(key);
+    }
+
+    private V get(K key) throws Exception {
+      Map<K, V> loaded = load();
+      V value = loaded.get(key);
+
+      return value == null ? bulkValueFactory.create(key) : value;
+    }
+
+    private synchronized Map<K, V> load() throws Exception {
+      if (values == null && exception == null) {
+        // a get() that found one of our placeholders before getAll() added its key can get here
+        // first; there is nothing to batch, so skip the round trip and create keys individually
+        if (keys.isEmpty()) {
+          values = Collections.emptyMap();
+
+          return values;
+        }
+
+        try {
+          Map<K, V> created = bulkValueFactory.createAll(new ArrayList<>(keys));
+
+          values = created == null ? Collections.emptyMap() : created;
+        } catch (Exception e) {
+          exception = e;
+        }
+      }
+
+      if (exception != null) {
+        throw exception;
+      }
+
+      return values;
+    }
+  }
+
   /**
    * this is a marker class only. Effectively we are using the class type of this object in our
    * cache to indicate that we need to call FutureHelper.safeGet() to produce a value. Obviously,
@@ -15,15 +15,16 @@
  */
 package com.facebook.concurrency;
 
+import java.util.ArrayDeque;
 import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.AbstractExecutorService;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 import org.joda.time.DateTimeUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,14 +38,23 @@ import org.slf4j.LoggerFactory;
  *
  * <p>This will allow more than one object to share the thread pool, but have a maximum # of
  * threads. When there are no elements in the queue, no threads are used.
+ *
+ * <p>No locks are taken: idle drainers sit in a lock-free pool. execute() offers the task and then
+ * starts an idle drainer if there is one; a drainer that runs out of work returns to the pool and
+ * then checks the queue once more. Whichever of the two goes second sees the other's write, so a
+ * task is never left in the queue with every drainer idle. The default work queue is a
+ * LinkedTransferQueue, which is lock-free as well.
  */
 public class ExecutorServiceFront extends AbstractExecutorService {
-  private final Lock lock = new ReentrantLock();
+  // tasks a lone drainer takes from the work queue at a time
+  private static final int DRAIN_BATCH_SIZE = 64;
+
   private final BlockingQueue<Runnable> workQueue;
   private final ExecutorService executor;
   private final String poolName;
   private final long maxTimeSliceMillis;
-  private final BlockingQueue<Drainer> drainerList;
+  private final int batchSize;
+  private final Queue<Drainer> idleDrainers = new ConcurrentLinkedQueue<>();
 
   private static final Logger LOG = LoggerFactory.getLogger(ExecutorServiceFront.class);
 
@@ -66,10 +76,12 @@ public class ExecutorServiceFront extends AbstractExecutorService {
     this.executor = executor;
     this.poolName = poolName;
     this.maxTimeSliceMillis = maxTimeSliceUnit.toMillis(maxTimeSlice);
-    drainerList = new ArrayBlockingQueue<>(maxDrainers);
+    // with several drainers, a task held in one drainer's batch could not be picked up by an idle
+    // one, so they take a single task at a time
+    this.batchSize = maxDrainers == 1 ? DRAIN_BATCH_SIZE : 1;
 
     for (int i = 0; i < maxDrainers; i++) {
-      drainerList.add(new Drainer(String.format("%s-%03d", poolName, i)));
+      idleDrainers.add(new Drainer(String.format("%s-%03d", poolName, i)));
     }
   }
 
@@ -97,11 +109,11 @@ public class ExecutorServiceFront extends AbstractExecutorService {
 
   public ExecutorServiceFront(
       ExecutorService executor, long maxTimeSlice, TimeUnit maxTimeSliceUnit) {
-    this(new LinkedBlockingQueue<>(), executor, "Drainer", 1, maxTimeSlice, maxTimeSliceUnit);
+    this(new LinkedTransferQueue<>(), executor, "Drainer", 1, maxTimeSlice, maxTimeSliceUnit);
   }
 
   public ExecutorServiceFront(ExecutorService executor) {
-    this(new LinkedBlockingQueue<>(), executor, 1);
+    this(new LinkedTransferQueue<>(), executor, 1);
   }
 
   @Override
@@ -132,19 +144,27 @@ public class ExecutorServiceFront extends AbstractExecutorService {
   @Override
   public void execute(Runnable task) {
     workQueue.offer(task);
-    lock.lock();
+    startDrainerIfIdle();
+  }
+
+  private void startDrainerIfIdle() {
+    Drainer drainer = idleDrainers.poll();
+
+    if (drainer != null) {
+      try {
+        executor.execute(drainer);
+      } catch (RejectedExecutionException e) {
+        idleDrainers.add(drainer);
 
-    try {
-      if (!drainerList.isEmpty()) {
-        executor.execute(drainerList.poll());
+        throw e;
       }
-    } finally {
-      lock.unlock();
     }
   }
 
   private class Drainer implements Runnable {
     private final String threadName;
+    // tasks taken from the work queue but not run yet; only touched by the running drainer
+    private final ArrayDeque<Runnable> batch = new ArrayDeque<>();
 
     private Drainer(String threadName) {
       this.threadName = threadName;
@@ -166,21 +186,14 @@ public class ExecutorServiceFront extends AbstractExecutorService {
     private void internalRun() {
       long startTime = DateTimeUtils.currentTimeMillis();
 
-      while (DateTimeUtils.currentTimeMillis() - startTime < maxTimeSliceMillis) {
-        Runnable task = null;
-
-        lock.lock();
+      while (maxTimeSliceMillis == Long.MAX_VALUE
+          || DateTimeUtils.currentTimeMillis() - startTime < maxTimeSliceMillis) {
+        Runnable task = nextTask();
 
-        try {
-          task = workQueue.poll();
+        if (task == null) {
+          idle();
 
-          if (task == null) {
-            drainerList.add(this);
-
-            return;
-          }
-        } finally {
-          lock.unlock();
+          return;
         }
 
         try {
@@ -190,21 +203,36 @@ public class ExecutorServiceFront extends AbstractExecutorService {
         }
       }
 
-      lock.lock();
+      // NOTE: if our queue is empty here, subsequent execute() will create new Drainers
+      // if need be. There is an edge case that executor is shutdown and we have no tasks,
+      // which is why we don't re-submit ourselves unless we have work to do (ie we haven't
+      // terminated
+      if (batch.isEmpty() && workQueue.isEmpty()) {
+        // if there's no work, this drainer expires
+        idle();
+      } else {
+        executor.execute(this);
+      }
+    }
 
-      try {
-        // NOTE: if our queue is empty here, subsequent execute() will create new Drainers
-        // if need be. There is an edge case that executor is shutdown and we have no tasks,
-        // which is why we don't re-submit ourselves unless we have work to do (ie we haven't
-        // terminated
-        if (workQueue.isEmpty()) {
-          // if there's no work, this drainer expires
-          drainerList.add(this);
-        } else {
-          executor.execute(this);
+    private Runnable nextTask() {
+      if (batch.isEmpty()) {
+        if (batchSize == 1) {
+          return workQueue.poll();
         }
-      } finally {
-        lock.unlock();
+
+        workQueue.drainTo(batch, batchSize);
+      }
+
+      return batch.poll();
+    }
+
+    private void idle() {
+      idleDrainers.add(this);
+
+      // a task offered after our last poll may have found no idle drainer
+      if (!workQueue.isEmpty()) {
+        startDrainerIfIdle();
       }
     }
   }
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.concurrency;
+
+import com.facebook.stats.MultiWindowDistribution;
+import com.facebook.stats.MultiWindowRate;
+import com.facebook.stats.mx.Stats;
+import com.google.common.base.Preconditions;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * task stats for one executor, exported through {@link Stats} under a prefix:
+ *
+ * <ul>
+ *   <li>prefix.submitted: rate of tasks handed to the executor
+ *   <li>prefix.rejected: rate of tasks the executor rejected
+ *   <li>prefix.failed: rate of tasks that threw
+ *   <li>prefix.queue_wait_micros: distribution of time from submit until the task starts
+ *   <li>prefix.run_time_micros: distribution of time the task ran
+ * </ul>
+ *
+ * <p>The rates are updated for every task. Distribution updates lock a few quantile digests, so
+ * for busy executors they can be limited to a random 1 in sampleEvery tasks; unsampled tasks do not
+ * read the clock at all. A task cancelled before it starts counts as submitted only; one cancelled
+ * while running counts as failed. Usage:
+ *
+ * <pre>
+ *   ExecutorStats executorStats = new ExecutorStats(stats, "rpc_pool", 16);
+ *   ExecutorService executor = new InstrumentedExecutorService(
+ *     new UnstoppableExecutorService(pool), executorStats);
+ * </pre>
+ */
+public class ExecutorStats {
+  private static final long NOT_SAMPLED = Long.MIN_VALUE;
+
+  private final int sampleEvery;
+  private final MultiWindowRate submitted;
+  private final MultiWindowRate rejected;
+  private final MultiWindowRate failed;
+  private final MultiWindowDistribution queueWaitMicros;
+  private final MultiWindowDistribution runTimeMicros;
+
+  /**
+   * @param stats
+   * @param prefix
+   * @param sampleEvery record the distributions for 1 in sampleEvery tasks on average
+   */
+  public ExecutorStats(Stats stats, String prefix, int sampleEvery) {
+    Preconditions.checkArgument(sampleEvery > 0, "sampleEvery must be > 0");
+
+    this.sampleEvery = sampleEvery;
+    submitted = stats.getRate(prefix + ".submitted");
+    rejected = stats.getRate(prefix + ".rejected");
+    failed = stats.getRate(prefix + ".failed");
+    queueWaitMicros = stats.getDistribution(prefix + ".queue_wait_micros");
+    runTimeMicros = stats.getDistribution(prefix + ".run_time_micros");
+  }
+
+  public ExecutorStats(Stats stats, String prefix) {
+    this(stats, prefix, 1);
+  }
+
+  /** @return wrapper to hand to the executor in place of the task, counted as submitted */
+  public TrackedRunnable instrument(Runnable task) {
+    submitted.add(1);
+
+    return new InstrumentedRunnable(task, sampleStartNanos());
+  }
+
+  /** @return wrapper to hand to the executor in place of the task, counted as submitted */
+  public <V> TrackedCallable<V> instrument(Callable<V> task) {
+    submitted.add(1);
+
+    return new InstrumentedCallable<>(task, sampleStartNanos());
+  }
+
+  /** @return factory whose executors are all instrumented with these stats */
+  public <T extends ExecutorService> ExecutorServiceFactory<ExecutorService> instrument(
+      ExecutorServiceFactory<T> executorServiceFactory) {
+    return () -> new InstrumentedExecutorService(executorServiceFactory.create(), this);
+  }
+
+  /** call when the executor rejects tasks returned by instrument() */
+  public void recordRejected(int count) {
+    rejected.add(count);
+  }
+
+  public MultiWindowRate getSubmitted() {
+    return submitted;
+  }
+
+  public MultiWindowRate getRejected() {
+    return rejected;
+  }
+
+  public MultiWindowRate getFailed() {
+    return failed;
+  }
+
+  public MultiWindowDistribution getQueueWaitMicros() {
+    return queueWaitMicros;
+  }
+
+  public MultiWindowDistribution getRunTimeMicros() {
+    return runTimeMicros;
+  }
+
+  private long sampleStartNanos() {
+    if (sampleEvery == 1 || ThreadLocalRandom.current().nextInt(sampleEvery) == 0) {
+      return System.nanoTime();
+    }
+
+    return NOT_SAMPLED;
+  }
+
+  /** records the queue wait and returns the run start, or NOT_SAMPLED */
+  private long start(long submitNanos) {
+    if (submitNanos == NOT_SAMPLED) {
+      return NOT_SAMPLED;
+    }
+
+    long now = System.nanoTime();
+
+    queueWaitMicros.add(TimeUnit.NANOSECONDS.toMicros(now - submitNanos));
+
+    return now;
+  }
+
+  private void end(boolean started, long startNanos, boolean success) {
+    if (!started) {
+      return;
+    }
+
+    if (!success) {
+      failed.add(1);
+    }
+
+    if (startNanos != NOT_SAMPLED) {
+      runTimeMicros.add(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+    }
+  }
+
+  private class InstrumentedRunnable implements TrackedRunnable {
+    private final Runnable delegate;
+    private final long submitNanos;
+    private final AtomicBoolean hasCompleted = new AtomicBoolean(false);
+    private volatile long startNanos = NOT_SAMPLED;
+    private volatile boolean started = false;
+    private volatile boolean success = false;
+
+    private InstrumentedRunnable(Runnable delegate, long submitNanos) {
+      this.delegate = delegate;
+      this.submitNanos = submitNanos;
+    }
+
+    @Override
+    public void run() {
+      startNanos = start(submitNanos);
+      started = true;
+
+      try {
+        delegate.run();
+        success = true;
+      } finally {
+        complete();
+      }
+    }
+
+    @Override
+    public void complete() {
+      // also called when the task's future is cancelled, before, during or after run
+      if (hasCompleted.compareAndSet(false, true)) {
+        end(started, startNanos, success);
+      }
+    }
+  }
+
+  private class InstrumentedCallable<V> implements TrackedCallable<V> {
+    private final Callable<V> delegate;
+    private final long submitNanos;
+    private final AtomicBoolean hasCompleted = new AtomicBoolean(false);
+    private volatile long startNanos = NOT_SAMPLED;
+    private volatile boolean started = false;
+    private volatile boolean success = false;
+
+    private InstrumentedCallable(Callable<V> delegate, long submitNanos) {
+      this.delegate = delegate;
+      this.submitNanos = submitNanos;
+    }
+
+    @Override
+    public V call() throws Exception {
+      startNanos = start(submitNanos);
+      started = true;
+
+      try {
+        V value = delegate.call();
+
+        success = true;
+
+        return value;
+      } finally {
+        complete();
+      }
+    }
+
+    @Override
+    public void complete() {
+      // also called when the task's future is cancelled, before, during or after run
+      if (hasCompleted.compareAndSet(false, true)) {
+        end(started, startNanos, success);
+      }
+    }
+  }
+}
@@ -19,23 +19,57 @@ import com.facebook.collections.TranslatingIterator;
 import com.facebook.collectionsbase.Mapper;
 import com.facebook.util.exceptions.ExceptionHandler;
 import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import org.joda.time.DateTimeUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * cache whose entries expire once they have not been read (or written) for maxAge. Expiry does not
+ * scan the cache: entries sit in a queue ordered by the time they were queued, and the reaper only
+ * looks at the head of that queue. An entry read since it was queued moves to the tail; an expired
+ * one is removed. The reaper stops at the first entry that is neither, since everything behind it
+ * was queued later and so has not expired either.
+ *
+ * <p>Reaping runs on the executor, in batches of at most {@link #REAP_BATCH_SIZE} entries, so the
+ * cost of get() does not depend on the size of the cache. Entries found expired by a read before
+ * the reaper gets to them are dropped right there, so an expired value is never returned. Eviction
+ * notifications are delivered on the executor, one task per reaped batch.
+ *
+ * <p>Entries replaced by put() or removed stay queued behind live ones until the reaper reaches
+ * them. Once there are more of them than live entries, the reaper sweeps them out of the whole
+ * queue, so the queue stays within about twice the number of keys however often they are
+ * replaced.
+ */
 public class ExpiringConcurrentCache<K, V, E extends Exception>
     implements ConcurrentCache<K, V, E> {
   private static final Logger LOG = LoggerFactory.getLogger(ExpiringConcurrentCache.class);
-
-  private final ConcurrentCache<K, CacheEntry<V, E>, E> baseCache;
+  // bounds the work done by one reaper task before it yields the executor
+  static final int REAP_BATCH_SIZE = 1024;
+
+  private final ConcurrentMap<K, Object> map = new ConcurrentHashMap<>();
+  private final ConcurrentCache<K, CacheEntry<K, V, E>, E> baseCache;
+  // entries in the order they were (re)queued; only the pruning thread removes from it. clear()
+  // swaps in a new one
+  private volatile Queue<CacheEntry<K, V, E>> expirationQueue = new ConcurrentLinkedQueue<>();
+  // about how many queued entries are no longer in the cache; reset by each sweep
+  private final AtomicInteger supersededQueued = new AtomicInteger(0);
   private final long maxAgeMillis;
   private final ExecutorService executor;
 
@@ -56,7 +90,7 @@ public class ExpiringConcurrentCache<K, V, E extends Exception>
       ExecutorService executor) {
     this.evictionListener = evictionListener;
     this.baseCache =
-        new CoreConcurrentCache<>(new CacheEntryValueFactory(valueFactory), exceptionHandler);
+        new CoreConcurrentCache<>(new CacheEntryValueFactory(valueFactory), exceptionHandler, map);
     this.maxAgeMillis = maxAgeUnit.toMillis(maxAge);
     this.executor = executor;
   }
@@ -114,9 +148,15 @@ public class ExpiringConcurrentCache<K, V, E extends Exception>
 
   @Override
   public V get(K key) throws E {
-    CacheEntry<V, E> cacheEntry = baseCache.get(key);
+    CacheEntry<K, V, E> cacheEntry = baseCache.get(key);
+    CallableSnapshot<V, E> snapshot = cacheEntry.touch(maxAgeMillis, expirationQueue);
 
-    CallableSnapshot<V, E> snapshot = cacheEntry.touch();
+    if (snapshot == null) {
+      // expired, but not reaped yet: drop it and load a fresh value
+      expire(cacheEntry);
+      cacheEntry = baseCache.get(key);
+      snapshot = cacheEntry.touch(Long.MAX_VALUE, expirationQueue);
+    }
 
     // prune after getting the value
     pruneIfNeeded();
@@ -128,8 +168,11 @@ public class ExpiringConcurrentCache<K, V, E extends Exception>
   public V put(K key, V value) throws E {
     pruneIfNeeded();
 
-    CacheEntry<V, E> cacheEntry = new CacheEntry<>(value);
-    CacheEntry<V, E> existingCacheEntry = baseCache.put(key, cacheEntry);
+    CacheEntry<K, V, E> cacheEntry = new CacheEntry<>(key, value);
+    CacheEntry<K, V, E> existingCacheEntry = baseCache.put(key, cacheEntry);
+
+    cacheEntry.touch(Long.MAX_VALUE, expirationQueue);
+    superseded(existingCacheEntry);
 
     return existingCacheEntry == null ? null : existingCacheEntry.getSnapshot().get();
   }
@@ -138,7 +181,10 @@ public class ExpiringConcurrentCache<K, V, E extends Exception>
   public V remove(K key) throws E {
     pruneIfNeeded();
 
-    CacheEntry<V, E> cacheEntry = baseCache.remove(key);
+    // the entry stays in the expiration queue until the reaper reaches it and sees it is gone
+    CacheEntry<K, V, E> cacheEntry = baseCache.remove(key);
+
+    superseded(cacheEntry);
 
     return cacheEntry == null ? null : cacheEntry.getSnapshot().get();
   }
@@ -150,12 +196,29 @@ public class ExpiringConcurrentCache<K, V, E extends Exception>
 
   @Override
   public void clear() {
+    // swap first, so entries loaded after the clear are queued on the new queue. A reaper still
+    // working on the old one only drops entries that are gone anyway
+    expirationQueue = new ConcurrentLinkedQueue<>();
+    supersededQueued.set(0);
     baseCache.clear();
   }
 
+  /** reaps all expired entries in the calling thread, unless a reaper is already running */
   @Override
   public void prune() throws E {
-    pruneIfNeeded();
+    if (pruning.compareAndSet(false, true)) {
+      List<CacheEntry<K, V, E>> expired = new ArrayList<>();
+
+      try {
+        while (!reapBatch(expired)) {
+          // keep going until caught up
+        }
+      } finally {
+        finishPrune();
+      }
+
+      notifyEvicted(expired);
+    }
   }
 
   @Override
@@ -164,64 +227,170 @@ public class ExpiringConcurrentCache<K, V, E extends Exception>
   }
 
   /**
-   * non-blocking, thread-safe prune operation that only enters pruning block after enough time has
-   * elapsed
-   *
-   * @throws E
+   * non-blocking, thread-safe prune operation that only starts a reaper after enough time has
+   * elapsed (or enough entries were superseded to need a sweep) and another one isn't already
+   * running
    */
   private void pruneIfNeeded() {
-    // only prune if sufficient time has elapsed and another thread isn't
-    // already pruning
-    if (DateTimeUtils.currentTimeMillis() - lastPrune.get() >= maxAgeMillis
+    if ((DateTimeUtils.currentTimeMillis() - lastPrune.get() >= maxAgeMillis || needsSweep())
         && pruning.compareAndSet(false, true)) {
       try {
-        Iterator<Map.Entry<K, CallableSnapshot<CacheEntry<V, E>, E>>> iterator =
-            baseCache.iterator();
+        executor.execute(this::reap);
+      } catch (RejectedExecutionException e) {
+        LOG.warn("unable to schedule reaper, expired entries stay cached until the next prune", e);
+        finishPrune();
+      }
+    }
+  }
 
-        while (iterator.hasNext()) {
-          K key;
-          CacheEntry<V, E> cacheEntry;
-          try {
-            Map.Entry<K, CallableSnapshot<CacheEntry<V, E>, E>> entry = iterator.next();
-            key = entry.getKey();
-            cacheEntry = entry.getValue().get();
-          } catch (Exception e) {
-            // We control the creation process, so should not get an exception
-            throw new RuntimeException("CacheEntry create should not fail");
-          }
+  /** one reaper task: handles a batch and re-submits itself if there is more to do */
+  private void reap() {
+    List<CacheEntry<K, V, E>> expired = new ArrayList<>();
+    // true unless reapBatch() returns false, so a failure still ends this prune
+    boolean caughtUp = true;
+
+    try {
+      caughtUp = reapBatch(expired);
+    } finally {
+      if (caughtUp) {
+        finishPrune();
+      }
+    }
+
+    notifyEvicted(expired);
 
-          if (cacheEntry.hasExpired(maxAgeMillis)) {
-            // remove the item from the cache
-            iterator.remove();
-
-            // do any shutdown() tasks asynchronously so we don't block access
-            // to the cache
-            executor.execute(
-                () -> {
-                  // now reap the entry
-                  try {
-                    V value = cacheEntry.getSnapshot().get();
-
-                    try {
-                      evictionListener.evicted(key, value);
-                    } catch (Throwable t) {
-                      LOG.error("Error reaping cache element-- may not be properly closed", t);
-                    }
-                  } catch (Exception e) {
-                    LOG.info("Unable to get cache value for key " + key);
-                    // still notify that key is evicted
-                    evictionListener.evicted(key, null);
-                  }
-                });
+    if (!caughtUp) {
+      try {
+        executor.execute(this::reap);
+      } catch (RejectedExecutionException e) {
+        LOG.warn("unable to schedule reaper, expired entries stay cached until the next prune", e);
+        finishPrune();
+      }
+    }
+  }
+
+  private void finishPrune() {
+    lastPrune.set(DateTimeUtils.currentTimeMillis());
+    pruning.set(false);
+  }
+
+  /**
+   * must only be called by the thread that set the pruning flag
+   *
+   * @param expired receives the entries removed from the cache
+   * @return true if there is nothing left to reap, false if the batch limit was reached first
+   */
+  private boolean reapBatch(List<CacheEntry<K, V, E>> expired) {
+    long now = DateTimeUtils.currentTimeMillis();
+    Queue<CacheEntry<K, V, E>> expirationQueue = this.expirationQueue;
+
+    if (needsSweep()) {
+      sweep(expirationQueue);
+    }
+
+    for (int i = 0; i < REAP_BATCH_SIZE; i++) {
+      CacheEntry<K, V, E> cacheEntry = expirationQueue.peek();
+
+      if (cacheEntry == null) {
+        return true;
+      }
+
+      if (map.get(cacheEntry.key) != cacheEntry) {
+        // removed or replaced since it was queued
+        expirationQueue.poll();
+        continue;
+      }
+
+      switch (cacheEntry.checkExpiration(now, maxAgeMillis)) {
+        case EXPIRED:
+          expirationQueue.poll();
+
+          if (map.remove(cacheEntry.key, cacheEntry)) {
+            expired.add(cacheEntry);
           }
-        }
-      } finally {
-        lastPrune.set(DateTimeUtils.currentTimeMillis());
-        pruning.set(false);
+
+          break;
+        case TOUCHED:
+          // checkExpiration() re-stamped it, so it belongs at the tail now
+          expirationQueue.poll();
+          expirationQueue.add(cacheEntry);
+          break;
+        default:
+          return true;
+      }
+    }
+
+    return false;
+  }
+
+  /** a sweep costs a pass over the queue, so only do one after as many removals as live keys */
+  private boolean needsSweep() {
+    return supersededQueued.get() > map.size() + REAP_BATCH_SIZE;
+  }
+
+  /** must only be called by the thread that set the pruning flag */
+  private void sweep(Queue<CacheEntry<K, V, E>> expirationQueue) {
+    // reset first: an entry superseded during the sweep is counted even if the sweep drops it
+    supersededQueued.set(0);
+
+    Iterator<CacheEntry<K, V, E>> iterator = expirationQueue.iterator();
+
+    while (iterator.hasNext()) {
+      CacheEntry<K, V, E> cacheEntry = iterator.next();
+
+      if (map.get(cacheEntry.key) != cacheEntry) {
+        iterator.remove();
       }
     }
   }
 
+  /** counts an entry that left the cache but may still be queued */
+  private void superseded(CacheEntry<K, V, E> cacheEntry) {
+    if (cacheEntry != null && cacheEntry.isQueued()) {
+      supersededQueued.incrementAndGet();
+    }
+  }
+
+  /** @return number of entries on the expiration queue, including superseded ones */
+  int getExpirationQueueSize() {
+    return expirationQueue.size();
+  }
+
+  private void expire(CacheEntry<K, V, E> cacheEntry) {
+    if (map.remove(cacheEntry.key, cacheEntry)) {
+      superseded(cacheEntry);
+      notifyEvicted(Collections.singletonList(cacheEntry));
+    }
+  }
+
+  /** do any shutdown() tasks asynchronously so we don't block access to the cache */
+  private void notifyEvicted(List<CacheEntry<K, V, E>> expired) {
+    if (expired.isEmpty()) {
+      return;
+    }
+
+    executor.execute(
+        () -> {
+          for (CacheEntry<K, V, E> cacheEntry : expired) {
+            K key = cacheEntry.key;
+
+            try {
+              V value = cacheEntry.getSnapshot().get();
+
+              try {
+                evictionListener.evicted(key, value);
+              } catch (Throwable t) {
+                LOG.error("Error reaping cache element-- may not be properly closed", t);
+              }
+            } catch (Exception e) {
+              LOG.info("Unable to get cache value for key " + key);
+              // still notify that key is evicted
+              evictionListener.evicted(key, null);
+            }
+          }
+        });
+  }
+
   @Override
   public Iterator<Map.Entry<K, CallableSnapshot<V, E>>> iterator() {
     return new TranslatingIterator<>(new ValueMapper(), baseCache.iterator());
@@ -230,13 +399,27 @@ public class ExpiringConcurrentCache<K, V, E extends Exception>
   @Override
   public CallableSnapshot<V, E> getIfPresent(K key) {
     pruneIfNeeded();
-    CallableSnapshot<CacheEntry<V, E>, E> snapshot = baseCache.getIfPresent(key);
+    CallableSnapshot<CacheEntry<K, V, E>, E> snapshot = baseCache.getIfPresent(key);
 
     if (snapshot == null) {
       return null;
     } else {
+      CacheEntry<K, V, E> cacheEntry;
+
       try {
-        return snapshot.get().getSnapshot();
+        cacheEntry = snapshot.get();
+      } catch (Exception e) {
+        throw new RuntimeException("this shouldn't happen", e);
+      }
+
+      if (cacheEntry.hasExpired(maxAgeMillis)) {
+        expire(cacheEntry);
+
+        return null;
+      }
+
+      try {
+        return cacheEntry.getSnapshot();
       } catch (Exception e) {
         throw new RuntimeException("this shouldn't happen", e);
       }
@@ -245,14 +428,14 @@ public class ExpiringConcurrentCache<K, V, E extends Exception>
 
   private class ValueMapper
       implements Mapper<
-          Map.Entry<K, CallableSnapshot<CacheEntry<V, E>, E>>,
+          Map.Entry<K, CallableSnapshot<CacheEntry<K, V, E>, E>>,
           Map.Entry<K, CallableSnapshot<V, E>>> {
     @Override
     public Map.Entry<K, CallableSnapshot<V, E>> map(
-        Map.Entry<K, CallableSnapshot<CacheEntry<V, E>, E>> input) {
+        Map.Entry<K, CallableSnapshot<CacheEntry<K, V, E>, E>> input) {
       CallableSnapshot<V, E> snapshot;
       try {
-        snapshot = input.getValue().get().touch();
+        snapshot = input.getValue().get().touch(Long.MAX_VALUE, expirationQueue);
       } catch (Exception e) {
         // We control the creation process, so we should not get an exception
         throw new RuntimeException("CacheEntry create should not fail");
@@ -261,7 +444,7 @@ public class ExpiringConcurrentCache<K, V, E extends Exception>
     }
   }
 
-  private class CacheEntryValueFactory implements ValueFactory<K, CacheEntry<V, E>, E> {
+  private class CacheEntryValueFactory implements ValueFactory<K, CacheEntry<K, V, E>, E> {
     CallableSnapshotFunction<K, V, E> snapshotFunction;
 
     private CacheEntryValueFactory(ValueFactory<K, V, E> valueFactory) {
@@ -269,29 +452,38 @@ public class ExpiringConcurrentCache<K, V, E extends Exception>
     }
 
     @Override
-    public CacheEntry<V, E> create(K input) {
-      return new CacheEntry<>(snapshotFunction.apply(input));
+    public CacheEntry<K, V, E> create(K input) {
+      return new CacheEntry<>(input, snapshotFunction.apply(input));
     }
   }
 
   /**
    * a cache entry is a value and it's last accessed time (create, read). The last accessed is used
-   * for expiring entire older than a configured TTL by the cache
+   * for expiring entire older than a configured TTL by the cache. The entry also tracks when it was
+   * last put on the expiration queue; it is only queued once it is visible in the cache
    *
+   * @param <K> key type
    * @param <V> value type
    * @param <E> exception type
    */
   @SuppressWarnings({"unchecked"})
-  private static class CacheEntry<V, E extends Exception> {
-    // mtime guarded by this
+  private static class CacheEntry<K, V, E extends Exception> {
+    private static final long NOT_QUEUED = Long.MIN_VALUE;
+
+    private final K key;
+    // mtime and queuedAt guarded by this
     private long mtime = DateTimeUtils.currentTimeMillis();
+    private long queuedAt = NOT_QUEUED;
     private volatile Object snapshotOrValue;
 
-    private CacheEntry(V value) {
+    private CacheEntry(K key, V value) {
+      this.key = key;
       this.snapshotOrValue = value;
     }
 
-    private CacheEntry(CallableSnapshot<V, E> snapshot) {
+    private CacheEntry(K key, CallableSnapshot<V, E> snapshot) {
+      this.key = key;
+
       // if the snapshot indicates no error, store just the value. This
       // will save us about 24 bytes on a 64-bit box:  2 x 8 byte ptr and
       // the 8-byte overhead java adds for each object (saved by not
@@ -312,14 +504,55 @@ public class ExpiringConcurrentCache<K, V, E extends Exception>
       return getCallableSnapshot();
     }
 
-    public synchronized CallableSnapshot<V, E> touch() {
-      mtime = DateTimeUtils.currentTimeMillis();
+    /**
+     * records an access, queueing the entry for expiry on its first one
+     *
+     * @return the value, or null if the entry was already queued and has outlived maxAgeMillis
+     */
+    public synchronized CallableSnapshot<V, E> touch(
+        long maxAgeMillis, Queue<CacheEntry<K, V, E>> expirationQueue) {
+      long now = DateTimeUtils.currentTimeMillis();
+
+      if (queuedAt != NOT_QUEUED && now - mtime >= maxAgeMillis) {
+        return null;
+      }
+
+      mtime = now;
+
+      if (queuedAt == NOT_QUEUED) {
+        queuedAt = now;
+        expirationQueue.add(this);
+      }
 
       return getCallableSnapshot();
     }
 
+    public synchronized boolean isQueued() {
+      return queuedAt != NOT_QUEUED;
+    }
+
+    /** entries not yet queued have not been handed out, so they never count as expired */
     public synchronized boolean hasExpired(long maxAgeMillis) {
-      return DateTimeUtils.currentTimeMillis() - mtime >= maxAgeMillis;
+      return queuedAt != NOT_QUEUED
+          && DateTimeUtils.currentTimeMillis() - mtime >= maxAgeMillis;
+    }
+
+    /**
+     * called by the reaper for the entry at the head of the queue. An entry accessed since it was
+     * queued is re-stamped so the caller can move it to the tail
+     */
+    public synchronized ExpirationState checkExpiration(long now, long maxAgeMillis) {
+      if (now - mtime >= maxAgeMillis) {
+        return ExpirationState.EXPIRED;
+      }
+
+      if (mtime > queuedAt) {
+        queuedAt = now;
+
+        return ExpirationState.TOUCHED;
+      }
+
+      return ExpirationState.LIVE;
     }
 
     /**
@@ -340,6 +573,12 @@ public class ExpiringConcurrentCache<K, V, E extends Exception>
     }
   }
 
+  private enum ExpirationState {
+    LIVE,
+    TOUCHED,
+    EXPIRED,
+  }
+
   // this private class is using it's class type as a boolean flag (to save
   // memory). If the value stored is of this type in the CacheEntry,
   // then it means we couldn't store the value and need to call
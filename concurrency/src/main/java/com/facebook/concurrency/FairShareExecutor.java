@@ -0,0 +1,363 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.concurrency;
+
+import com.facebook.stats.MultiWindowDistribution;
+import com.facebook.stats.mx.Stats;
+import com.google.common.base.Preconditions;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.joda.time.DateTimeUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shares up to maxDrainers threads of an executor between named tenants, like a set of {@link
+ * ExecutorServiceFront}s that coordinate. Each tenant gets its own queue; drainers pick the next
+ * task by deficit round-robin, so while tenants are backlogged each one runs tasks in proportion
+ * to its weight. A tenant with nothing queued gives up its turn, so the drainers stay busy as long
+ * as any tenant has work.
+ *
+ * <p>Usage:
+ *
+ * <pre>
+ *   FairShareExecutor fairShare = new FairShareExecutor(pool, "shared", 8, stats);
+ *   ExecutorService search = fairShare.addTenant("search", 3);
+ *   ExecutorService batch = fairShare.addTenant("batch", 1);
+ * </pre>
+ *
+ * <p>For each tenant, the Stats instance gets a poolName.tenant.queue_depth counter and a
+ * poolName.tenant.wait_ms distribution (time from execute() until the task starts).
+ *
+ * <p>Picking a task is a few field updates under one lock; tasks run outside it.
+ */
+public class FairShareExecutor {
+  private static final Logger LOG = LoggerFactory.getLogger(FairShareExecutor.class);
+
+  private final Object lock = new Object();
+  private final ExecutorService executor;
+  private final String poolName;
+  private final long maxTimeSliceMillis;
+  private final Stats stats;
+  private final ConcurrentMap<String, Tenant> tenants = new ConcurrentHashMap<>();
+  // tenants with queued tasks, in round-robin order; guarded by lock
+  private final ArrayDeque<Tenant> activeTenants = new ArrayDeque<>();
+  // tenant whose turn it is, not in activeTenants while set; guarded by lock
+  private Tenant currentTenant = null;
+  // guarded by lock
+  private int idleDrainers;
+
+  /**
+   * @param executor runs the drainers
+   * @param poolName prefix for the stats keys
+   * @param maxDrainers max number of executor threads used at once, over all tenants
+   * @param maxTimeSlice - the maximum time slice a drainer runs before yielding its thread
+   * @param maxTimeSliceUnit - the unit of the maxTimeSlice argument
+   * @param stats receives the per-tenant metrics
+   */
+  public FairShareExecutor(
+      ExecutorService executor,
+      String poolName,
+      int maxDrainers,
+      long maxTimeSlice,
+      TimeUnit maxTimeSliceUnit,
+      Stats stats) {
+    Preconditions.checkArgument(maxDrainers > 0, "maxDrainers must be > 0");
+    this.executor = executor;
+    this.poolName = poolName;
+    this.idleDrainers = maxDrainers;
+    this.maxTimeSliceMillis = maxTimeSliceUnit.toMillis(maxTimeSlice);
+    this.stats = stats;
+  }
+
+  public FairShareExecutor(
+      ExecutorService executor, String poolName, int maxDrainers, Stats stats) {
+    this(executor, poolName, maxDrainers, Long.MAX_VALUE, TimeUnit.MILLISECONDS, stats);
+  }
+
+  /**
+   * @param name unique name of the tenant
+   * @param weight relative share of the drainers the tenant gets while backlogged
+   * @return executor for the tenant's tasks
+   */
+  public Tenant addTenant(String name, int weight) {
+    Preconditions.checkArgument(weight > 0, "weight must be > 0");
+
+    Tenant tenant = new Tenant(name, weight);
+
+    Preconditions.checkArgument(
+        tenants.putIfAbsent(name, tenant) == null, "tenant %s already exists", name);
+    stats.addDynamicCounter(
+        String.format("%s.%s.queue_depth", poolName, name), () -> (long) tenant.getQueueDepth());
+
+    return tenant;
+  }
+
+  /** @return the tenant, or null if there is none with that name */
+  public Tenant getTenant(String name) {
+    return tenants.get(name);
+  }
+
+  private void enqueue(Tenant tenant, Runnable task) {
+    QueuedTask queuedTask = new QueuedTask(tenant, task, DateTimeUtils.currentTimeMillis());
+    boolean startDrainer = false;
+
+    synchronized (lock) {
+      tenant.queue.add(queuedTask);
+
+      if (!tenant.active) {
+        tenant.active = true;
+        activeTenants.add(tenant);
+      }
+
+      if (idleDrainers > 0) {
+        idleDrainers--;
+        startDrainer = true;
+      }
+    }
+
+    if (startDrainer) {
+      try {
+        executor.execute(new Drainer());
+      } catch (RejectedExecutionException e) {
+        // a running drainer may have taken the task meanwhile; then it runs, so it was accepted
+        if (withdraw(queuedTask)) {
+          throw e;
+        }
+      }
+    }
+  }
+
+  /**
+   * releases the drainer slot taken for a task whose drainer was rejected, and takes the task back
+   * out of its tenant's queue
+   *
+   * @return true if the task was still queued
+   */
+  private boolean withdraw(QueuedTask queuedTask) {
+    synchronized (lock) {
+      Tenant tenant = queuedTask.tenant;
+
+      idleDrainers++;
+
+      if (!tenant.queue.remove(queuedTask)) {
+        return false;
+      }
+
+      // the current tenant is deactivated by nextTask() once its turn ends
+      if (tenant.queue.isEmpty() && tenant != currentTenant) {
+        tenant.deficit = 0;
+        tenant.active = false;
+        activeTenants.remove(tenant);
+      }
+
+      return true;
+    }
+  }
+
+  /**
+   * deficit round-robin over the active tenants, counting each task as one unit: a tenant's turn
+   * adds its weight to its deficit and lasts until the deficit or its queue runs out. If there is
+   * no task at all, the calling drainer goes idle.
+   */
+  private QueuedTask nextTask() {
+    synchronized (lock) {
+      while (true) {
+        if (currentTenant == null) {
+          currentTenant = activeTenants.poll();
+
+          if (currentTenant == null) {
+            idleDrainers++;
+
+            return null;
+          }
+
+          currentTenant.deficit += currentTenant.weight;
+        }
+
+        Tenant tenant = currentTenant;
+
+        if (tenant.deficit > 0 && !tenant.queue.isEmpty()) {
+          tenant.deficit--;
+
+          return tenant.queue.poll();
+        }
+
+        currentTenant = null;
+
+        if (tenant.queue.isEmpty()) {
+          // an idle tenant does not bank credit for later
+          tenant.deficit = 0;
+          tenant.active = false;
+        } else {
+          activeTenants.add(tenant);
+        }
+      }
+    }
+  }
+
+  /**
+   * called by a drainer whose time slice is up
+   *
+   * @return true if there are queued tasks, in which case the drainer keeps its slot; otherwise
+   *     the slot is released
+   */
+  private boolean keepDrainer() {
+    synchronized (lock) {
+      if (currentTenant == null && activeTenants.isEmpty()) {
+        idleDrainers++;
+
+        return false;
+      }
+
+      return true;
+    }
+  }
+
+  private void releaseDrainer() {
+    synchronized (lock) {
+      idleDrainers++;
+    }
+  }
+
+  private class Drainer implements Runnable {
+    @Override
+    public void run() {
+      long startTime = DateTimeUtils.currentTimeMillis();
+
+      while (maxTimeSliceMillis == Long.MAX_VALUE
+          || DateTimeUtils.currentTimeMillis() - startTime < maxTimeSliceMillis) {
+        QueuedTask queuedTask = nextTask();
+
+        if (queuedTask == null) {
+          return;
+        }
+
+        queuedTask.run();
+      }
+
+      // time slice is up: give the thread back and, if there is work left, queue up behind
+      // whatever else is waiting for the executor
+      if (keepDrainer()) {
+        try {
+          executor.execute(this);
+        } catch (RejectedExecutionException e) {
+          releaseDrainer();
+
+          throw e;
+        }
+      }
+    }
+  }
+
+  private class QueuedTask {
+    private final Tenant tenant;
+    private final Runnable task;
+    private final long enqueueTimeMillis;
+
+    private QueuedTask(Tenant tenant, Runnable task, long enqueueTimeMillis) {
+      this.tenant = tenant;
+      this.task = task;
+      this.enqueueTimeMillis = enqueueTimeMillis;
+    }
+
+    private void run() {
+      tenant.waitTimeMillis.add(DateTimeUtils.currentTimeMillis() - enqueueTimeMillis);
+
+      try {
+        task.run();
+      } catch (RuntimeException e) {
+        LOG.warn("Ignoring Task Failure", e);
+      }
+    }
+  }
+
+  /**
+   * one tenant's view of the shared drainers. Like ExecutorServiceFront, it does not support
+   * shutdown
+   */
+  public class Tenant extends AbstractExecutorService {
+    private final String name;
+    private final int weight;
+    private final MultiWindowDistribution waitTimeMillis;
+    // guarded by lock
+    private final ArrayDeque<QueuedTask> queue = new ArrayDeque<>();
+    private boolean active = false;
+    private long deficit = 0;
+
+    private Tenant(String name, int weight) {
+      this.name = name;
+      this.weight = weight;
+      this.waitTimeMillis = stats.getDistribution(String.format("%s.%s.wait_ms", poolName, name));
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public int getWeight() {
+      return weight;
+    }
+
+    public int getQueueDepth() {
+      synchronized (lock) {
+        return queue.size();
+      }
+    }
+
+    /** @return time tasks spent queued before they started, in milliseconds */
+    public MultiWindowDistribution getWaitTimeMillis() {
+      return waitTimeMillis;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+      Preconditions.checkNotNull(command, "command is null");
+      enqueue(this, command);
+    }
+
+    @Override
+    public void shutdown() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean isShutdown() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean isTerminated() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
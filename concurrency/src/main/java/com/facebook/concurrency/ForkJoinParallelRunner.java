@@ -0,0 +1,376 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.concurrency;
+
+import com.facebook.util.exceptions.ExceptionHandler;
+import com.facebook.util.function.ExtConsumer;
+import com.facebook.util.function.ExtFunction;
+import com.google.common.base.Preconditions;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * fork/join counterpart of {@link ParallelRunner} for large batch jobs. Instead of every worker
+ * pulling from one synchronized Iterator, the source Spliterator is split into chunks that idle
+ * workers steal, so one slow chunk does not hold up the rest. Results are handed back as they
+ * finish, either to a callback or through a bounded queue.
+ *
+ * <p>Like parallelRunExt(), the first failure is passed through the ExceptionHandler and thrown
+ * once the run ends; elements not yet started when it happens are skipped.
+ *
+ * <p>Spliterators that know their size are split into about 4 chunks per pool thread. Others
+ * (e.g. from an Iterable backed by an Iterator) are read a batch at a time, with at most 2 batches
+ * per pool thread handed out but not finished, so the source is read about as fast as it is
+ * processed; each batch is then split by its own size.
+ */
+public class ForkJoinParallelRunner {
+  private static final Object END = new Object();
+  private static final Object NULL_RESULT = new Object();
+  private static final long SLOT_WAIT_MILLIS = 10;
+  // split threshold of a source that does not know its size
+  private static final long UNSIZED = -1;
+  private static final int UNSIZED_BATCHES_PER_THREAD = 2;
+
+  private final ForkJoinPool pool;
+
+  public ForkJoinParallelRunner(ForkJoinPool pool) {
+    this.pool = pool;
+  }
+
+  /** runs on the common pool */
+  public ForkJoinParallelRunner() {
+    this(ForkJoinPool.commonPool());
+  }
+
+  public <T, R, E extends Exception> void parallelMap(
+      Iterable<T> source,
+      ExtFunction<? super T, ? extends R, ? extends Exception> function,
+      Consumer<? super R> resultCallback,
+      ExceptionHandler<E> exceptionHandler)
+      throws E {
+    parallelMap(source.spliterator(), function, resultCallback, exceptionHandler);
+  }
+
+  /**
+   * applies function to every element and blocks until all are done.
+   *
+   * @param source
+   * @param function
+   * @param resultCallback called from the pool threads, concurrently and in no particular order,
+   *     as each result is ready
+   * @param exceptionHandler
+   * @param <T>
+   * @param <R>
+   * @param <E>
+   * @throws E the first failure of function or resultCallback
+   */
+  public <T, R, E extends Exception> void parallelMap(
+      Spliterator<T> source,
+      ExtFunction<? super T, ? extends R, ? extends Exception> function,
+      Consumer<? super R> resultCallback,
+      ExceptionHandler<E> exceptionHandler)
+      throws E {
+    Run<T, R, E> run =
+        new Run<>(pool.getParallelism(), function, resultCallback::accept, exceptionHandler);
+
+    pool.invoke(new Chunk<>(source, splitThreshold(source, run.parallelism), run));
+
+    if (run.failure.get() != null) {
+      throw run.failure.get();
+    }
+  }
+
+  public <T, R, E extends Exception> StreamingResults<R, E> parallelMapStreaming(
+      Iterable<T> source,
+      ExtFunction<? super T, ? extends R, ? extends Exception> function,
+      int queueCapacity,
+      ExceptionHandler<E> exceptionHandler) {
+    return parallelMapStreaming(source.spliterator(), function, queueCapacity, exceptionHandler);
+  }
+
+  /**
+   * starts applying function to every element and returns right away. Results are read from the
+   * returned StreamingResults as they finish; once queueCapacity results are waiting, the workers
+   * producing more block until the reader catches up. Blocked workers are not replaced, so give
+   * streaming runs a pool of their own rather than the common pool.
+   *
+   * @param source
+   * @param function
+   * @param queueCapacity max results buffered for the reader
+   * @param exceptionHandler
+   * @param <T>
+   * @param <R>
+   * @param <E>
+   * @return results in completion order
+   */
+  public <T, R, E extends Exception> StreamingResults<R, E> parallelMapStreaming(
+      Spliterator<T> source,
+      ExtFunction<? super T, ? extends R, ? extends Exception> function,
+      int queueCapacity,
+      ExceptionHandler<E> exceptionHandler) {
+    Preconditions.checkArgument(queueCapacity > 0, "queueCapacity must be > 0");
+
+    StreamingResults<R, E> results = new StreamingResults<>(queueCapacity);
+    Run<T, R, E> run = new Run<>(pool.getParallelism(), function, results::put, exceptionHandler);
+
+    results.run = run;
+    pool.execute(
+        new RecursiveAction() {
+          @Override
+          protected void compute() {
+            try {
+              new Chunk<>(source, splitThreshold(source, run.parallelism), run).compute();
+            } finally {
+              results.end();
+            }
+          }
+        });
+
+    return results;
+  }
+
+  private static long splitThreshold(Spliterator<?> source, int parallelism) {
+    if (!source.hasCharacteristics(Spliterator.SIZED)) {
+      return UNSIZED;
+    }
+
+    return Math.max(1, source.estimateSize() / (parallelism * 4L));
+  }
+
+  /** state shared by all chunks of one parallelMap() call */
+  private static class Run<T, R, E extends Exception> {
+    private final int parallelism;
+    private final ExtFunction<? super T, ? extends R, ? extends Exception> function;
+    private final ExtConsumer<? super R, ? extends Exception> sink;
+    private final ExceptionHandler<E> exceptionHandler;
+    private final AtomicReference<E> failure = new AtomicReference<>();
+    private volatile boolean cancelled = false;
+
+    private Run(
+        int parallelism,
+        ExtFunction<? super T, ? extends R, ? extends Exception> function,
+        ExtConsumer<? super R, ? extends Exception> sink,
+        ExceptionHandler<E> exceptionHandler) {
+      this.parallelism = parallelism;
+      this.function = function;
+      this.sink = sink;
+      this.exceptionHandler = exceptionHandler;
+    }
+
+    private void process(T element) {
+      if (cancelled) {
+        return;
+      }
+
+      try {
+        sink.accept(function.apply(element));
+      } catch (Exception e) {
+        // stop the other workers before the (slow) exception handling
+        cancelled = true;
+        failure.compareAndSet(null, exceptionHandler.handle(e));
+      }
+    }
+  }
+
+  private static class Chunk<T> extends RecursiveAction {
+    private final Spliterator<T> spliterator;
+    private final long splitThreshold;
+    private final Run<T, ?, ?> run;
+
+    private Chunk(Spliterator<T> spliterator, long splitThreshold, Run<T, ?, ?> run) {
+      this.spliterator = spliterator;
+      this.splitThreshold = splitThreshold;
+      this.run = run;
+    }
+
+    @Override
+    protected void compute() {
+      if (splitThreshold == UNSIZED) {
+        computeUnsized();
+
+        return;
+      }
+
+      List<Chunk<T>> forked = new ArrayList<>();
+      Spliterator<T> split;
+
+      // fork off halves for other workers to steal, and keep the last piece for this one
+      while (!run.cancelled
+          && spliterator.estimateSize() > splitThreshold
+          && (split = spliterator.trySplit()) != null) {
+        Chunk<T> chunk = new Chunk<>(split, splitThreshold, run);
+
+        chunk.fork();
+        forked.add(chunk);
+      }
+
+      processRemaining();
+
+      // newest first, so chunks nobody stole run here without blocking
+      for (int i = forked.size() - 1; i >= 0; i--) {
+        forked.get(i).join();
+      }
+    }
+
+    /**
+     * each trySplit() reads a batch from the source, so splitting until it fails would read the
+     * whole source before any work starts. Instead, once enough batches are out, wait for the
+     * oldest before reading the next
+     */
+    private void computeUnsized() {
+      Deque<Chunk<T>> forked = new ArrayDeque<>();
+      int maxForked = run.parallelism * UNSIZED_BATCHES_PER_THREAD;
+      Spliterator<T> split;
+
+      while (!run.cancelled && (split = spliterator.trySplit()) != null) {
+        Chunk<T> chunk = new Chunk<>(split, splitThreshold(split, run.parallelism), run);
+
+        chunk.fork();
+        forked.addLast(chunk);
+
+        if (forked.size() >= maxForked) {
+          forked.pollFirst().join();
+        }
+      }
+
+      processRemaining();
+
+      while (!forked.isEmpty()) {
+        forked.pollLast().join();
+      }
+    }
+
+    private void processRemaining() {
+      while (!run.cancelled && spliterator.tryAdvance(run::process)) {
+        // process() does the work
+      }
+    }
+  }
+
+  /**
+   * results of parallelMapStreaming(), read by one consumer thread:
+   *
+   * <pre>
+   *   while (results.hasNext()) {
+   *     process(results.next());
+   *   }
+   * </pre>
+   *
+   * @param <R>
+   * @param <E>
+   */
+  public static class StreamingResults<R, E extends Exception> {
+    private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+    // bounds the results in the queue; END does not take a slot
+    private final Semaphore slots;
+    private Run<?, R, E> run;
+    private Object next = null;
+    private boolean ended = false;
+    private boolean cancelled = false;
+
+    private StreamingResults(int queueCapacity) {
+      slots = new Semaphore(queueCapacity);
+    }
+
+    /**
+     * blocks until a result is ready or the run ends
+     *
+     * @return false once every result has been read, or after cancel()
+     * @throws E the first failure, after the results that finished before it have been read
+     * @throws InterruptedException
+     */
+    public boolean hasNext() throws E, InterruptedException {
+      if (cancelled) {
+        return false;
+      }
+
+      if (next != null) {
+        return true;
+      }
+
+      if (!ended) {
+        Object item = queue.take();
+
+        if (item != END) {
+          slots.release();
+          next = item;
+
+          return true;
+        }
+
+        ended = true;
+      }
+
+      if (run.failure.get() != null) {
+        throw run.failure.get();
+      }
+
+      return false;
+    }
+
+    public R next() throws E, InterruptedException {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+
+      Object item = next;
+
+      next = null;
+
+      return item == NULL_RESULT ? null : cast(item);
+    }
+
+    /** stops starting new elements and discards results not yet read */
+    public void cancel() {
+      cancelled = true;
+      run.cancelled = true;
+      queue.clear();
+    }
+
+    @SuppressWarnings("unchecked")
+    private R cast(Object item) {
+      return (R) item;
+    }
+
+    private void put(R result) throws InterruptedException {
+      // plain blocking rather than ForkJoinPool.managedBlock(): compensating threads would each
+      // produce another result and defeat the bound. Timed, so a cancel() while waiting is noticed
+      while (!run.cancelled && !slots.tryAcquire(SLOT_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+        // wait for the reader
+      }
+
+      if (!run.cancelled) {
+        queue.add(result == null ? NULL_RESULT : result);
+      }
+    }
+
+    private void end() {
+      queue.add(END);
+    }
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.concurrency;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Count-min sketch of 4-bit counters used to estimate how often a key has been seen recently. Each
+ * long in the table holds sixteen counters; a key maps to one counter in each of four rows (here,
+ * four nibble groups of one long chosen per hash). Once the number of increments reaches the sample
+ * size, every counter is halved so the estimates follow the recent past ("aging").
+ *
+ * <p>Not thread safe: callers serialize access (the bounded cache only touches it under its
+ * eviction lock).
+ */
+class FrequencySketch {
+  private static final long RESET_MASK = 0x7777777777777777L;
+  private static final long[] SEEDS = {
+    0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+  };
+  private static final int MAX_COUNT = 15;
+
+  private final long[] table;
+  private final int tableMask;
+  private final int sampleSize;
+  private int additions = 0;
+
+  /** @param maximumSize expected number of distinct entries to track */
+  FrequencySketch(long maximumSize) {
+    Preconditions.checkArgument(maximumSize > 0, "maximumSize must be > 0");
+
+    int capacity = (int) Math.min(maximumSize, 1 << 30);
+    int tableSize = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+
+    table = new long[tableSize];
+    tableMask = tableSize - 1;
+    sampleSize = (int) Math.min(10L * capacity, Integer.MAX_VALUE);
+  }
+
+  /** @return estimated number of recent occurrences of the hash, in [0, 15] */
+  int frequency(int hashCode) {
+    int hash = spread(hashCode);
+    int frequency = Integer.MAX_VALUE;
+
+    for (int i = 0; i < 4; i++) {
+      int index = indexOf(hash, i);
+      int offset = counterOffset(hash, i);
+
+      frequency = Math.min(frequency, (int) ((table[index] >>> offset) & 0xfL));
+    }
+
+    return frequency;
+  }
+
+  /** records one occurrence of the hash, aging the whole sketch once the sample is full */
+  void increment(int hashCode) {
+    int hash = spread(hashCode);
+    boolean added = false;
+
+    for (int i = 0; i < 4; i++) {
+      added |= incrementAt(indexOf(hash, i), counterOffset(hash, i));
+    }
+
+    if (added && ++additions >= sampleSize) {
+      reset();
+    }
+  }
+
+  private boolean incrementAt(int index, int offset) {
+    long mask = 0xfL << offset;
+
+    if ((table[index] & mask) != ((long) MAX_COUNT << offset)) {
+      table[index] += 1L << offset;
+
+      return true;
+    }
+
+    return false;
+  }
+
+  /** halves every counter */
+  private void reset() {
+    for (int i = 0; i < table.length; i++) {
+      table[i] = (table[i] >>> 1) & RESET_MASK;
+    }
+
+    additions >>>= 1;
+  }
+
+  private int indexOf(int hash, int row) {
+    long h = (hash + SEEDS[row]) * SEEDS[row];
+
+    h += h >>> 32;
+
+    return ((int) h) & tableMask;
+  }
+
+  /** each row uses its own group of four counters (16 bits) within the selected long */
+  private static int counterOffset(int hash, int row) {
+    int counterInGroup = (hash >>> (row << 3)) & 3;
+
+    return ((row << 2) + counterInGroup) << 2;
+  }
+
+  private static int spread(int x) {
+    x = ((x >>> 16) ^ x) * 0x45d9f3b;
+    x = ((x >>> 16) ^ x) * 0x45d9f3b;
+
+    return (x >>> 16) ^ x;
+  }
+}
@@ -0,0 +1,433 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.concurrency;
+
+import com.google.common.base.Preconditions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ScheduledExecutorService on a hashed timing wheel, for lots of short timeouts that mostly get
+ * cancelled. schedule() and cancel() only add to a lock-free queue; a single timer thread moves
+ * the queued work onto the wheel once per tick, in a batch, and hands due tasks to an executor.
+ * Compared to the delay queue in ScheduledThreadPoolExecutor, nothing is sorted and cancelled tasks
+ * leave the wheel in O(1).
+ *
+ * <p>The price is precision: tasks run within about one tick after their delay, never before.
+ * Tasks run on the executor passed in, so they do not hold up the timer thread.
+ *
+ * <p>Wrap it in an {@link UnstoppableScheduledExecutorService} to share it, like any other
+ * ScheduledExecutorService. Differences from ScheduledThreadPoolExecutor:
+ *
+ * <ul>
+ *   <li>shutdown() cancels every task still waiting for its delay, like shutdownNow() does
+ *   <li>neither shuts down the executor the tasks run on
+ * </ul>
+ */
+public class HashedWheelScheduledExecutorService extends AbstractExecutorService
+    implements ScheduledExecutorService {
+  private static final Logger LOG =
+      LoggerFactory.getLogger(HashedWheelScheduledExecutorService.class);
+  // bounds the work done in one tick when schedule() calls come in a burst
+  private static final int MAX_ADDITIONS_PER_TICK = 100000;
+
+  private final Executor executor;
+  private final long tickNanos;
+  private final Bucket[] wheel;
+  private final int mask;
+  private final Queue<WheelTask<?>> additions = new ConcurrentLinkedQueue<>();
+  private final Queue<WheelTask<?>> cancellations = new ConcurrentLinkedQueue<>();
+  private final long startNanos = System.nanoTime();
+  private final CountDownLatch terminated = new CountDownLatch(1);
+  private final Thread timerThread;
+  private volatile boolean isShutdown = false;
+  // only used by the timer thread
+  private long tick = 0;
+  private List<Runnable> unrunTasks;
+
+  /**
+   * @param executor runs the tasks
+   * @param threadName name of the timer thread
+   * @param tickDuration how often the wheel advances; the precision of the delays
+   * @param tickDurationUnit
+   * @param wheelSize number of buckets, rounded up to a power of 2. Delays longer than
+   *     wheelSize * tickDuration go around the wheel more than once
+   */
+  public HashedWheelScheduledExecutorService(
+      Executor executor,
+      String threadName,
+      long tickDuration,
+      TimeUnit tickDurationUnit,
+      int wheelSize) {
+    Preconditions.checkArgument(tickDuration > 0, "tickDuration must be > 0");
+    Preconditions.checkArgument(
+        wheelSize > 0 && wheelSize <= 1 << 30, "wheelSize must be in (0, 2^30]");
+
+    this.executor = executor;
+    this.tickNanos = tickDurationUnit.toNanos(tickDuration);
+
+    int size = Integer.highestOneBit(wheelSize);
+
+    if (size < wheelSize) {
+      size <<= 1;
+    }
+
+    wheel = new Bucket[size];
+    mask = size - 1;
+
+    for (int i = 0; i < size; i++) {
+      wheel[i] = new Bucket();
+    }
+
+    timerThread = new NamedDaemonThreadFactory(threadName).newThread(this::runTimer);
+    timerThread.start();
+  }
+
+  /** 10ms ticks, 512 buckets */
+  public HashedWheelScheduledExecutorService(Executor executor, String threadName) {
+    this(executor, threadName, 10, TimeUnit.MILLISECONDS, 512);
+  }
+
+  @Override
+  public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+    return schedule(Executors.callable(command), delay, unit);
+  }
+
+  @Override
+  public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+    Preconditions.checkNotNull(callable, "callable is null");
+
+    return add(new WheelTask<>(callable, deadline(delay, unit), 0));
+  }
+
+  @Override
+  public ScheduledFuture<?> scheduleAtFixedRate(
+      Runnable command, long initialDelay, long period, TimeUnit unit) {
+    Preconditions.checkNotNull(command, "command is null");
+    Preconditions.checkArgument(period > 0, "period must be > 0");
+
+    return add(
+        new WheelTask<>(
+            Executors.callable(command), deadline(initialDelay, unit), unit.toNanos(period)));
+  }
+
+  @Override
+  public ScheduledFuture<?> scheduleWithFixedDelay(
+      Runnable command, long initialDelay, long delay, TimeUnit unit) {
+    Preconditions.checkNotNull(command, "command is null");
+    Preconditions.checkArgument(delay > 0, "delay must be > 0");
+
+    return add(
+        new WheelTask<>(
+            Executors.callable(command), deadline(initialDelay, unit), -unit.toNanos(delay)));
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    if (isShutdown) {
+      throw new RejectedExecutionException("executor shutdown already");
+    }
+
+    executor.execute(command);
+  }
+
+  /** cancels every task still waiting for its delay */
+  @Override
+  public void shutdown() {
+    isShutdown = true;
+    LockSupport.unpark(timerThread);
+  }
+
+  /** @return tasks cancelled before they ever ran; waits for the timer thread to collect them */
+  @Override
+  public List<Runnable> shutdownNow() {
+    shutdown();
+
+    try {
+      terminated.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+
+      return new ArrayList<>();
+    }
+
+    return unrunTasks;
+  }
+
+  @Override
+  public boolean isShutdown() {
+    return isShutdown;
+  }
+
+  /** true once the timer thread has stopped; tasks already handed to the executor may still run */
+  @Override
+  public boolean isTerminated() {
+    return terminated.getCount() == 0;
+  }
+
+  @Override
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    return terminated.await(timeout, unit);
+  }
+
+  private long now() {
+    return System.nanoTime() - startNanos;
+  }
+
+  private long deadline(long delay, TimeUnit unit) {
+    return now() + Math.max(0, unit.toNanos(delay));
+  }
+
+  private <V> WheelTask<V> add(WheelTask<V> task) {
+    if (isShutdown) {
+      throw new RejectedExecutionException("executor shutdown already");
+    }
+
+    additions.add(task);
+
+    // shutdown() may have run after the check; the timer thread will no longer see the task
+    if (isShutdown && additions.remove(task)) {
+      throw new RejectedExecutionException("executor shutdown already");
+    }
+
+    return task;
+  }
+
+  private void runTimer() {
+    try {
+      while (waitForNextTick()) {
+        try {
+          processCancellations();
+          processAdditions();
+          expire(wheel[(int) (tick & mask)]);
+        } catch (RuntimeException e) {
+          LOG.error("unexpected error in timer thread", e);
+        }
+
+        tick++;
+      }
+    } finally {
+      unrunTasks = cancelAll();
+      terminated.countDown();
+    }
+  }
+
+  /** @return false on shutdown */
+  private boolean waitForNextTick() {
+    long tickEnd = tickNanos * (tick + 1);
+
+    while (!isShutdown) {
+      long sleepNanos = tickEnd - now();
+
+      if (sleepNanos <= 0) {
+        return true;
+      }
+
+      LockSupport.parkNanos(this, sleepNanos);
+    }
+
+    return false;
+  }
+
+  private void processCancellations() {
+    WheelTask<?> task;
+
+    while ((task = cancellations.poll()) != null) {
+      if (task.bucket != null) {
+        task.bucket.remove(task);
+      }
+    }
+  }
+
+  private void processAdditions() {
+    for (int i = 0; i < MAX_ADDITIONS_PER_TICK; i++) {
+      WheelTask<?> task = additions.poll();
+
+      if (task == null) {
+        return;
+      }
+
+      if (!task.isCancelled()) {
+        // round up, and never into a tick that has passed
+        long taskTick = Math.max(tick, (task.deadlineNanos + tickNanos - 1) / tickNanos);
+
+        task.remainingRounds = (taskTick - tick) / wheel.length;
+        wheel[(int) (taskTick & mask)].add(task);
+      }
+    }
+  }
+
+  private void expire(Bucket bucket) {
+    WheelTask<?> task = bucket.head;
+
+    while (task != null) {
+      WheelTask<?> next = task.next;
+
+      if (task.isCancelled()) {
+        bucket.remove(task);
+      } else if (task.remainingRounds <= 0) {
+        bucket.remove(task);
+        dispatch(task);
+      } else {
+        task.remainingRounds--;
+      }
+
+      task = next;
+    }
+  }
+
+  private void dispatch(WheelTask<?> task) {
+    try {
+      executor.execute(task);
+    } catch (RejectedExecutionException e) {
+      task.reject(e);
+    }
+  }
+
+  private List<Runnable> cancelAll() {
+    List<Runnable> cancelled = new ArrayList<>();
+
+    while (!additions.isEmpty()) {
+      processAdditions();
+    }
+
+    for (Bucket bucket : wheel) {
+      for (WheelTask<?> task = bucket.head; task != null; task = task.next) {
+        if (task.cancel(false)) {
+          cancelled.add(task);
+        }
+      }
+
+      bucket.head = null;
+      bucket.tail = null;
+    }
+
+    cancellations.clear();
+
+    return cancelled;
+  }
+
+  /** doubly linked list of tasks, only touched by the timer thread */
+  private static class Bucket {
+    private WheelTask<?> head;
+    private WheelTask<?> tail;
+
+    private void add(WheelTask<?> task) {
+      task.bucket = this;
+
+      if (head == null) {
+        head = task;
+        tail = task;
+      } else {
+        tail.next = task;
+        task.prev = tail;
+        tail = task;
+      }
+    }
+
+    private void remove(WheelTask<?> task) {
+      if (task.prev != null) {
+        task.prev.next = task.next;
+      } else {
+        head = task.next;
+      }
+
+      if (task.next != null) {
+        task.next.prev = task.prev;
+      } else {
+        tail = task.prev;
+      }
+
+      task.prev = null;
+      task.next = null;
+      task.bucket = null;
+    }
+  }
+
+  private class WheelTask<V> extends FutureTask<V> implements ScheduledFuture<V> {
+    // > 0: fixed rate, < 0: fixed delay, 0: one-shot
+    private final long periodNanos;
+    // nanos since startNanos; written before the task is handed to the timer thread
+    private volatile long deadlineNanos;
+    // the rest is only used by the timer thread
+    private long remainingRounds;
+    private Bucket bucket;
+    private WheelTask<?> prev;
+    private WheelTask<?> next;
+
+    private WheelTask(Callable<V> callable, long deadlineNanos, long periodNanos) {
+      super(callable);
+      this.deadlineNanos = deadlineNanos;
+      this.periodNanos = periodNanos;
+    }
+
+    @Override
+    public void run() {
+      if (periodNanos == 0) {
+        super.run();
+      } else if (runAndReset() && !isShutdown) {
+        deadlineNanos = periodNanos > 0 ? deadlineNanos + periodNanos : now() - periodNanos;
+        additions.add(this);
+
+        // same race with shutdown() as in add()
+        if (isShutdown && additions.remove(this)) {
+          cancel(false);
+        }
+      }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      boolean cancelled = super.cancel(mayInterruptIfRunning);
+
+      if (cancelled && !isShutdown) {
+        cancellations.add(this);
+      }
+
+      return cancelled;
+    }
+
+    private void reject(RejectedExecutionException e) {
+      setException(e);
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+      return unit.convert(deadlineNanos - now(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public int compareTo(Delayed o) {
+      return Long.compare(getDelay(TimeUnit.NANOSECONDS), o.getDelay(TimeUnit.NANOSECONDS));
+    }
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.concurrency;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * counts requests (and empty getIfPresent() results) for a cache and exports its size; the rest of
+ * {@link CacheStats} comes from the instrumented ValueFactory and EvictionListener the delegate was
+ * built with
+ */
+public class InstrumentedConcurrentCache<K, V, E extends Exception>
+    implements ConcurrentCache<K, V, E> {
+  private final ConcurrentCache<K, V, E> delegate;
+  private final CacheStats cacheStats;
+
+  public InstrumentedConcurrentCache(ConcurrentCache<K, V, E> delegate, CacheStats cacheStats) {
+    this.delegate = delegate;
+    this.cacheStats = cacheStats;
+    cacheStats.registerSize(() -> (long) delegate.size());
+  }
+
+  @Override
+  public V get(K key) throws E {
+    cacheStats.recordRequests(1);
+
+    return delegate.get(key);
+  }
+
+  @Override
+  public Map<K, V> getAll(Iterable<? extends K> keys) throws E {
+    // count before loading, like get(), so a failed load still counts its requests
+    Set<K> distinctKeys = new LinkedHashSet<>();
+
+    for (K key : keys) {
+      distinctKeys.add(key);
+    }
+
+    cacheStats.recordRequests(distinctKeys.size());
+
+    return delegate.getAll(distinctKeys);
+  }
+
+  @Override
+  public V put(K key, V value) throws E {
+    return delegate.put(key, value);
+  }
+
+  @Override
+  public V remove(K key) throws E {
+    return delegate.remove(key);
+  }
+
+  @Override
+  public boolean removeIfError(K key) {
+    return delegate.removeIfError(key);
+  }
+
+  @Override
+  public CallableSnapshot<V, E> getIfPresent(K key) {
+    cacheStats.recordRequests(1);
+
+    CallableSnapshot<V, E> snapshot = delegate.getIfPresent(key);
+
+    if (snapshot == null) {
+      cacheStats.recordMiss();
+    }
+
+    return snapshot;
+  }
+
+  @Override
+  public void clear() {
+    delegate.clear();
+  }
+
+  @Override
+  public void prune() throws E {
+    delegate.prune();
+  }
+
+  @Override
+  public int size() {
+    return delegate.size();
+  }
+
+  @Override
+  public Iterator<Map.Entry<K, CallableSnapshot<V, E>>> iterator() {
+    return delegate.iterator();
+  }
+
+  public CacheStats getCacheStats() {
+    return cacheStats;
+  }
+}
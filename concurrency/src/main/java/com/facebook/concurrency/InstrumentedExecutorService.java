@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.concurrency;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * wraps every task submitted to an executor so it feeds an {@link ExecutorStats}. Works over any
+ * ExecutorService, e.g. an {@link ExecutorServiceFront} or {@link UnstoppableExecutorService};
+ * shutdown and termination go straight to the wrapped executor.
+ */
+public class InstrumentedExecutorService implements ExecutorService {
+  private final ExecutorService executor;
+  private final ExecutorStats executorStats;
+
+  public InstrumentedExecutorService(ExecutorService executor, ExecutorStats executorStats) {
+    this.executor = executor;
+    this.executorStats = executorStats;
+  }
+
+  @Override
+  public <T> Future<T> submit(Callable<T> task) {
+    TrackedCallable<T> trackedTask = executorStats.instrument(task);
+
+    try {
+      return executor.submit(trackedTask);
+    } catch (RejectedExecutionException e) {
+      executorStats.recordRejected(1);
+
+      throw e;
+    }
+  }
+
+  @Override
+  public <T> Future<T> submit(Runnable task, T result) {
+    TrackedRunnable trackedTask = executorStats.instrument(task);
+
+    try {
+      return executor.submit(trackedTask, result);
+    } catch (RejectedExecutionException e) {
+      executorStats.recordRejected(1);
+
+      throw e;
+    }
+  }
+
+  @Override
+  public Future<?> submit(Runnable task) {
+    TrackedRunnable trackedTask = executorStats.instrument(task);
+
+    try {
+      return executor.submit(trackedTask);
+    } catch (RejectedExecutionException e) {
+      executorStats.recordRejected(1);
+
+      throw e;
+    }
+  }
+
+  @Override
+  public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks)
+      throws InterruptedException {
+    List<TrackedCallable<T>> trackedTaskList = instrument(tasks);
+
+    try {
+      return executor.invokeAll(trackedTaskList);
+    } catch (RejectedExecutionException e) {
+      executorStats.recordRejected(trackedTaskList.size());
+
+      throw e;
+    }
+  }
+
+  @Override
+  public <T> List<Future<T>> invokeAll(
+      Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit)
+      throws InterruptedException {
+    List<TrackedCallable<T>> trackedTaskList = instrument(tasks);
+
+    try {
+      return executor.invokeAll(trackedTaskList, timeout, unit);
+    } catch (RejectedExecutionException e) {
+      executorStats.recordRejected(trackedTaskList.size());
+
+      throw e;
+    }
+  }
+
+  @Override
+  public <T> T invokeAny(Collection<? extends Callable<T>> tasks)
+      throws InterruptedException, ExecutionException {
+    List<TrackedCallable<T>> trackedTaskList = instrument(tasks);
+
+    try {
+      return executor.invokeAny(trackedTaskList);
+    } catch (RejectedExecutionException e) {
+      executorStats.recordRejected(trackedTaskList.size());
+
+      throw e;
+    }
+  }
+
+  @Override
+  public <T> T invokeAny(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit)
+      throws InterruptedException, ExecutionException, TimeoutException {
+    List<TrackedCallable<T>> trackedTaskList = instrument(tasks);
+
+    try {
+      return executor.invokeAny(trackedTaskList, timeout, unit);
+    } catch (RejectedExecutionException e) {
+      executorStats.recordRejected(trackedTaskList.size());
+
+      throw e;
+    }
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    TrackedRunnable trackedTask = executorStats.instrument(command);
+
+    try {
+      executor.execute(trackedTask);
+    } catch (RejectedExecutionException e) {
+      executorStats.recordRejected(1);
+
+      throw e;
+    }
+  }
+
+  @Override
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  @Override
+  public List<Runnable> shutdownNow() {
+    return executor.shutdownNow();
+  }
+
+  @Override
+  public boolean isShutdown() {
+    return executor.isShutdown();
+  }
+
+  @Override
+  public boolean isTerminated() {
+    return executor.isTerminated();
+  }
+
+  @Override
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    return executor.awaitTermination(timeout, unit);
+  }
+
+  private <T> List<TrackedCallable<T>> instrument(Collection<? extends Callable<T>> tasks) {
+    List<TrackedCallable<T>> result = new ArrayList<>(tasks.size());
+
+    for (Callable<T> task : tasks) {
+      result.add(executorStats.instrument(task));
+    }
+
+    return result;
+  }
+}
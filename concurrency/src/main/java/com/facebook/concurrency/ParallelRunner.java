@@ -23,6 +23,8 @@ import com.google.common.collect.Iterators;
 import java.util.Iterator;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
@@ -31,6 +33,11 @@ import java.util.concurrent.atomic.AtomicReference;
  * Utility class in order to execute tasks in parallel on top of an executor, but bound the number
  * of concurrent tasks used in that executor. Note, if the executor itself has a bound lower than
  * specified, that bound will of course be used.
+ *
+ * <p>In thread-per-task mode, every task is handed straight to the executor, and a semaphore
+ * bounds how many are in flight. This suits executors that start a thread per task, such as those
+ * from {@link VirtualThreadExecutorServiceFactory}: thousands of blocking calls can fan out without
+ * a platform thread each.
  */
 public class ParallelRunner {
   private static final Logger LOG = LoggerImpl.getLogger(ParallelRunner.class);
@@ -40,16 +47,30 @@ public class ParallelRunner {
 
   private final ExecutorService executor;
   private final String defaultNamePrefix;
+  private final boolean threadPerTask;
 
   /**
    * Create an instance on top of an underlying executor
    *
    * @param executor executor to wrap
    * @param defaultNamePrefix borrowed threads will use this name prefix
+   * @param threadPerTask if true, submit each task to the executor on its own and bound the tasks
+   *     in flight with a semaphore; otherwise numThreads drainers pull tasks from a queue
    */
-  public ParallelRunner(ExecutorService executor, String defaultNamePrefix) {
+  public ParallelRunner(ExecutorService executor, String defaultNamePrefix, boolean threadPerTask) {
     this.executor = executor;
     this.defaultNamePrefix = defaultNamePrefix;
+    this.threadPerTask = threadPerTask;
+  }
+
+  /**
+   * Create an instance on top of an underlying executor
+   *
+   * @param executor executor to wrap
+   * @param defaultNamePrefix borrowed threads will use this name prefix
+   */
+  public ParallelRunner(ExecutorService executor, String defaultNamePrefix) {
+    this(executor, defaultNamePrefix, false);
   }
 
   /**
@@ -195,11 +216,20 @@ public class ParallelRunner {
    * <p>There is nothing in the implementation that requires this, however, and if a client
    * constructs an unbounded Iterator, this will function correctly.
    *
+   * <p>In thread-per-task mode, numThreads is the number of tasks in flight at once, and this
+   * thread blocks pulling the next task until one finishes.
+   *
    * @param tasksIter
    * @param numThreads
    * @param baseName
    */
   public void parallelRun(Iterator<? extends Runnable> tasksIter, int numThreads, String baseName) {
+    if (threadPerTask) {
+      parallelRunPerTask(tasksIter, numThreads, baseName);
+
+      return;
+    }
+
     ExecutorService executorForInvocation;
 
     // create a virtual executor that bounds the # of threads we can use
@@ -232,4 +262,58 @@ public class ParallelRunner {
       LOG.warn("interrupted waiting for tasks to complete", e);
     }
   }
+
+  private void parallelRunPerTask(
+      Iterator<? extends Runnable> tasksIter, int maxInFlight, String baseName) {
+    Semaphore permits = new Semaphore(maxInFlight);
+    int totalTasks = 0;
+
+    try {
+      while (tasksIter.hasNext()) {
+        Runnable task = tasksIter.next();
+        String threadName = baseName + "-" + totalTasks;
+
+        permits.acquire();
+
+        try {
+          executor.execute(() -> runTask(task, threadName, permits));
+        } catch (RejectedExecutionException e) {
+          permits.release();
+
+          throw e;
+        }
+
+        totalTasks++;
+      }
+
+      // all permits free means every task has finished
+      while (!permits.tryAcquire(maxInFlight, 10, TimeUnit.SECONDS)) {
+        LOG.info(
+            "(%d) %s waited 10s for %d tasks, waiting some more",
+            Thread.currentThread().getId(), baseName, totalTasks);
+      }
+
+      LOG.info("(%d) tasksIter for %s completed", Thread.currentThread().getId(), baseName);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+
+      LOG.warn(e, "interrupted waiting for tasks to complete");
+    }
+  }
+
+  private static void runTask(Runnable task, String threadName, Semaphore permits) {
+    Thread t = Thread.currentThread();
+    String oldName = t.getName();
+
+    t.setName(threadName);
+
+    try {
+      task.run();
+    } catch (RuntimeException e) {
+      LOG.warn(e, "Ignoring Task Failure");
+    } finally {
+      t.setName(oldName);
+      permits.release();
+    }
+  }
 }
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.concurrency;
+
+import com.facebook.collections.TranslatingIterator;
+import com.facebook.util.exceptions.ExceptionHandler;
+import com.google.common.base.Preconditions;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import org.joda.time.DateTimeUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * cache that reloads values in the background instead of making readers wait for them
+ * (stale-while-revalidate). Once an entry is older than refreshAfterWrite, the next get() returns
+ * the current value right away and schedules a reload on the executor. Entries are never evicted
+ * for age: only remove(), clear(), or the iterator take them out.
+ *
+ * <ul>
+ *   <li>at most one reload per key is in flight; reads while it runs keep getting the old value
+ *   <li>a reload that fails keeps the old value (or old error), and the key is not retried until
+ *       another refreshAfterWrite has passed
+ *   <li>a put() or remove() made while a reload runs wins over the reload's result
+ *   <li>cached errors are refreshed like values, so a failed load recovers without removeIfError()
+ * </ul>
+ *
+ * <p>Misses still load in the calling thread, exactly as in {@link CoreConcurrentCache}.
+ */
+public class RefreshingConcurrentCache<K, V, E extends Exception>
+    implements ConcurrentCache<K, V, E> {
+  private static final Logger LOG = LoggerFactory.getLogger(RefreshingConcurrentCache.class);
+
+  private final ConcurrentMap<K, Object> map = new ConcurrentHashMap<>();
+  private final ConcurrentCache<K, Entry<V, E>, E> baseCache;
+  private final ValueFactory<K, V, E> valueFactory;
+  private final ExceptionHandler<E> exceptionHandler;
+  private final long refreshAfterWriteMillis;
+  private final Executor executor;
+
+  /**
+   * @param valueFactory used both for misses and for background reloads
+   * @param refreshAfterWrite age at which a read triggers a reload
+   * @param refreshAfterWriteUnit
+   * @param exceptionHandler
+   * @param executor runs the reloads
+   */
+  public RefreshingConcurrentCache(
+      ValueFactory<K, V, E> valueFactory,
+      long refreshAfterWrite,
+      TimeUnit refreshAfterWriteUnit,
+      ExceptionHandler<E> exceptionHandler,
+      Executor executor) {
+    Preconditions.checkArgument(refreshAfterWrite > 0, "refreshAfterWrite must be > 0");
+
+    this.valueFactory = valueFactory;
+    this.exceptionHandler = exceptionHandler;
+    this.refreshAfterWriteMillis = refreshAfterWriteUnit.toMillis(refreshAfterWrite);
+    this.executor = executor;
+    this.baseCache = new CoreConcurrentCache<>(this::load, exceptionHandler, map);
+  }
+
+  @Override
+  public V get(K key) throws E {
+    Entry<V, E> entry = baseCache.get(key);
+
+    refreshIfNeeded(key, entry);
+
+    return entry.snapshot.get();
+  }
+
+  @Override
+  public V put(K key, V value) throws E {
+    Entry<V, E> existingEntry =
+        baseCache.put(
+            key,
+            newEntry(
+                new CallableSnapshot<>(
+                    new FixedValueCallable<>(value), new NullExceptionHandler<>())));
+
+    return existingEntry == null ? null : existingEntry.snapshot.get();
+  }
+
+  @Override
+  public V remove(K key) throws E {
+    Entry<V, E> entry = baseCache.remove(key);
+
+    return entry == null ? null : entry.snapshot.get();
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public boolean removeIfError(K key) {
+    Object value = map.get(key);
+
+    // in-flight loads are still wrapped in the base cache's private future type
+    return value instanceof Entry
+        && ((Entry<V, E>) value).snapshot.getException() != null
+        && map.remove(key, value);
+  }
+
+  /** does not trigger a reload */
+  @Override
+  public CallableSnapshot<V, E> getIfPresent(K key) {
+    CallableSnapshot<Entry<V, E>, E> snapshot = baseCache.getIfPresent(key);
+
+    return snapshot == null ? null : getEntry(snapshot).snapshot;
+  }
+
+  @Override
+  public void clear() {
+    baseCache.clear();
+  }
+
+  @Override
+  public void prune() {
+    // no-op: entries are refreshed, never expired
+  }
+
+  @Override
+  public int size() {
+    return baseCache.size();
+  }
+
+  @Override
+  public Iterator<Map.Entry<K, CallableSnapshot<V, E>>> iterator() {
+    return new TranslatingIterator<>(
+        input ->
+            new AbstractMap.SimpleImmutableEntry<>(
+                input.getKey(), getEntry(input.getValue()).snapshot),
+        baseCache.iterator());
+  }
+
+  private Entry<V, E> load(K key) {
+    return newEntry(new CallableSnapshot<>(() -> valueFactory.create(key), exceptionHandler));
+  }
+
+  private Entry<V, E> newEntry(CallableSnapshot<V, E> snapshot) {
+    return new Entry<>(snapshot, DateTimeUtils.currentTimeMillis() + refreshAfterWriteMillis);
+  }
+
+  private void refreshIfNeeded(K key, Entry<V, E> entry) {
+    if (DateTimeUtils.currentTimeMillis() >= entry.refreshAt && entry.startRefresh()) {
+      try {
+        executor.execute(() -> refresh(key, entry));
+      } catch (RejectedExecutionException e) {
+        LOG.warn("unable to schedule refresh of key {}", key, e);
+        entry.refreshFailed(DateTimeUtils.currentTimeMillis() + refreshAfterWriteMillis);
+      }
+    }
+  }
+
+  private void refresh(K key, Entry<V, E> entry) {
+    boolean replaced = false;
+
+    try {
+      CallableSnapshot<V, E> snapshot =
+          new CallableSnapshot<>(() -> valueFactory.create(key), exceptionHandler);
+
+      if (snapshot.getException() == null) {
+        // only replaces the entry that was refreshed: a put() or remove() meanwhile wins
+        map.replace(key, entry, newEntry(snapshot));
+        replaced = true;
+      } else {
+        LOG.warn(
+            "refresh of key {} failed, keeping the current value", key, snapshot.getException());
+      }
+    } finally {
+      if (!replaced) {
+        entry.refreshFailed(DateTimeUtils.currentTimeMillis() + refreshAfterWriteMillis);
+      }
+    }
+  }
+
+  private Entry<V, E> getEntry(CallableSnapshot<Entry<V, E>, E> snapshot) {
+    try {
+      return snapshot.get();
+    } catch (Exception e) {
+      // load() never throws: failures are stored in the Entry
+      throw new RuntimeException("Entry create should not fail", e);
+    }
+  }
+
+  /**
+   * a loaded value or error plus when it is due for a reload. The snapshot never changes; a
+   * successful reload puts a new Entry in the map.
+   */
+  private static class Entry<V, E extends Exception> {
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<Entry> REFRESHING_UPDATER =
+        AtomicIntegerFieldUpdater.newUpdater(Entry.class, "refreshing");
+
+    private final CallableSnapshot<V, E> snapshot;
+    private volatile long refreshAt;
+    private volatile int refreshing = 0;
+
+    private Entry(CallableSnapshot<V, E> snapshot, long refreshAt) {
+      this.snapshot = snapshot;
+      this.refreshAt = refreshAt;
+    }
+
+    /** @return true for exactly one caller until refreshFailed() is called */
+    private boolean startRefresh() {
+      return refreshing == 0 && REFRESHING_UPDATER.compareAndSet(this, 0, 1);
+    }
+
+    private void refreshFailed(long nextRefreshAt) {
+      refreshAt = nextRefreshAt;
+      refreshing = 0;
+    }
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.concurrency;
+
+import com.facebook.util.exceptions.ExceptionHandler;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * collapses concurrent requests for the same key into one call of the ValueFactory: the first
+ * caller starts it, callers arriving while it runs share its result, and once it completes the key
+ * is forgotten. Unlike {@link CoreConcurrentCache}, nothing is kept, so the next request after
+ * that calls the factory again. Use it to keep a herd of requests for a cold key from all hitting
+ * the backend at once.
+ *
+ * <p>get() runs the factory on the calling thread, or waits for the call already in flight.
+ * getAsync() starts it on an executor and returns right away. Both share the same in-flight calls.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ * @param <E> exception type
+ */
+public class SingleFlight<K, V, E extends Exception> {
+  private final ConcurrentMap<K, Flight> flights = new ConcurrentHashMap<>();
+  private final ValueFactory<K, V, E> valueFactory;
+  private final ExceptionHandler<E> exceptionHandler;
+
+  public SingleFlight(ValueFactory<K, V, E> valueFactory, ExceptionHandler<E> exceptionHandler) {
+    this.valueFactory = valueFactory;
+    this.exceptionHandler = exceptionHandler;
+  }
+
+  /**
+   * @return the value from the call in flight for key, or from a new call on this thread
+   * @throws E if the call failed; every caller sharing it gets the failure
+   */
+  public V get(K key) throws E {
+    return getFlight(key).safeGet();
+  }
+
+  /**
+   * @param key
+   * @param executor runs the call, if none is in flight for key
+   * @return future completed with the shared result, or exceptionally with the E produced by the
+   *     exception handler. It is shared by all callers: do not complete or cancel it
+   */
+  public CompletableFuture<V> getAsync(K key, Executor executor) {
+    Flight flight = flights.get(key);
+
+    if (flight != null) {
+      return flight.completion;
+    }
+
+    Flight newFlight = new Flight(key);
+
+    flight = flights.putIfAbsent(key, newFlight);
+
+    // did another thread start a call before us?  If so, share it
+    if (flight != null) {
+      return flight.completion;
+    }
+
+    try {
+      executor.execute(newFlight);
+    } catch (RejectedExecutionException e) {
+      newFlight.fail(e);
+    }
+
+    return newFlight.completion;
+  }
+
+  /** @return true if a call for key is running */
+  public boolean isInFlight(K key) {
+    return flights.containsKey(key);
+  }
+
+  /** @return number of keys with a call running */
+  public int getInFlightCount() {
+    return flights.size();
+  }
+
+  private Flight getFlight(K key) {
+    Flight flight = flights.get(key);
+
+    if (flight != null) {
+      return flight;
+    }
+
+    Flight newFlight = new Flight(key);
+
+    flight = flights.putIfAbsent(key, newFlight);
+
+    return flight == null ? newFlight : flight;
+  }
+
+  private class Flight extends FutureHelper<V, E> {
+    private final K key;
+    private final CompletableFuture<V> completion = new CompletableFuture<>();
+
+    private Flight(K key) {
+      super(() -> valueFactory.create(key), exceptionHandler);
+      this.key = key;
+    }
+
+    private void fail(Exception e) {
+      setException(e);
+    }
+
+    // forget the key before the result is visible, so a caller that sees it and asks again starts
+    // a new call
+    @Override
+    protected void set(V value) {
+      flights.remove(key, this);
+      super.set(value);
+    }
+
+    @Override
+    protected void setException(Throwable t) {
+      flights.remove(key, this);
+      super.setException(t);
+    }
+
+    @Override
+    protected void done() {
+      try {
+        completion.complete(get());
+      } catch (ExecutionException | InterruptedException e) {
+        completion.completeExceptionally(exceptionHandler.handle(e));
+      }
+    }
+  }
+}
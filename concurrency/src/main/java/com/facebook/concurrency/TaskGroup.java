@@ -15,21 +15,55 @@
  */
 package com.facebook.concurrency;
 
-import com.facebook.collections.Pair;
+import com.google.common.base.Preconditions;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import org.joda.time.DateTimeUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Provides a grouping of tasks so that when executed, the caller will have a latch to wait on to
  * indicate when all registered tasks have completed. Tasks may be registered with the default
  * executor, or with another executor.
+ *
+ * <p>Tasks may also depend on each other (DAG mode): a node registered with registerNode() only
+ * starts once every node it dependsOn() has completed. Among the nodes ready to run on an executor,
+ * the one with the longest chain of estimated cost still behind it goes first, so the critical
+ * path is not left waiting behind short side branches. If a node throws, the nodes downstream of
+ * it are cancelled; independent nodes still run. The FinishLatch reports what happened to each
+ * node and how long it waited and ran.
+ *
+ * <p>Tasks added with register() behave as they always have: if the executor rejects one,
+ * execute() throws the RejectedExecutionException, and an exception from the task reaches the
+ * executor (e.g. its uncaught exception handler). Both are also recorded in the node results.
+ *
+ * <pre>
+ *   TaskGroup.Node load = taskGroup.registerNode("load", loadTask);
+ *   TaskGroup.Node index = taskGroup.registerNode("index", indexTask).dependsOn(load);
+ *   TaskGroup.Node warm = taskGroup.registerNode("warm", warmTask).dependsOn(load);
+ *   taskGroup.registerNode("serve", serveTask).dependsOn(index, warm);
+ * </pre>
  */
 public class TaskGroup {
+  private static final Logger LOG = LoggerFactory.getLogger(TaskGroup.class);
+
   private final ExecutorService defaultExecutor;
-  private final Collection<Pair<ExecutorService, Runnable>> taskPairs = new ArrayList<>();
+  private final List<Node> nodes = new ArrayList<>();
 
   public TaskGroup(ExecutorService defaultExecutor) {
     this.defaultExecutor = defaultExecutor;
@@ -40,46 +74,484 @@ public class TaskGroup {
   }
 
   public synchronized void register(ExecutorService executorService, Runnable task) {
-    taskPairs.add(new Pair<>(executorService, task));
+    addNode("task-" + nodes.size(), executorService, task, 1, true);
   }
 
   public void register(Runnable task) {
+    register(getDefaultExecutor(), task);
+  }
+
+  /**
+   * @param name used in the per-node results
+   * @param executorService runs the task
+   * @param task
+   * @param estimatedCost relative cost of the task, e.g. its typical run time in millis; used to
+   *     find the critical path
+   * @return node to add dependencies to
+   */
+  public synchronized Node registerNode(
+      String name, ExecutorService executorService, Runnable task, long estimatedCost) {
+    Preconditions.checkArgument(estimatedCost >= 0, "estimatedCost must be >= 0");
+
+    return addNode(name, executorService, task, estimatedCost, false);
+  }
+
+  /** registers a node on the default executor, with an estimated cost of 1 */
+  public Node registerNode(String name, Runnable task) {
+    return registerNode(name, getDefaultExecutor(), task, 1);
+  }
+
+  /**
+   * starts every node with no dependencies; the others start as their dependencies complete
+   *
+   * @throws IllegalStateException if the dependencies form a cycle
+   * @throws RejectedExecutionException if the executor rejects a task added with register(); the
+   *     other tasks are still started
+   */
+  public synchronized FinishLatch execute() {
+    Run run = new Run(new ArrayList<>(nodes));
+
+    run.start();
+
+    return new FinishLatch(run);
+  }
+
+  private Node addNode(
+      String name,
+      ExecutorService executorService,
+      Runnable task,
+      long estimatedCost,
+      boolean rethrowFailures) {
+    Node node =
+        new Node(nodes.size(), name, executorService, task, estimatedCost, rethrowFailures);
+
+    nodes.add(node);
+
+    return node;
+  }
+
+  private ExecutorService getDefaultExecutor() {
     if (defaultExecutor == null) {
       throw new IllegalStateException("No default executor specified");
     }
-    register(defaultExecutor, task);
+
+    return defaultExecutor;
   }
 
-  public synchronized FinishLatch execute() {
-    CountDownLatch finishLatch = new CountDownLatch(taskPairs.size());
-    for (Pair<ExecutorService, Runnable> taskPair : taskPairs) {
-      taskPair
-          .getFirst()
-          .execute(
-              () -> {
-                try {
-                  taskPair.getSecond().run();
-                } finally {
-                  finishLatch.countDown();
-                }
-              });
-    }
-    return new FinishLatch(finishLatch);
+  public class Node {
+    private final int index;
+    private final String name;
+    private final ExecutorService executor;
+    private final Runnable task;
+    private final long estimatedCost;
+    // registered with register(): failures also propagate as they did before nodes existed
+    private final boolean rethrowFailures;
+    // guarded by the TaskGroup
+    private final List<Node> upstream = new ArrayList<>();
+    private final List<Node> downstream = new ArrayList<>();
+
+    private Node(
+        int index,
+        String name,
+        ExecutorService executor,
+        Runnable task,
+        long estimatedCost,
+        boolean rethrowFailures) {
+      this.index = index;
+      this.name = name;
+      this.executor = executor;
+      this.task = task;
+      this.estimatedCost = estimatedCost;
+      this.rethrowFailures = rethrowFailures;
+    }
+
+    /**
+     * @param nodes nodes that must complete before this one starts
+     * @return this node
+     */
+    public Node dependsOn(Node... nodes) {
+      synchronized (TaskGroup.this) {
+        for (Node node : nodes) {
+          Preconditions.checkArgument(
+              node.getTaskGroup() == TaskGroup.this, "node %s is from another TaskGroup", node);
+          Preconditions.checkArgument(node != this, "node %s cannot depend on itself", this);
+          upstream.add(node);
+          node.downstream.add(this);
+        }
+      }
+
+      return this;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    private TaskGroup getTaskGroup() {
+      return TaskGroup.this;
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
   }
 
-  public static class FinishLatch {
+  public enum NodeStatus {
+    PENDING,
+    SUCCEEDED,
+    FAILED,
+    CANCELLED
+  }
+
+  /** what happened to one node. Complete once the FinishLatch has been awaited */
+  public static class NodeResult {
+    private final String name;
+    private final List<NodeResult> upstream = new ArrayList<>();
+    private volatile NodeStatus status = NodeStatus.PENDING;
+    private volatile long readyMillis = -1;
+    private volatile long startMillis = -1;
+    private volatile long endMillis = -1;
+    private volatile Throwable failure;
+
+    private NodeResult(String name) {
+      this.name = name;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public NodeStatus getStatus() {
+      return status;
+    }
+
+    /** @return the task's exception, or the executor's RejectedExecutionException */
+    public Throwable getFailure() {
+      return failure;
+    }
+
+    /** @return millis from all dependencies completing until the task started, or -1 */
+    public long getQueueMillis() {
+      return startMillis < 0 ? -1 : startMillis - readyMillis;
+    }
+
+    /** @return millis the task ran, or -1 */
+    public long getRunMillis() {
+      return startMillis < 0 || endMillis < 0 ? -1 : endMillis - startMillis;
+    }
+
+    public long getStartMillis() {
+      return startMillis;
+    }
+
+    public long getEndMillis() {
+      return endMillis;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%s: %s, queued %dms, ran %dms", name, status, getQueueMillis(), getRunMillis());
+    }
+  }
+
+  /** state of one execute() call */
+  private static class Run {
+    private static final int NEW = 0;
+    private static final int READY = 1;
+    private static final int DONE = 2;
+
+    private final List<Node> nodes;
+    // edges as of execute(), by node index
+    private final int[][] downstream;
+    private final NodeResult[] results;
+    private final long[] priority;
+    private final AtomicIntegerArray remainingUpstream;
+    private final AtomicIntegerArray states;
+    private final Map<ExecutorService, Queue<Integer>> readyQueues = new IdentityHashMap<>();
     private final CountDownLatch finishLatch;
 
-    private FinishLatch(CountDownLatch finishLatch) {
-      this.finishLatch = finishLatch;
+    private Run(List<Node> nodes) {
+      this.nodes = nodes;
+      results = new NodeResult[nodes.size()];
+      remainingUpstream = new AtomicIntegerArray(nodes.size());
+      states = new AtomicIntegerArray(nodes.size());
+      finishLatch = new CountDownLatch(nodes.size());
+
+      downstream = new int[nodes.size()][];
+
+      for (Node node : nodes) {
+        results[node.index] = new NodeResult(node.name);
+        remainingUpstream.set(node.index, node.upstream.size());
+        // nodes registered after execute() are not part of this run
+        downstream[node.index] =
+            node.downstream.stream()
+                .mapToInt(downstreamNode -> downstreamNode.index)
+                .filter(index -> index < nodes.size())
+                .toArray();
+      }
+
+      for (Node node : nodes) {
+        for (Node upstreamNode : node.upstream) {
+          results[node.index].upstream.add(results[upstreamNode.index]);
+        }
+      }
+
+      priority = computePriorities();
+
+      // the ready node on the critical path goes first; ties in registration order
+      Comparator<Integer> order =
+          Comparator.<Integer>comparingLong(index -> -priority[index])
+              .thenComparingInt(index -> index);
+
+      for (Node node : nodes) {
+        readyQueues.computeIfAbsent(
+            node.executor, executor -> new PriorityBlockingQueue<>(11, order));
+      }
+    }
+
+    /**
+     * @return for each node, the cost of the most expensive chain of nodes from it to the end of
+     *     the graph, including itself
+     */
+    private long[] computePriorities() {
+      // Kahn's algorithm, which also finds cycles
+      int[] remaining = new int[nodes.size()];
+      Deque<Node> ready = new ArrayDeque<>();
+      List<Node> topologicalOrder = new ArrayList<>(nodes.size());
+
+      for (Node node : nodes) {
+        remaining[node.index] = node.upstream.size();
+
+        if (remaining[node.index] == 0) {
+          ready.add(node);
+        }
+      }
+
+      while (!ready.isEmpty()) {
+        Node node = ready.poll();
+
+        topologicalOrder.add(node);
+
+        for (int downstreamIndex : downstream[node.index]) {
+          if (--remaining[downstreamIndex] == 0) {
+            ready.add(nodes.get(downstreamIndex));
+          }
+        }
+      }
+
+      if (topologicalOrder.size() < nodes.size()) {
+        List<Node> cycle = new ArrayList<>();
+
+        for (Node node : nodes) {
+          if (remaining[node.index] > 0) {
+            cycle.add(node);
+          }
+        }
+
+        throw new IllegalStateException("dependency cycle among " + cycle);
+      }
+
+      long[] result = new long[nodes.size()];
+
+      for (int i = topologicalOrder.size() - 1; i >= 0; i--) {
+        Node node = topologicalOrder.get(i);
+        long downstreamCost = 0;
+
+        for (int downstreamIndex : downstream[node.index]) {
+          downstreamCost = Math.max(downstreamCost, result[downstreamIndex]);
+        }
+
+        result[node.index] = node.estimatedCost + downstreamCost;
+      }
+
+      return result;
+    }
+
+    private void start() {
+      List<Node> roots = new ArrayList<>();
+
+      for (Node node : nodes) {
+        if (node.upstream.isEmpty()) {
+          roots.add(node);
+        }
+      }
+
+      // so that the executors' own queues also see the critical path first
+      roots.sort(Comparator.comparingLong(node -> -priority[node.index]));
+
+      RejectedExecutionException rejected = null;
+
+      for (Node root : roots) {
+        try {
+          makeReady(root);
+        } catch (RejectedExecutionException e) {
+          // start the other roots before passing it on
+          if (rejected == null) {
+            rejected = e;
+          }
+        }
+      }
+
+      if (rejected != null) {
+        throw rejected;
+      }
+    }
+
+    private void makeReady(Node node) {
+      if (!states.compareAndSet(node.index, NEW, READY)) {
+        // cancelled by a failed dependency
+        return;
+      }
+
+      Queue<Integer> readyQueue = readyQueues.get(node.executor);
+
+      results[node.index].readyMillis = DateTimeUtils.currentTimeMillis();
+      readyQueue.add(node.index);
+
+      try {
+        // runs whichever ready node is first when it gets a thread, not necessarily this one
+        node.executor.execute(() -> runNext(readyQueue));
+      } catch (RejectedExecutionException e) {
+        // a runnable that was accepted may already have taken this node, so fail whichever node
+        // is now one runnable short
+        Integer orphan = readyQueue.poll();
+
+        if (orphan != null) {
+          finish(nodes.get(orphan), e);
+        }
+
+        if (node.rethrowFailures) {
+          throw e;
+        }
+      }
+    }
+
+    private void runNext(Queue<Integer> readyQueue) {
+      Integer index = readyQueue.poll();
+
+      if (index == null) {
+        return;
+      }
+
+      Node node = nodes.get(index);
+      NodeResult result = results[index];
+      Throwable failure = null;
+
+      result.startMillis = DateTimeUtils.currentTimeMillis();
+
+      try {
+        node.task.run();
+      } catch (RuntimeException e) {
+        failure = e;
+
+        if (node.rethrowFailures) {
+          throw e;
+        }
+
+        LOG.warn("task {} failed, cancelling the tasks that depend on it", node.name, e);
+      } catch (Error e) {
+        failure = e;
+
+        throw e;
+      } finally {
+        finish(node, failure);
+      }
+    }
+
+    private void finish(Node node, Throwable failure) {
+      NodeResult result = results[node.index];
+
+      result.endMillis = DateTimeUtils.currentTimeMillis();
+      result.failure = failure;
+      result.status = failure == null ? NodeStatus.SUCCEEDED : NodeStatus.FAILED;
+      states.set(node.index, DONE);
+      finishLatch.countDown();
+
+      for (int downstreamIndex : downstream[node.index]) {
+        if (failure != null) {
+          cancel(downstreamIndex);
+        } else if (remainingUpstream.decrementAndGet(downstreamIndex) == 0) {
+          makeReady(nodes.get(downstreamIndex));
+        }
+      }
+    }
+
+    private void cancel(int index) {
+      if (states.compareAndSet(index, NEW, DONE)) {
+        results[index].status = NodeStatus.CANCELLED;
+        finishLatch.countDown();
+
+        for (int downstreamIndex : downstream[index]) {
+          cancel(downstreamIndex);
+        }
+      }
+    }
+  }
+
+  public static class FinishLatch {
+    private final Run run;
+
+    private FinishLatch(Run run) {
+      this.run = run;
     }
 
     public boolean await(long waitTime, TimeUnit waitTimeUnit) throws InterruptedException {
-      return finishLatch.await(waitTime, waitTimeUnit);
+      return run.finishLatch.await(waitTime, waitTimeUnit);
     }
 
     public void await() throws InterruptedException {
-      finishLatch.await();
+      run.finishLatch.await();
+    }
+
+    /** @return one result per registered task or node, in registration order */
+    public List<NodeResult> getNodeResults() {
+      return Collections.unmodifiableList(Arrays.asList(run.results));
+    }
+
+    /** @return true if any node failed; the nodes downstream of it were cancelled */
+    public boolean hasFailures() {
+      for (NodeResult result : run.results) {
+        if (result.status == NodeStatus.FAILED) {
+          return true;
+        }
+      }
+
+      return false;
+    }
+
+    /**
+     * the chain of nodes that determined when the group finished: starting from the node that
+     * ended last, repeatedly the dependency that ended last. Speeding up any other node would not
+     * have finished the group sooner
+     *
+     * @return nodes in execution order; empty if nothing ran
+     */
+    public List<NodeResult> getCriticalPath() {
+      List<NodeResult> path = new ArrayList<>();
+      NodeResult current = lastToEnd(Arrays.asList(run.results));
+
+      while (current != null) {
+        path.add(current);
+        current = lastToEnd(current.upstream);
+      }
+
+      Collections.reverse(path);
+
+      return path;
+    }
+
+    private static NodeResult lastToEnd(List<NodeResult> results) {
+      NodeResult last = null;
+
+      for (NodeResult result : results) {
+        if (result.endMillis >= 0 && (last == null || result.endMillis > last.endMillis)) {
+          last = result;
+        }
+      }
+
+      return last;
     }
   }
 }
@@ -16,11 +16,10 @@
 package com.facebook.concurrency;
 
 import java.util.Collection;
-import java.util.Collections;
-import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
@@ -33,16 +32,20 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-/** same as UnstoppableExecutorService but for ScheduledExecutorService */
+/**
+ * same as UnstoppableExecutorService but for ScheduledExecutorService. For many short timeouts,
+ * wrap a {@link HashedWheelScheduledExecutorService}
+ */
 public class UnstoppableScheduledExecutorService implements ScheduledExecutorService {
   private static final Logger LOG =
       LoggerFactory.getLogger(UnstoppableScheduledExecutorService.class);
 
   private final UnstoppableExecutorServiceCore executorCore;
   private final ScheduledExecutorService executor;
-  // guarded by: shutdownLock
-  private final Map<ScheduledFuture<?>, ScheduledFuture<?>> outstandingScheduledTasks =
-      Collections.synchronizedMap(new IdentityHashMap());
+  // futures don't override equals(), so this is an identity set. Cancelled futures are removed
+  // right away, so it only holds tasks that may still run
+  private final Set<ScheduledFuture<?>> outstandingScheduledTasks =
+      ConcurrentHashMap.newKeySet();
   // this lock is used to make sure that nothing can be put into
   // outstandingScheduledTasks after shutdown
   private final ReadWriteLock shutdownLock = new ReentrantReadWriteLock();
@@ -69,7 +72,8 @@ public class UnstoppableScheduledExecutorService implements ScheduledExecutorSer
       BookkeepingTask task = new BookkeepingTask<Void>(trackedTask);
       // this will track if the task is cancelled
       ScheduledFuture<?> scheduledFuture =
-          executorCore.trackScheduledFuture(callback.submit(task), trackedTask);
+          new UntrackOnCancelFuture<>(
+              executorCore.trackScheduledFuture(callback.submit(task), trackedTask));
 
       task.openGate(scheduledFuture);
 
@@ -88,7 +92,8 @@ public class UnstoppableScheduledExecutorService implements ScheduledExecutorSer
       TrackedCallable<V> trackedTask = executorCore.registerTask(callable);
       BookkeepingTask task = new BookkeepingTask<>(trackedTask);
       ScheduledFuture<V> scheduledFuture =
-          executorCore.trackScheduledFuture(callback.submit(task), trackedTask);
+          new UntrackOnCancelFuture<>(
+              executorCore.trackScheduledFuture(callback.submit(task), trackedTask));
 
       task.openGate(scheduledFuture);
 
@@ -100,9 +105,8 @@ public class UnstoppableScheduledExecutorService implements ScheduledExecutorSer
 
   // cancel any scheduled tasks
   private void cancelPendingTasks() {
-    for (IdentityHashMap.Entry<ScheduledFuture<?>, ScheduledFuture<?>> entry :
-        outstandingScheduledTasks.entrySet()) {
-      entry.getValue().cancel(false);
+    for (ScheduledFuture<?> future : outstandingScheduledTasks) {
+      future.cancel(false);
     }
   }
 
@@ -202,9 +206,7 @@ public class UnstoppableScheduledExecutorService implements ScheduledExecutorSer
 
   @Override
   public List<Runnable> shutdownNow() {
-    // this blocks any internalSchedule*() calls until we shutdown the core.
-    // it also blocks remove on outstandingScheduledTasks to avoid a
-    // ConcurrentModificationException
+    // this blocks any internalSchedule*() calls until we shutdown the core
     shutdownLock.writeLock().lock();
 
     try {
@@ -263,7 +265,7 @@ public class UnstoppableScheduledExecutorService implements ScheduledExecutorSer
      */
     public void openGate(ScheduledFuture<V> future) {
       this.future = future;
-      outstandingScheduledTasks.put(future, future);
+      outstandingScheduledTasks.add(future);
       gate.countDown();
     }
 
@@ -289,14 +291,7 @@ public class UnstoppableScheduledExecutorService implements ScheduledExecutorSer
     }
 
     private void cleanup() {
-      // we can't modify outstandingScheduledTasks while we're shutting down
-      shutdownLock.readLock().lock();
-
-      try {
-        outstandingScheduledTasks.remove(future);
-      } finally {
-        shutdownLock.readLock().unlock();
-      }
+      outstandingScheduledTasks.remove(future);
     }
 
     @Override
@@ -314,6 +309,22 @@ public class UnstoppableScheduledExecutorService implements ScheduledExecutorSer
     }
   }
 
+  /** stops tracking a task as soon as it is cancelled, instead of at shutdown */
+  private class UntrackOnCancelFuture<V> extends WrappedScheduledFuture<V> {
+    private UntrackOnCancelFuture(ScheduledFuture<V> delegate) {
+      super(delegate);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      boolean cancelled = super.cancel(mayInterruptIfRunning);
+
+      outstandingScheduledTasks.remove(this);
+
+      return cancelled;
+    }
+  }
+
   private interface RunnableCallback<V> {
     public ScheduledFuture<?> submit(Runnable task);
   }
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.concurrency;
+
+import com.facebook.logging.Logger;
+import com.facebook.logging.LoggerImpl;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * creates executors that start a new virtual thread for every task, for I/O-bound work that would
+ * otherwise need thousands of platform threads. Bound the concurrency some other way, e.g. with a
+ * thread-per-task {@link ParallelRunner}.
+ *
+ * <p>Virtual threads are looked up reflectively so this compiles for older JDKs. Where they are
+ * missing (before Java 21, or 19/20 without --enable-preview), create() falls back to a cached pool
+ * of daemon platform threads, which runs tasks the same way but with a thread per concurrent task.
+ */
+public class VirtualThreadExecutorServiceFactory
+    implements ExecutorServiceFactory<ExecutorService> {
+  private static final Logger LOG =
+      LoggerImpl.getLogger(VirtualThreadExecutorServiceFactory.class);
+  private static final boolean SUPPORTED = probe();
+
+  private final String threadNamePrefix;
+
+  /** @param threadNamePrefix threads are named threadNamePrefix-0, threadNamePrefix-1, ... */
+  public VirtualThreadExecutorServiceFactory(String threadNamePrefix) {
+    this.threadNamePrefix = threadNamePrefix;
+  }
+
+  /** @return true if this JVM has virtual threads, so create() will not fall back */
+  public static boolean isSupported() {
+    return SUPPORTED;
+  }
+
+  @Override
+  public ExecutorService create() {
+    ExecutorService executor = SUPPORTED ? newVirtualThreadExecutor(threadNamePrefix + "-") : null;
+
+    if (executor == null) {
+      executor = Executors.newCachedThreadPool(new NamedDaemonThreadFactory(threadNamePrefix));
+    }
+
+    return executor;
+  }
+
+  private static boolean probe() {
+    ExecutorService executor = newVirtualThreadExecutor("probe-");
+
+    if (executor == null) {
+      return false;
+    }
+
+    executor.shutdown();
+
+    return true;
+  }
+
+  /**
+   * Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(namePrefix, 0).factory())
+   *
+   * @return null if virtual threads are not available
+   */
+  private static ExecutorService newVirtualThreadExecutor(String namePrefix) {
+    try {
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+
+      builder =
+          builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+
+      ThreadFactory threadFactory =
+          (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+
+      return (ExecutorService)
+          Executors.class
+              .getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+              .invoke(null, threadFactory);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // preview builds throw UnsupportedOperationException, wrapped in the
+      // InvocationTargetException
+      LOG.debug(e, "virtual threads not available");
+
+      return null;
+    }
+  }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.concurrency;
+
+/**
+ * computes the relative size of a cache entry for caches bounded by total weight
+ *
+ * @param <K>
+ * @param <V>
+ */
+public interface Weigher<K, V> {
+  /**
+   * @param key
+   * @param value may be null if null was produced
+   * @return weight of the entry, must be >= 0. Entries are weighed once, when inserted
+   */
+  int weigh(K key, V value);
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.concurrency.linearization;
+
+import com.google.common.base.Preconditions;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * per-key version of {@link Linearizer}: tasks submitted for the same key run one at a time, in
+ * submission order, while tasks for different keys run in parallel on a shared executor.
+ *
+ * <pre>{@code
+ * KeyedLinearizer<Long> linearizer = new KeyedLinearizer<>(executor);
+ *
+ * linearizer.execute(userId, () -> applyUpdate(userId, update));
+ * }</pre>
+ *
+ * <p>Each key with pending tasks has a lock-free queue and at most one drainer task on the executor;
+ * no thread is tied to a key. Once a key's queue runs dry it is dropped, so memory is proportional
+ * to the keys with work pending, not to every key ever seen. A drainer runs at most
+ * MAX_TASKS_PER_RUN tasks before going to the back of the executor's queue, so a busy key cannot
+ * hold on to a thread.
+ */
+public class KeyedLinearizer<K> {
+  private static final Logger LOG = LoggerFactory.getLogger(KeyedLinearizer.class);
+  static final int MAX_TASKS_PER_RUN = 64;
+  private static final int RETIRED = Integer.MIN_VALUE;
+
+  private final ConcurrentMap<K, SerialQueue> queues = new ConcurrentHashMap<>();
+  private final Executor executor;
+
+  public KeyedLinearizer(Executor executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * runs task after every task previously submitted for key. Task failures are logged and do not
+   * stop later tasks for the key.
+   *
+   * @throws RejectedExecutionException if the executor rejects the key's drainer. The task stays
+   *     queued and runs once the next task for the key gets a drainer started
+   */
+  public void execute(K key, Runnable task) {
+    Preconditions.checkNotNull(key, "key is null");
+    Preconditions.checkNotNull(task, "task is null");
+
+    while (true) {
+      SerialQueue queue = queues.get(key);
+
+      if (queue == null) {
+        SerialQueue newQueue = new SerialQueue(key);
+
+        queue = queues.putIfAbsent(key, newQueue);
+
+        if (queue == null) {
+          queue = newQueue;
+        }
+      }
+
+      if (queue.reserve()) {
+        queue.add(task);
+
+        return;
+      }
+
+      // retired by its last drainer; make sure it is gone and start a new one
+      queues.remove(key, queue);
+    }
+  }
+
+  /** @return executor whose tasks all run serially under key */
+  public Executor forKey(K key) {
+    return task -> execute(key, task);
+  }
+
+  /** @return number of keys with tasks queued or running */
+  public int getActiveKeyCount() {
+    return queues.size();
+  }
+
+  private class SerialQueue implements Runnable {
+    private final K key;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    // tasks reserved but not yet run, or RETIRED once removed from the map
+    private final AtomicInteger pending = new AtomicInteger(0);
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    private SerialQueue(K key) {
+      this.key = key;
+    }
+
+    private boolean reserve() {
+      while (true) {
+        int count = pending.get();
+
+        if (count == RETIRED) {
+          return false;
+        }
+
+        if (pending.compareAndSet(count, count + 1)) {
+          return true;
+        }
+      }
+    }
+
+    private void add(Runnable task) {
+      tasks.add(task);
+
+      if (scheduled.compareAndSet(false, true)) {
+        try {
+          executor.execute(this);
+        } catch (RejectedExecutionException e) {
+          scheduled.set(false);
+
+          throw e;
+        }
+      }
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        for (int i = 0; i < MAX_TASKS_PER_RUN; i++) {
+          Runnable task = tasks.poll();
+
+          if (task == null) {
+            break;
+          }
+
+          try {
+            task.run();
+          } catch (RuntimeException e) {
+            LOG.warn("Ignoring Task Failure", e);
+          } finally {
+            pending.decrementAndGet();
+          }
+        }
+
+        // clear the flag before looking at the queue: a task added after the check sees the flag
+        // cleared and starts a drainer itself
+        scheduled.set(false);
+
+        if (tasks.isEmpty() || !scheduled.compareAndSet(false, true)) {
+          break;
+        }
+
+        try {
+          executor.execute(this);
+
+          return;
+        } catch (RejectedExecutionException e) {
+          // we are already on a thread; keep going here
+          LOG.debug("executor rejected drainer for key {}, continuing inline", key);
+        }
+      }
+
+      // tasks reserved but not yet added keep pending above 0, so this only succeeds when there is
+      // nothing left to run
+      if (pending.compareAndSet(0, RETIRED)) {
+        queues.remove(key, this);
+      }
+    }
+  }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.concurrency;
+
+import com.facebook.stats.mx.Stats;
+import com.facebook.testing.MockExecutor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TestAdaptiveConcurrencyLimiter {
+  private static final long FAST_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+  private static final long SLOW_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  private Stats stats;
+
+  @BeforeMethod(alwaysRun = true)
+  public void setUp() throws Exception {
+    stats = new Stats();
+  }
+
+  @Test(groups = "fast")
+  public void testAimd() throws Exception {
+    AdaptiveConcurrencyLimiter limiter =
+        new AdaptiveConcurrencyLimiter(4, 2, 10, 10, TimeUnit.MILLISECONDS, 0.5, stats, "test");
+
+    // fast tasks grow the limit while it is in use; the last permits of a round do not count
+    for (int round = 0; round < 3; round++) {
+      for (int i = 0; i < 4; i++) {
+        Assert.assertTrue(limiter.tryAcquire());
+      }
+
+      for (int i = 0; i < 4; i++) {
+        limiter.release(FAST_NANOS, true);
+      }
+    }
+
+    Assert.assertEquals(limiter.getLimit(), 5);
+    Assert.assertEquals(stats.getCounter("test.limit"), 5);
+
+    // one slow task halves the limit; more right behind it do not
+    for (int i = 0; i < 3; i++) {
+      Assert.assertTrue(limiter.tryAcquire());
+    }
+
+    limiter.release(SLOW_NANOS, true);
+    Assert.assertEquals(limiter.getLimit(), 2);
+    limiter.release(SLOW_NANOS, true);
+    limiter.release(0, false);
+    Assert.assertEquals(limiter.getLimit(), 2);
+    Assert.assertEquals(limiter.getInFlight(), 0);
+  }
+
+  @Test(groups = "fast")
+  public void testIdleLimitDoesNotGrow() throws Exception {
+    AdaptiveConcurrencyLimiter limiter =
+        new AdaptiveConcurrencyLimiter(4, 1, 10, 10, TimeUnit.MILLISECONDS, stats, "test");
+
+    for (int i = 0; i < 100; i++) {
+      Assert.assertTrue(limiter.tryAcquire());
+      limiter.release(FAST_NANOS, true);
+    }
+
+    Assert.assertEquals(limiter.getLimit(), 4);
+  }
+
+  @Test(groups = "fast")
+  public void testTryAcquireRejects() throws Exception {
+    AdaptiveConcurrencyLimiter limiter =
+        new AdaptiveConcurrencyLimiter(1, 1, 1, 10, TimeUnit.MILLISECONDS, stats, "test");
+
+    Assert.assertTrue(limiter.tryAcquire());
+    Assert.assertFalse(limiter.tryAcquire());
+    Assert.assertFalse(limiter.acquire(1, TimeUnit.MILLISECONDS));
+    Assert.assertEquals(stats.getCounter("test.in_flight"), 1);
+    Assert.assertEquals(limiter.getRejected().getAllTimeSum(), 2);
+  }
+
+  @Test(groups = "fast")
+  public void testExecutorQueuesAndSheds() throws Exception {
+    MockExecutor mockExecutor = new MockExecutor();
+    AdaptiveConcurrencyLimiter limiter =
+        new AdaptiveConcurrencyLimiter(2, 1, 2, 10, TimeUnit.MILLISECONDS, stats, "test");
+    AdaptiveConcurrencyExecutorService executor =
+        new AdaptiveConcurrencyExecutorService(mockExecutor, limiter, 1);
+    AtomicInteger completed = new AtomicInteger(0);
+
+    executor.execute(completed::incrementAndGet);
+    executor.execute(completed::incrementAndGet);
+    executor.execute(completed::incrementAndGet);
+    Assert.assertEquals(mockExecutor.getNumPendingTasks(), 2);
+    Assert.assertEquals(executor.getQueueSize(), 1);
+
+    try {
+      executor.execute(completed::incrementAndGet);
+      Assert.fail("expected RejectedExecutionException");
+    } catch (RejectedExecutionException e) {
+      Assert.assertEquals(limiter.getRejected().getAllTimeSum(), 1);
+    }
+
+    // a completion hands its permit to the queued task
+    mockExecutor.removeHead().run();
+    Assert.assertEquals(executor.getQueueSize(), 0);
+    mockExecutor.drain();
+    Assert.assertEquals(completed.get(), 3);
+    Assert.assertEquals(limiter.getInFlight(), 0);
+  }
+
+  @Test(groups = "fast")
+  public void testExecutorWithoutQueue() throws Exception {
+    MockExecutor mockExecutor = new MockExecutor();
+    AdaptiveConcurrencyLimiter limiter =
+        new AdaptiveConcurrencyLimiter(1, 1, 1, 10, TimeUnit.MILLISECONDS, stats, "test");
+    AdaptiveConcurrencyExecutorService executor =
+        new AdaptiveConcurrencyExecutorService(mockExecutor, limiter, 0);
+
+    executor.execute(NoOp.INSTANCE);
+
+    try {
+      executor.execute(NoOp.INSTANCE);
+      Assert.fail("expected RejectedExecutionException");
+    } catch (RejectedExecutionException e) {
+      // expected
+    }
+  }
+
+  @Test(groups = "fast")
+  public void testParallelRunner() throws Exception {
+    ExecutorService pool = Executors.newCachedThreadPool();
+    AdaptiveConcurrencyLimiter limiter =
+        new AdaptiveConcurrencyLimiter(2, 2, 2, 1, TimeUnit.SECONDS, stats, "test");
+    AtomicInteger running = new AtomicInteger(0);
+    AtomicInteger maxRunning = new AtomicInteger(0);
+    List<Runnable> tasks = new ArrayList<>();
+
+    for (int i = 0; i < 20; i++) {
+      tasks.add(
+          limiter.wrap(
+              () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+
+                try {
+                  Thread.sleep(5);
+                } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                }
+
+                running.decrementAndGet();
+              }));
+    }
+
+    try {
+      new ParallelRunner(pool).parallelRun(tasks, 6);
+    } finally {
+      pool.shutdownNow();
+    }
+
+    Assert.assertEquals(maxRunning.get(), 2);
+    Assert.assertEquals(limiter.getInFlight(), 0);
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.concurrency;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TestAsyncConcurrentCache {
+  private List<CompletableFuture<String>> loads;
+  private AsyncConcurrentCache<String, String> cache;
+
+  @BeforeMethod(alwaysRun = true)
+  public void setUp() throws Exception {
+    loads = new ArrayList<>();
+    cache =
+        new AsyncConcurrentCache<>(
+            input -> {
+              if (input.equals("throw")) {
+                throw new IllegalArgumentException(input);
+              }
+
+              CompletableFuture<String> future = new CompletableFuture<>();
+
+              loads.add(future);
+
+              return future;
+            });
+  }
+
+  @Test(groups = "fast")
+  public void testInFlightLoadShared() throws Exception {
+    CompletableFuture<String> future1 = cache.get("a");
+    CompletableFuture<String> future2 = cache.get("a");
+
+    // nothing blocks while the load is outstanding
+    Assert.assertFalse(future1.isDone());
+    Assert.assertFalse(future2.isDone());
+    Assert.assertEquals(loads.size(), 1);
+
+    loads.get(0).complete("A");
+
+    Assert.assertEquals(future1.get(), "A");
+    Assert.assertEquals(future2.get(), "A");
+    Assert.assertEquals(cache.get("a").get(), "A");
+    Assert.assertEquals(loads.size(), 1);
+  }
+
+  @Test(groups = "fast")
+  public void testFailureCachedUntilRemoveIfError() throws Exception {
+    cache.get("a");
+
+    Assert.assertFalse(cache.removeIfError("a"), "in-flight load removed");
+
+    loads.get(0).completeExceptionally(new IllegalStateException("boom"));
+
+    try {
+      cache.get("a").get();
+      Assert.fail("expected exception");
+    } catch (ExecutionException e) {
+      Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+
+    Assert.assertEquals(loads.size(), 1);
+    Assert.assertTrue(cache.get("a").isCompletedExceptionally());
+    Assert.assertTrue(cache.removeIfError("a"));
+    Assert.assertFalse(cache.get("a").isDone());
+    Assert.assertEquals(loads.size(), 2);
+  }
+
+  @Test(groups = "fast")
+  public void testFactoryThrows() throws Exception {
+    CompletableFuture<String> future = cache.get("throw");
+
+    Assert.assertTrue(future.isCompletedExceptionally());
+    Assert.assertEquals(cache.size(), 1);
+  }
+
+  @Test(groups = "fast")
+  public void testPutRemoveGetIfPresent() throws Exception {
+    Assert.assertNull(cache.getIfPresent("a"));
+    Assert.assertNull(cache.put("a", "value"));
+    Assert.assertEquals(cache.getIfPresent("a").get(), "value");
+    Assert.assertEquals(cache.get("a").get(), "value");
+    Assert.assertEquals(cache.remove("a").get(), "value");
+    Assert.assertNull(cache.remove("a"));
+    Assert.assertEquals(loads.size(), 0);
+
+    cache.get("b");
+    cache.clear();
+    Assert.assertEquals(cache.size(), 0);
+  }
+
+  @Test(groups = "fast")
+  public void testCallersCannotCompleteSharedFuture() throws Exception {
+    CompletableFuture<String> cancelled = cache.get("a");
+    CompletableFuture<String> completed = cache.get("a");
+    CompletableFuture<String> waiting = cache.getIfPresent("a");
+
+    Assert.assertTrue(cancelled.cancel(true));
+    Assert.assertTrue(completed.complete("bogus"));
+    Assert.assertFalse(waiting.isDone());
+    Assert.assertFalse(cache.get("a").isDone());
+
+    loads.get(0).complete("A");
+
+    Assert.assertEquals(waiting.get(), "A");
+    Assert.assertEquals(cache.get("a").get(), "A");
+    Assert.assertEquals(loads.size(), 1);
+  }
+
+  @Test(groups = "fast")
+  public void testRemovedLoadCannotBeCompletedByCaller() throws Exception {
+    CompletableFuture<String> waiting = cache.get("a");
+    CompletableFuture<String> removed = cache.remove("a");
+
+    Assert.assertTrue(removed.cancel(true));
+    Assert.assertFalse(waiting.isDone());
+
+    loads.get(0).complete("A");
+
+    Assert.assertEquals(waiting.get(), "A");
+  }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.concurrency;
+
+import com.facebook.stats.mx.Stats;
+import com.facebook.testing.MockExecutor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TestBatchingExecutor {
+  private MockExecutor executor;
+  private MockExecutor scheduler;
+  private Stats stats;
+  private List<List<String>> batches;
+
+  @BeforeMethod(alwaysRun = true)
+  public void setUp() throws Exception {
+    executor = new MockExecutor();
+    scheduler = new MockExecutor();
+    stats = new Stats();
+    batches = Collections.synchronizedList(new ArrayList<>());
+  }
+
+  @Test(groups = "fast")
+  public void testSizeAndTimeTriggers() throws Exception {
+    BatchingExecutor<String> batchingExecutor =
+        new BatchingExecutor<>(
+            batches::add, executor, scheduler, 3, 1, TimeUnit.SECONDS, 100, 1, stats, "test");
+
+    for (int i = 0; i < 7; i++) {
+      batchingExecutor.add("item" + i);
+    }
+
+    executor.drain();
+    Assert.assertEquals(
+        batches,
+        Arrays.asList(
+            Arrays.asList("item0", "item1", "item2"), Arrays.asList("item3", "item4", "item5")));
+    Assert.assertEquals(batchingExecutor.getPendingItems(), 1);
+
+    // the timeouts of the full batches do nothing; the last one closes the partial batch
+    scheduler.drain();
+    executor.drain();
+    Assert.assertEquals(batches.get(2), Arrays.asList("item6"));
+    Assert.assertEquals(batchingExecutor.getPendingItems(), 0);
+    Assert.assertEquals(stats.getRate("test.items").getAllTimeSum(), 7);
+    Assert.assertEquals(stats.getDistribution("test.batch_size").getAllTime().getCount(), 3.0);
+  }
+
+  @Test(groups = "fast")
+  public void testByteTrigger() throws Exception {
+    BatchingExecutor<String> batchingExecutor =
+        new BatchingExecutor<>(
+            batches::add,
+            executor,
+            scheduler,
+            100,
+            10,
+            String::length,
+            1,
+            TimeUnit.SECONDS,
+            100,
+            1,
+            stats,
+            "test");
+
+    batchingExecutor.add("aaaa");
+    batchingExecutor.add("bbbb");
+    batchingExecutor.add("cc");
+    batchingExecutor.add("ddddd");
+    // would take the batch over 10 bytes, so it starts a new one
+    batchingExecutor.add("eeeeee");
+    // bigger than a whole batch: gets one of its own
+    batchingExecutor.add("ffffffffffff");
+    batchingExecutor.flush();
+    executor.drain();
+
+    Assert.assertEquals(
+        batches,
+        Arrays.asList(
+            Arrays.asList("aaaa", "bbbb", "cc"),
+            Arrays.asList("ddddd"),
+            Arrays.asList("eeeeee"),
+            Arrays.asList("ffffffffffff")));
+  }
+
+  @Test(groups = "fast")
+  public void testBackpressure() throws Exception {
+    BatchingExecutor<String> batchingExecutor =
+        new BatchingExecutor<>(
+            batches::add, executor, scheduler, 2, 1, TimeUnit.SECONDS, 2, 1, stats, "test");
+
+    Assert.assertTrue(batchingExecutor.tryAdd("a"));
+    Assert.assertTrue(batchingExecutor.tryAdd("b"));
+    Assert.assertFalse(batchingExecutor.tryAdd("c"));
+    Assert.assertEquals(stats.getCounter("test.pending"), 2);
+
+    executor.drain();
+
+    Assert.assertTrue(batchingExecutor.tryAdd("c"));
+    Assert.assertEquals(batches, Arrays.asList(Arrays.asList("a", "b")));
+  }
+
+  @Test(groups = "fast")
+  public void testParallelDispatch() throws Exception {
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    AtomicInteger running = new AtomicInteger(0);
+    AtomicInteger maxRunning = new AtomicInteger(0);
+    CountDownLatch release = new CountDownLatch(1);
+
+    try {
+      BatchingExecutor<String> batchingExecutor =
+          new BatchingExecutor<>(
+              batch -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                release.await();
+                running.decrementAndGet();
+              },
+              pool,
+              scheduler,
+              1,
+              1,
+              TimeUnit.SECONDS,
+              10,
+              2,
+              stats,
+              "test");
+
+      for (int i = 0; i < 5; i++) {
+        batchingExecutor.add("item" + i);
+      }
+
+      // give the pool time to pick up more batches than allowed, if it could
+      Thread.sleep(100);
+      release.countDown();
+
+      Assert.assertTrue(batchingExecutor.awaitDrained(5, TimeUnit.SECONDS));
+      Assert.assertEquals(maxRunning.get(), 2);
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test(groups = "fast")
+  public void testFailureAndShutdown() throws Exception {
+    BatchingExecutor<String> batchingExecutor =
+        new BatchingExecutor<>(
+            batch -> {
+              throw new Exception("fail");
+            },
+            executor,
+            scheduler,
+            10,
+            1,
+            TimeUnit.SECONDS,
+            100,
+            1,
+            stats,
+            "test");
+
+    batchingExecutor.add("a");
+    batchingExecutor.shutdown();
+    executor.drain();
+
+    Assert.assertEquals(stats.getRate("test.failed_batches").getAllTimeSum(), 1);
+    Assert.assertEquals(batchingExecutor.getPendingItems(), 0);
+
+    try {
+      batchingExecutor.add("b");
+      Assert.fail("expected RejectedExecutionException");
+    } catch (RejectedExecutionException e) {
+      // expected
+    }
+  }
+}
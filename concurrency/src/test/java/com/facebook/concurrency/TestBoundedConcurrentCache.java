@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.concurrency;
+
+import com.facebook.collections.Pair;
+import com.facebook.testing.MockExecutor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TestBoundedConcurrentCache extends AbstractTestConcurrentCache {
+  private List<Pair<String, String>> evicted;
+  private BoundedConcurrentCache<String, String, RuntimeException> boundedCache;
+
+  @Override
+  protected ConcurrentCache<String, String, RuntimeException> createCache(
+      ValueFactory<String, String, RuntimeException> valueFactory) {
+    return new BoundedConcurrentCache<>(
+        valueFactory, 1000, (key, value) -> {}, RuntimeExceptionHandler.INSTANCE);
+  }
+
+  @BeforeMethod(alwaysRun = true)
+  public void setUpBounded() throws Exception {
+    evicted = Collections.synchronizedList(new ArrayList<>());
+    boundedCache =
+        new BoundedConcurrentCache<>(
+            input -> input,
+            100,
+            (key, value) -> 1,
+            (key, value) -> evicted.add(new Pair<>(key, value)),
+            RuntimeExceptionHandler.INSTANCE,
+            Runnable::run);
+  }
+
+  @Test(groups = "fast")
+  public void testCountBound() throws Exception {
+    for (int i = 0; i < 1000; i++) {
+      Assert.assertEquals(boundedCache.get("key" + i), "key" + i);
+    }
+
+    boundedCache.prune();
+
+    Assert.assertEquals(boundedCache.size(), 100);
+    Assert.assertEquals(boundedCache.weightedSize(), 100);
+    Assert.assertEquals(evicted.size(), 900);
+
+    for (Pair<String, String> pair : evicted) {
+      Assert.assertEquals(pair.getFirst(), pair.getSecond());
+      Assert.assertNull(boundedCache.getIfPresent(pair.getFirst()));
+    }
+  }
+
+  @Test(groups = "fast")
+  public void testFrequentKeysSurviveScan() throws Exception {
+    List<String> hotKeys = new ArrayList<>();
+
+    for (int i = 0; i < 50; i++) {
+      hotKeys.add("hot" + i);
+    }
+
+    for (int round = 0; round < 5; round++) {
+      for (String hotKey : hotKeys) {
+        boundedCache.get(hotKey);
+      }
+
+      boundedCache.prune();
+    }
+
+    // a scan of one-hit wonders, each much less frequent than the hot keys
+    for (int i = 0; i < 10000; i++) {
+      boundedCache.get("cold" + i);
+    }
+
+    boundedCache.prune();
+
+    int hotPresent = 0;
+
+    for (String hotKey : hotKeys) {
+      if (boundedCache.getIfPresent(hotKey) != null) {
+        hotPresent++;
+      }
+    }
+
+    Assert.assertEquals(boundedCache.size(), 100);
+    Assert.assertTrue(hotPresent >= 45, "only " + hotPresent + " hot keys survived");
+  }
+
+  @Test(groups = "fast")
+  public void testWeightBound() throws Exception {
+    BoundedConcurrentCache<String, String, RuntimeException> weightedCache =
+        new BoundedConcurrentCache<>(
+            input -> input,
+            100,
+            (key, value) -> value.length(),
+            (key, value) -> evicted.add(new Pair<>(key, value)),
+            RuntimeExceptionHandler.INSTANCE,
+            Runnable::run);
+
+    for (int i = 0; i < 100; i++) {
+      weightedCache.get(String.format("%010d", i));
+    }
+
+    weightedCache.prune();
+
+    Assert.assertEquals(weightedCache.size(), 10);
+    Assert.assertEquals(weightedCache.weightedSize(), 100);
+    Assert.assertEquals(evicted.size(), 90);
+  }
+
+  @Test(groups = "fast")
+  public void testExplicitRemovalsReleaseWeight() throws Exception {
+    for (int i = 0; i < 50; i++) {
+      boundedCache.get("key" + i);
+    }
+
+    Assert.assertEquals(boundedCache.remove("key0"), "key0");
+    Assert.assertEquals(boundedCache.put("key1", "other"), "key1");
+    Assert.assertNull(boundedCache.put("new", "value"));
+    boundedCache.prune();
+
+    Assert.assertEquals(boundedCache.size(), 50);
+    Assert.assertEquals(boundedCache.weightedSize(), 50);
+    Assert.assertEquals(boundedCache.get("key1"), "other");
+
+    boundedCache.clear();
+
+    Assert.assertEquals(boundedCache.size(), 0);
+    Assert.assertEquals(boundedCache.weightedSize(), 0);
+    Assert.assertTrue(evicted.isEmpty());
+  }
+
+  @Test(groups = "fast")
+  public void testMaintenanceOnExecutor() throws Exception {
+    MockExecutor executor = new MockExecutor();
+    BoundedConcurrentCache<String, String, RuntimeException> cache =
+        new BoundedConcurrentCache<>(
+            input -> input,
+            10,
+            (key, value) -> 1,
+            (key, value) -> evicted.add(new Pair<>(key, value)),
+            RuntimeExceptionHandler.INSTANCE,
+            executor);
+
+    for (int i = 0; i < 20; i++) {
+      cache.get("key" + i);
+    }
+
+    // nothing evicted on the request path
+    Assert.assertEquals(cache.size(), 20);
+    Assert.assertTrue(executor.getNumPendingTasks() > 0);
+    executor.drain();
+    Assert.assertEquals(cache.size(), 10);
+    Assert.assertEquals(evicted.size(), 10);
+  }
+
+  @Test(groups = "fast")
+  public void testDefaultMaintenanceOffRequestThread() throws Exception {
+    Set<Thread> listenerThreads = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    BoundedConcurrentCache<String, String, RuntimeException> cache =
+        new BoundedConcurrentCache<>(
+            input -> input,
+            10,
+            (key, value) -> listenerThreads.add(Thread.currentThread()),
+            RuntimeExceptionHandler.INSTANCE);
+
+    for (int i = 0; i < 100; i++) {
+      cache.get("key" + i);
+    }
+
+    long deadline = System.currentTimeMillis() + 5000;
+
+    while (cache.size() > 10 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(1);
+    }
+
+    Assert.assertEquals(cache.size(), 10);
+    Assert.assertFalse(listenerThreads.isEmpty());
+    Assert.assertFalse(listenerThreads.contains(Thread.currentThread()));
+  }
+
+  @Test(groups = "fast")
+  public void testClearDuringLoad() throws Exception {
+    AtomicReference<BoundedConcurrentCache<String, String, RuntimeException>> cacheRef =
+        new AtomicReference<>();
+    BoundedConcurrentCache<String, String, RuntimeException> cache =
+        new BoundedConcurrentCache<>(
+            input -> {
+              if (input.equals("cleared")) {
+                cacheRef.get().clear();
+              }
+
+              return input;
+            },
+            10,
+            (key, value) -> 1,
+            (key, value) -> evicted.add(new Pair<>(key, value)),
+            RuntimeExceptionHandler.INSTANCE,
+            Runnable::run);
+
+    cacheRef.set(cache);
+
+    // the load finishes after clear() dropped its placeholder, so it is never mapped
+    Assert.assertEquals(cache.get("cleared"), "cleared");
+    cache.prune();
+    Assert.assertEquals(cache.size(), 0);
+    Assert.assertEquals(cache.weightedSize(), 0);
+
+    for (int i = 0; i < 10; i++) {
+      cache.get("key" + i);
+    }
+
+    cache.prune();
+
+    // no weight is held for the unmapped node, so nothing live is evicted
+    Assert.assertEquals(cache.size(), 10);
+    Assert.assertEquals(cache.weightedSize(), 10);
+    Assert.assertTrue(evicted.isEmpty(), evicted.toString());
+  }
+}
@@ -15,11 +15,168 @@
  */
 package com.facebook.concurrency;
 
+import static com.facebook.testing.TestUtils.waitUntilThreadBlocks;
+
+import com.google.common.collect.ImmutableMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
 public class TestCoreConcurrentCache extends AbstractTestConcurrentCache {
+  private List<Collection<String>> batches;
+  private AtomicInteger singleCreates;
+  private CountDownLatch createAllLatch;
+  private CoreConcurrentCache<String, String, RuntimeException> bulkCache;
 
   @Override
   protected ConcurrentCache<String, String, RuntimeException> createCache(
       ValueFactory<String, String, RuntimeException> valueFactory) {
     return new CoreConcurrentCache<>(valueFactory, RuntimeExceptionHandler.INSTANCE);
   }
+
+  @BeforeMethod(alwaysRun = true)
+  public void setUpBulk() throws Exception {
+    batches = Collections.synchronizedList(new ArrayList<>());
+    singleCreates = new AtomicInteger();
+    createAllLatch = new CountDownLatch(0);
+    bulkCache =
+        new CoreConcurrentCache<>(
+            new BulkValueFactory<String, String, RuntimeException>() {
+              @Override
+              public Map<String, String> createAll(Collection<String> inputs) {
+                batches.add(inputs);
+
+                try {
+                  createAllLatch.await();
+                } catch (InterruptedException e) {
+                  throw new RuntimeException(e);
+                }
+
+                Map<String, String> values = new HashMap<>();
+
+                for (String input : inputs) {
+                  if (input.startsWith("fail")) {
+                    throw new IllegalStateException("failed on " + input);
+                  }
+
+                  // "skip" keys are left for create()
+                  if (!input.startsWith("skip")) {
+                    values.put(input, input.toUpperCase());
+                  }
+                }
+
+                return values;
+              }
+
+              @Override
+              public String create(String input) {
+                singleCreates.incrementAndGet();
+
+                return input.toUpperCase();
+              }
+            },
+            RuntimeExceptionHandler.INSTANCE);
+  }
+
+  @Test(groups = "fast")
+  public void testGetAllLoadsMissingKeysInOneBatch() throws Exception {
+    Assert.assertEquals(bulkCache.get("a"), "A");
+    Assert.assertEquals(singleCreates.get(), 1);
+
+    Map<String, String> values = bulkCache.getAll(Arrays.asList("c", "a", "b", "c"));
+
+    Assert.assertEquals(values, ImmutableMap.of("c", "C", "a", "A", "b", "B"));
+    Assert.assertEquals(new ArrayList<>(values.keySet()), Arrays.asList("c", "a", "b"));
+    Assert.assertEquals(batches, Collections.singletonList(Arrays.asList("c", "b")));
+    Assert.assertEquals(bulkCache.size(), 3);
+
+    // everything is cached now
+    bulkCache.getAll(Arrays.asList("a", "b", "c"));
+    Assert.assertEquals(batches.size(), 1);
+    Assert.assertEquals(singleCreates.get(), 1);
+  }
+
+  @Test(groups = "fast")
+  public void testKeysLeftOutOfBatchCreatedIndividually() throws Exception {
+    Assert.assertEquals(
+        bulkCache.getAll(Arrays.asList("a", "skip")), ImmutableMap.of("a", "A", "skip", "SKIP"));
+    Assert.assertEquals(batches.size(), 1);
+    Assert.assertEquals(singleCreates.get(), 1);
+  }
+
+  @Test(groups = "fast")
+  public void testBatchFailureCachedPerKey() throws Exception {
+    try {
+      bulkCache.getAll(Arrays.asList("a", "fail"));
+      Assert.fail("expected exception");
+    } catch (RuntimeException e) {
+      Assert.assertTrue(e.getMessage().contains("failed on fail"), e.getMessage());
+    }
+
+    // the other key in the batch sees the same failure, without another load
+    try {
+      bulkCache.get("fail");
+      Assert.fail("expected exception");
+    } catch (RuntimeException e) {
+      Assert.assertTrue(e.getMessage().contains("failed on fail"), e.getMessage());
+    }
+
+    Assert.assertEquals(batches.size(), 1);
+    Assert.assertTrue(bulkCache.removeIfError("a"));
+    Assert.assertTrue(bulkCache.removeIfError("fail"));
+    Assert.assertEquals(bulkCache.getAll(Arrays.asList("a")), ImmutableMap.of("a", "A"));
+    Assert.assertEquals(batches.size(), 2);
+  }
+
+  @Test(groups = "fast")
+  public void testGetJoinsInFlightBatch() throws Exception {
+    createAllLatch = new CountDownLatch(1);
+
+    ConcurrentCacheTestHelper<String, String> helper = new ConcurrentCacheTestHelper<>(bulkCache);
+    Thread bulkThread =
+        helper.doInThread(
+            () ->
+                Assert.assertEquals(
+                    bulkCache.getAll(Arrays.asList("a", "b")),
+                    ImmutableMap.of("a", "A", "b", "B")));
+
+    waitUntilThreadBlocks(bulkThread);
+
+    Thread getThread = helper.getInThread("b", "B");
+
+    waitUntilThreadBlocks(getThread);
+    createAllLatch.countDown();
+    bulkThread.join();
+    getThread.join();
+
+    Assert.assertEquals(helper.getExceptionList(), Collections.emptyList());
+    Assert.assertEquals(batches, Collections.singletonList(Arrays.asList("a", "b")));
+    Assert.assertEquals(singleCreates.get(), 0);
+  }
+
+  @Test(groups = "fast")
+  public void testGetAllWithPlainValueFactory() throws Exception {
+    AtomicInteger creates = new AtomicInteger();
+    CoreConcurrentCache<String, String, RuntimeException> cache =
+        new CoreConcurrentCache<>(
+            input -> {
+              creates.incrementAndGet();
+
+              return input.toUpperCase();
+            },
+            RuntimeExceptionHandler.INSTANCE);
+
+    Assert.assertEquals(
+        cache.getAll(Arrays.asList("a", "b", "a")), ImmutableMap.of("a", "A", "b", "B"));
+    Assert.assertEquals(creates.get(), 2);
+  }
 }
@@ -20,10 +20,16 @@ import com.facebook.testing.LoopThread;
 import com.facebook.testing.MockExecutor;
 import com.facebook.testing.TestUtils;
 import com.facebook.testing.ThreadHelper;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.LinkedTransferQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import org.joda.time.DateTimeUtils;
@@ -329,6 +335,59 @@ public class TestExecutorServiceFront {
     Assert.assertEquals(drainerThread2.getName(), "drainer");
   }
 
+  @Test(groups = "fast")
+  public void testOrderKeptAcrossTimeSlices() throws Exception {
+    List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+
+    executorFront.execute(slowTask);
+
+    for (int i = 0; i < 3; i++) {
+      int value = i;
+
+      executorFront.execute(() -> order.add(value));
+    }
+
+    // the slow task uses up the time slice; the drainer re-submits itself with the rest
+    mockExecutor.removeHead().run();
+    Assert.assertEquals(order, Collections.emptyList());
+    Assert.assertEquals(mockExecutor.getNumPendingTasks(), 1);
+    executorFront.execute(() -> order.add(3));
+    Assert.assertEquals(mockExecutor.getNumPendingTasks(), 1);
+    mockExecutor.drain();
+    Assert.assertEquals(order, Arrays.asList(0, 1, 2, 3));
+
+    // must clear the timer offset
+    DateTimeUtils.setCurrentMillisOffset(0);
+  }
+
+  @Test(groups = "fast")
+  public void testNoLostTasksUnderContention() throws Exception {
+    int numProducers = 8;
+    int tasksPerProducer = 10000;
+    ExecutorService pool = Executors.newFixedThreadPool(NUM_THREADS + numProducers);
+
+    try {
+      for (int maxDrainers : new int[] {1, 4}) {
+        ExecutorServiceFront front =
+            new ExecutorServiceFront(new LinkedTransferQueue<>(), pool, "fuu", maxDrainers);
+        CountDownLatch latch = new CountDownLatch(numProducers * tasksPerProducer);
+
+        for (int i = 0; i < numProducers; i++) {
+          pool.execute(
+              () -> {
+                for (int j = 0; j < tasksPerProducer; j++) {
+                  front.execute(latch::countDown);
+                }
+              });
+        }
+
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS), "lost tasks: " + latch.getCount());
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
   private LoopThread createDrainerThread(ThreadHelper threadHelper) {
     return threadHelper.repeatInThread(
         () -> {
@@ -18,6 +18,7 @@ package com.facebook.concurrency;
 import com.facebook.collections.Pair;
 import com.facebook.testing.MockExecutor;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.TimeUnit;
@@ -97,6 +98,107 @@ public class TestExpiringConcurrentCache {
     Assert.assertEquals(evicted.size(), 1);
   }
 
+  @Test(groups = "fast")
+  public void testGetReloadsExpiredEntry() throws Exception {
+    Assert.assertEquals(cache.get(KEY), value1);
+    DateTimeUtils.setCurrentMillisFixed(30);
+    // the stale value is dropped by the read itself, before any reaper runs
+    Assert.assertEquals(cache.get(KEY), value1);
+    Assert.assertEquals(producer.getCalledCount(), 2);
+    mockExecutor.drain();
+    Assert.assertEquals(evicted.size(), 1);
+    Assert.assertEquals(cache.size(), 1);
+  }
+
+  @Test(groups = "fast")
+  public void testAccessExtendsLifetime() throws Exception {
+    cache.put("a", "1");
+    cache.put("b", "2");
+    DateTimeUtils.setCurrentMillisFixed(20);
+    Assert.assertEquals(cache.get("a"), "1");
+    DateTimeUtils.setCurrentMillisFixed(30);
+    cache.prune();
+    Assert.assertEquals(cache.size(), 1);
+    Assert.assertNotNull(cache.getIfPresent("a"));
+    DateTimeUtils.setCurrentMillisFixed(50);
+    cache.prune();
+    Assert.assertEquals(cache.size(), 0);
+    mockExecutor.drain();
+    Assert.assertEquals(evicted, Arrays.asList(new Pair<>("b", "2"), new Pair<>("a", "1")));
+  }
+
+  @Test(groups = "fast")
+  public void testEvictionsDeliveredInBatches() throws Exception {
+    int numEntries = 3 * ExpiringConcurrentCache.REAP_BATCH_SIZE + 1;
+
+    for (int i = 0; i < numEntries; i++) {
+      cache.put(String.valueOf(i), value1);
+    }
+
+    DateTimeUtils.setCurrentMillisFixed(30);
+    cache.prune();
+    Assert.assertEquals(cache.size(), 0);
+    // a single notification task for everything the prune removed, not one per entry
+    Assert.assertEquals(mockExecutor.getNumPendingTasks(), 1);
+    mockExecutor.drain();
+    Assert.assertEquals(evicted.size(), numEntries);
+  }
+
+  @Test(groups = "fast")
+  public void testBackgroundReaper() throws Exception {
+    int numEntries = 2 * ExpiringConcurrentCache.REAP_BATCH_SIZE;
+
+    for (int i = 0; i < numEntries; i++) {
+      cache.put(String.valueOf(i), value1);
+    }
+
+    DateTimeUtils.setCurrentMillisFixed(30);
+    // the read only schedules the reaper
+    Assert.assertNull(cache.getIfPresent("missing"));
+    Assert.assertEquals(cache.size(), numEntries);
+    Assert.assertEquals(mockExecutor.getNumPendingTasks(), 1);
+    // which works through the queue a batch at a time
+    mockExecutor.drain(1);
+    Assert.assertEquals(cache.size(), numEntries - ExpiringConcurrentCache.REAP_BATCH_SIZE);
+    mockExecutor.drain();
+    Assert.assertEquals(cache.size(), 0);
+    Assert.assertEquals(evicted.size(), numEntries);
+  }
+
+  @Test(groups = "fast")
+  public void testRemovedEntryNotEvicted() throws Exception {
+    cache.put("a", "1");
+    Assert.assertEquals(cache.remove("a"), "1");
+    cache.put("a", "2");
+    cache.put("a", "3");
+    DateTimeUtils.setCurrentMillisFixed(30);
+    cache.prune();
+    mockExecutor.drain();
+    Assert.assertEquals(evicted, Arrays.asList(new Pair<>("a", "3")));
+  }
+
+  @Test(groups = "fast")
+  public void testReplacedEntriesDoNotPileUp() throws Exception {
+    int numPuts = 20 * ExpiringConcurrentCache.REAP_BATCH_SIZE;
+
+    cache.put("live", value1);
+
+    for (int i = 0; i < numPuts; i++) {
+      // the live entry at the head keeps the reaper from getting past it
+      cache.put(KEY, String.valueOf(i));
+      mockExecutor.drain();
+      Assert.assertTrue(
+          cache.getExpirationQueueSize() <= 2 * ExpiringConcurrentCache.REAP_BATCH_SIZE,
+          "queue size " + cache.getExpirationQueueSize());
+    }
+
+    Assert.assertEquals(cache.get(KEY), String.valueOf(numPuts - 1));
+    Assert.assertEquals(cache.size(), 2);
+    cache.clear();
+    Assert.assertEquals(cache.getExpirationQueueSize(), 0);
+    Assert.assertTrue(evicted.isEmpty());
+  }
+
   @AfterMethod(alwaysRun = true)
   public void tearDown() throws Exception {
     DateTimeUtils.setCurrentMillisSystem();
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.concurrency;
+
+import com.facebook.stats.mx.Stats;
+import com.facebook.testing.MockExecutor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.joda.time.DateTimeUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TestFairShareExecutor {
+  private MockExecutor mockExecutor;
+  private Stats stats;
+  private List<String> runOrder;
+
+  @BeforeMethod(alwaysRun = true)
+  public void setUp() throws Exception {
+    DateTimeUtils.setCurrentMillisFixed(0);
+    mockExecutor = new MockExecutor();
+    stats = new Stats();
+    runOrder = Collections.synchronizedList(new ArrayList<>());
+  }
+
+  @AfterMethod(alwaysRun = true)
+  public void tearDown() throws Exception {
+    DateTimeUtils.setCurrentMillisSystem();
+  }
+
+  @Test(groups = "fast")
+  public void testWeightedRoundRobin() throws Exception {
+    FairShareExecutor fairShare = new FairShareExecutor(mockExecutor, "pool", 1, stats);
+    ExecutorService heavy = fairShare.addTenant("a", 3);
+    ExecutorService light = fairShare.addTenant("b", 1);
+
+    for (int i = 0; i < 8; i++) {
+      heavy.execute(() -> runOrder.add("a"));
+      light.execute(() -> runOrder.add("b"));
+    }
+
+    // a single drainer for both tenants
+    Assert.assertEquals(mockExecutor.getNumPendingTasks(), 1);
+    mockExecutor.drain();
+    Assert.assertEquals(String.join("", runOrder), "aaabaaabaabbbbbb");
+  }
+
+  @Test(groups = "fast")
+  public void testIdleTenantDoesNotBankCredit() throws Exception {
+    FairShareExecutor fairShare = new FairShareExecutor(mockExecutor, "pool", 1, stats);
+    ExecutorService a = fairShare.addTenant("a", 3);
+    ExecutorService b = fairShare.addTenant("b", 1);
+
+    // a empties its queue with 2 of its 3 units left
+    a.execute(() -> runOrder.add("a"));
+    mockExecutor.drain();
+    runOrder.clear();
+
+    for (int i = 0; i < 3; i++) {
+      b.execute(() -> runOrder.add("b"));
+    }
+
+    for (int i = 0; i < 6; i++) {
+      a.execute(() -> runOrder.add("a"));
+    }
+
+    mockExecutor.drain();
+    Assert.assertEquals(String.join("", runOrder), "baaabaaab");
+  }
+
+  @Test(groups = "fast")
+  public void testMetrics() throws Exception {
+    FairShareExecutor fairShare = new FairShareExecutor(mockExecutor, "pool", 1, stats);
+    FairShareExecutor.Tenant tenant = fairShare.addTenant("a", 1);
+
+    tenant.execute(() -> {});
+    tenant.execute(() -> {});
+    Assert.assertEquals(tenant.getQueueDepth(), 2);
+    Assert.assertEquals(stats.getCounter("pool.a.queue_depth"), 2);
+    DateTimeUtils.setCurrentMillisFixed(50);
+    mockExecutor.drain();
+    Assert.assertEquals(stats.getCounter("pool.a.queue_depth"), 0);
+    Assert.assertEquals(tenant.getWaitTimeMillis().getAllTime().getCount(), 2.0, 0.001);
+    Assert.assertEquals(tenant.getWaitTimeMillis().getAllTime().getMax(), 50);
+    Assert.assertSame(fairShare.getTenant("a"), tenant);
+  }
+
+  @Test(groups = "fast", expectedExceptions = IllegalArgumentException.class)
+  public void testDuplicateTenant() throws Exception {
+    FairShareExecutor fairShare = new FairShareExecutor(mockExecutor, "pool", 1, stats);
+
+    fairShare.addTenant("a", 1);
+    fairShare.addTenant("a", 2);
+  }
+
+  @Test(groups = "fast")
+  public void testTimeSliceYieldsThread() throws Exception {
+    FairShareExecutor fairShare =
+        new FairShareExecutor(mockExecutor, "pool", 1, 10, TimeUnit.MILLISECONDS, stats);
+    ExecutorService tenant = fairShare.addTenant("a", 1);
+
+    tenant.execute(() -> DateTimeUtils.setCurrentMillisFixed(10));
+    tenant.execute(() -> runOrder.add("a"));
+    mockExecutor.removeHead().run();
+    Assert.assertEquals(runOrder, Collections.emptyList());
+    // the drainer re-submitted itself rather than starting a second one
+    Assert.assertEquals(mockExecutor.getNumPendingTasks(), 1);
+    tenant.execute(() -> runOrder.add("a"));
+    Assert.assertEquals(mockExecutor.getNumPendingTasks(), 1);
+    mockExecutor.drain();
+    Assert.assertEquals(runOrder.size(), 2);
+  }
+
+  @Test(groups = "fast")
+  public void testAllTasksRunOnSharedPool() throws Exception {
+    DateTimeUtils.setCurrentMillisSystem();
+
+    int numTenants = 4;
+    int tasksPerTenant = 5000;
+    ExecutorService pool = Executors.newFixedThreadPool(8);
+
+    try {
+      FairShareExecutor fairShare = new FairShareExecutor(pool, "pool", 4, stats);
+      CountDownLatch latch = new CountDownLatch(numTenants * tasksPerTenant);
+      List<Thread> producers = new ArrayList<>();
+
+      for (int i = 0; i < numTenants; i++) {
+        ExecutorService tenant = fairShare.addTenant("t" + i, i + 1);
+        Thread producer =
+            new Thread(
+                () -> {
+                  for (int j = 0; j < tasksPerTenant; j++) {
+                    tenant.execute(latch::countDown);
+                  }
+                });
+
+        producer.start();
+        producers.add(producer);
+      }
+
+      for (Thread producer : producers) {
+        producer.join();
+      }
+
+      Assert.assertTrue(latch.await(10, TimeUnit.SECONDS), "lost tasks: " + latch.getCount());
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test(groups = "fast")
+  public void testRejectedTaskNeverRuns() throws Exception {
+    FairShareExecutor fairShare = new FairShareExecutor(mockExecutor, "pool", 1, stats);
+    FairShareExecutor.Tenant tenant = fairShare.addTenant("a", 1);
+
+    mockExecutor.setRejectSubmission(true);
+
+    try {
+      tenant.execute(() -> runOrder.add("rejected"));
+      Assert.fail("expected exception");
+    } catch (RejectedExecutionException e) {
+      // expected
+    }
+
+    Assert.assertEquals(tenant.getQueueDepth(), 0);
+
+    mockExecutor.setRejectSubmission(false);
+    tenant.execute(() -> runOrder.add("retried"));
+    mockExecutor.drain();
+
+    Assert.assertEquals(runOrder, Collections.singletonList("retried"));
+  }
+
+  @Test(groups = "fast")
+  public void testTaskTakenByRunningDrainerIsAccepted() throws Exception {
+    // on its second submission, runs the pending drainer, which takes both tasks, then rejects
+    MockExecutor executor =
+        new MockExecutor() {
+          private int submissions = 0;
+
+          @Override
+          public void execute(Runnable command) {
+            if (++submissions == 2) {
+              drain();
+
+              throw new RejectedExecutionException();
+            }
+
+            super.execute(command);
+          }
+        };
+    FairShareExecutor fairShare = new FairShareExecutor(executor, "pool", 2, stats);
+    ExecutorService tenant = fairShare.addTenant("a", 1);
+
+    tenant.execute(() -> runOrder.add("first"));
+    tenant.execute(() -> runOrder.add("second"));
+    executor.drain();
+
+    Assert.assertEquals(runOrder, Arrays.asList("first", "second"));
+  }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.concurrency;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TestForkJoinParallelRunner {
+  private ForkJoinPool pool;
+  private ForkJoinParallelRunner runner;
+  private List<Integer> numbers;
+
+  @BeforeMethod(alwaysRun = true)
+  public void setUp() throws Exception {
+    pool = new ForkJoinPool(4);
+    runner = new ForkJoinParallelRunner(pool);
+    numbers = IntStream.range(0, 10000).boxed().collect(Collectors.toList());
+  }
+
+  @AfterMethod(alwaysRun = true)
+  public void tearDown() throws Exception {
+    pool.shutdownNow();
+  }
+
+  @Test(groups = "fast")
+  public void testCallbackGetsEveryResult() throws Exception {
+    Set<Integer> results = ConcurrentHashMap.newKeySet();
+    Set<String> threadNames = ConcurrentHashMap.newKeySet();
+
+    runner.parallelMap(
+        numbers,
+        i -> {
+          threadNames.add(Thread.currentThread().getName());
+
+          return i * 2;
+        },
+        results::add,
+        RuntimeExceptionHandler.INSTANCE);
+
+    Assert.assertEquals(results.size(), numbers.size());
+    Assert.assertTrue(results.contains(19998));
+    Assert.assertTrue(threadNames.size() > 1, threadNames.toString());
+  }
+
+  @Test(groups = "fast")
+  public void testUnsizedSource() throws Exception {
+    AtomicInteger sum = new AtomicInteger();
+    // an Iterable that is not a Collection has no size to split by
+    Iterable<Integer> unsized = () -> numbers.iterator();
+
+    runner.parallelMap(unsized, i -> i, sum::addAndGet, RuntimeExceptionHandler.INSTANCE);
+    Assert.assertEquals(sum.get(), 9999 * 10000 / 2);
+  }
+
+  @Test(groups = "fast")
+  public void testFirstFailureCancelsTheRest() throws Exception {
+    AtomicInteger processed = new AtomicInteger();
+
+    try {
+      runner.parallelMap(
+          numbers.subList(0, 1000),
+          i -> {
+            if (processed.incrementAndGet() == 10) {
+              throw new IllegalStateException("failed on " + i);
+            }
+
+            Thread.sleep(1);
+
+            return i;
+          },
+          i -> {},
+          RuntimeExceptionHandler.INSTANCE);
+      Assert.fail("expected exception");
+    } catch (RuntimeException e) {
+      Assert.assertTrue(e.getMessage().startsWith("failed on"), e.getMessage());
+    }
+
+    // elements after the failure are skipped, bar those already running
+    Assert.assertTrue(processed.get() < 100, "processed " + processed.get());
+  }
+
+  @Test(groups = "fast")
+  public void testStreamingResults() throws Exception {
+    ForkJoinParallelRunner.StreamingResults<Integer, RuntimeException> results =
+        runner.parallelMapStreaming(numbers, i -> i + 1, 16, RuntimeExceptionHandler.INSTANCE);
+    List<Integer> received = new ArrayList<>();
+
+    while (results.hasNext()) {
+      received.add(results.next());
+    }
+
+    Collections.sort(received);
+    Assert.assertEquals(received.size(), numbers.size());
+    Assert.assertEquals(received.get(0).intValue(), 1);
+    Assert.assertEquals(received.get(9999).intValue(), 10000);
+    Assert.assertFalse(results.hasNext());
+  }
+
+  @Test(groups = "fast")
+  public void testStreamingIsBounded() throws Exception {
+    AtomicInteger produced = new AtomicInteger();
+    ForkJoinParallelRunner.StreamingResults<Integer, RuntimeException> results =
+        runner.parallelMapStreaming(
+            numbers, i -> produced.incrementAndGet(), 8, RuntimeExceptionHandler.INSTANCE);
+
+    Assert.assertTrue(results.hasNext());
+    // let the workers run into the bound
+    Thread.sleep(100);
+    // 8 queued plus one blocked per worker, plus the one we took
+    Assert.assertTrue(produced.get() <= 8 + 4 + 1, "produced " + produced.get());
+    results.cancel();
+    Assert.assertFalse(results.hasNext());
+    Assert.assertTrue(pool.awaitQuiescence(5, TimeUnit.SECONDS));
+    Assert.assertTrue(produced.get() < numbers.size(), "produced " + produced.get());
+  }
+
+  @Test(groups = "fast")
+  public void testUnsizedSourceReadLazily() throws Exception {
+    AtomicLong generated = new AtomicLong();
+    // endless, so reading it all up front would never finish
+    Iterable<Long> lazy =
+        () ->
+            new Iterator<Long>() {
+              @Override
+              public boolean hasNext() {
+                return true;
+              }
+
+              @Override
+              public Long next() {
+                return generated.incrementAndGet();
+              }
+            };
+    ForkJoinParallelRunner.StreamingResults<Long, RuntimeException> results =
+        runner.parallelMapStreaming(lazy, i -> i, 8, RuntimeExceptionHandler.INSTANCE);
+
+    for (int i = 0; i < 100; i++) {
+      Assert.assertTrue(results.hasNext());
+      results.next();
+    }
+
+    // let the workers run into the bound
+    Thread.sleep(100);
+    // at most 2 batches per worker out at once; the first 9 batches hold 1024 * (1 + ... + 9)
+    Assert.assertTrue(generated.get() <= 1024 * 45, "generated " + generated.get());
+    results.cancel();
+    Assert.assertTrue(pool.awaitQuiescence(5, TimeUnit.SECONDS));
+  }
+
+  @Test(groups = "fast")
+  public void testStreamingFailure() throws Exception {
+    CountDownLatch latch = new CountDownLatch(1);
+    ForkJoinParallelRunner.StreamingResults<Integer, RuntimeException> results =
+        runner.parallelMapStreaming(
+            numbers.subList(0, 1),
+            i -> {
+              latch.await();
+
+              throw new IllegalStateException("boom");
+            },
+            8,
+            RuntimeExceptionHandler.INSTANCE);
+
+    latch.countDown();
+
+    try {
+      results.hasNext();
+      Assert.fail("expected exception");
+    } catch (RuntimeException e) {
+      Assert.assertEquals(e.getMessage(), "boom");
+    }
+  }
+}
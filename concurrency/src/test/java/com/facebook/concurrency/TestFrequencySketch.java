@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.concurrency;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestFrequencySketch {
+  @Test(groups = "fast")
+  public void testIncrement() throws Exception {
+    FrequencySketch sketch = new FrequencySketch(512);
+
+    Assert.assertEquals(sketch.frequency(42), 0);
+
+    for (int i = 1; i <= 10; i++) {
+      sketch.increment(42);
+      Assert.assertEquals(sketch.frequency(42), i);
+    }
+  }
+
+  @Test(groups = "fast")
+  public void testSaturates() throws Exception {
+    FrequencySketch sketch = new FrequencySketch(512);
+
+    for (int i = 0; i < 100; i++) {
+      sketch.increment(7);
+    }
+
+    Assert.assertEquals(sketch.frequency(7), 15);
+  }
+
+  @Test(groups = "fast")
+  public void testAging() throws Exception {
+    FrequencySketch sketch = new FrequencySketch(64);
+
+    for (int i = 0; i < 15; i++) {
+      sketch.increment(1);
+    }
+
+    // sample size is 10 x 64; distinct keys push it over and halve the counters
+    for (int i = 100; i < 1000; i++) {
+      sketch.increment(i);
+    }
+
+    Assert.assertTrue(sketch.frequency(1) <= 8, "frequency not aged: " + sketch.frequency(1));
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.concurrency;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TestHashedWheelScheduledExecutorService {
+  private ExecutorService workers;
+  private HashedWheelScheduledExecutorService scheduler;
+
+  @BeforeMethod(alwaysRun = true)
+  public void setUp() throws Exception {
+    workers = Executors.newFixedThreadPool(2);
+    // a small wheel, so delays of a few tens of millis go around it
+    scheduler =
+        new HashedWheelScheduledExecutorService(workers, "wheel", 1, TimeUnit.MILLISECONDS, 8);
+  }
+
+  @AfterMethod(alwaysRun = true)
+  public void tearDown() throws Exception {
+    scheduler.shutdownNow();
+    workers.shutdownNow();
+  }
+
+  @Test(groups = "fast")
+  public void testRunsAfterDelay() throws Exception {
+    long start = System.nanoTime();
+    ScheduledFuture<Long> future =
+        scheduler.schedule(() -> System.nanoTime() - start, 30, TimeUnit.MILLISECONDS);
+
+    Assert.assertTrue(future.getDelay(TimeUnit.MILLISECONDS) > 0);
+    Assert.assertTrue(future.get(5, TimeUnit.SECONDS) >= TimeUnit.MILLISECONDS.toNanos(30));
+    Assert.assertTrue(future.isDone());
+  }
+
+  @Test(groups = "fast")
+  public void testCancelledTasksDoNotRun() throws Exception {
+    AtomicInteger runs = new AtomicInteger();
+    List<ScheduledFuture<?>> futures = new ArrayList<>();
+
+    for (int i = 0; i < 10000; i++) {
+      futures.add(scheduler.schedule(runs::incrementAndGet, 200 + i % 20, TimeUnit.MILLISECONDS));
+    }
+
+    for (int i = 0; i < futures.size(); i++) {
+      if (i % 100 != 0) {
+        Assert.assertTrue(futures.get(i).cancel(false));
+      }
+    }
+
+    for (int i = 0; i < futures.size(); i += 100) {
+      futures.get(i).get(5, TimeUnit.SECONDS);
+    }
+
+    Thread.sleep(50);
+    Assert.assertEquals(runs.get(), 100);
+  }
+
+  @Test(groups = "fast")
+  public void testFixedRateAndFixedDelay() throws Exception {
+    CountDownLatch fixedRate = new CountDownLatch(5);
+    CountDownLatch fixedDelay = new CountDownLatch(5);
+    ScheduledFuture<?> fixedRateFuture =
+        scheduler.scheduleAtFixedRate(fixedRate::countDown, 0, 2, TimeUnit.MILLISECONDS);
+    ScheduledFuture<?> fixedDelayFuture =
+        scheduler.scheduleWithFixedDelay(fixedDelay::countDown, 0, 2, TimeUnit.MILLISECONDS);
+
+    Assert.assertTrue(fixedRate.await(5, TimeUnit.SECONDS));
+    Assert.assertTrue(fixedDelay.await(5, TimeUnit.SECONDS));
+    Assert.assertTrue(fixedRateFuture.cancel(false));
+    Assert.assertTrue(fixedDelayFuture.cancel(false));
+    Assert.assertTrue(fixedRateFuture.isCancelled());
+  }
+
+  @Test(groups = "fast")
+  public void testShutdown() throws Exception {
+    ScheduledFuture<?> future = scheduler.schedule(() -> {}, 1, TimeUnit.HOURS);
+
+    Assert.assertEquals(scheduler.shutdownNow().size(), 1);
+    Assert.assertTrue(future.isCancelled());
+    Assert.assertTrue(scheduler.isTerminated());
+
+    try {
+      scheduler.schedule(() -> {}, 1, TimeUnit.MILLISECONDS);
+      Assert.fail("expected exception");
+    } catch (RejectedExecutionException e) {
+      // expected
+    }
+
+    // the task executor is not ours to shut down
+    Assert.assertFalse(workers.isShutdown());
+  }
+
+  @Test(groups = "fast")
+  public void testUnstoppableWrapper() throws Exception {
+    ScheduledExecutorService unstoppable = new UnstoppableScheduledExecutorService(scheduler);
+    ScheduledFuture<?> pending = unstoppable.schedule(() -> {}, 1, TimeUnit.HOURS);
+    ScheduledFuture<String> future =
+        unstoppable.schedule(() -> "done", 5, TimeUnit.MILLISECONDS);
+
+    Assert.assertEquals(future.get(5, TimeUnit.SECONDS), "done");
+    unstoppable.shutdown();
+    Assert.assertTrue(pending.isCancelled());
+    Assert.assertTrue(unstoppable.awaitTermination(5, TimeUnit.SECONDS));
+    Assert.assertFalse(scheduler.isShutdown());
+  }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.concurrency;
+
+import com.facebook.stats.mx.Stats;
+import com.facebook.testing.MockExecutor;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.joda.time.DateTimeUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TestInstrumentedConcurrentCache {
+  private Stats stats;
+  private CacheStats cacheStats;
+
+  @BeforeMethod(alwaysRun = true)
+  public void setUp() throws Exception {
+    DateTimeUtils.setCurrentMillisFixed(0);
+    stats = new Stats();
+    cacheStats = new CacheStats(stats, "cache");
+  }
+
+  @AfterMethod(alwaysRun = true)
+  public void tearDown() throws Exception {
+    DateTimeUtils.setCurrentMillisSystem();
+  }
+
+  @Test(groups = "fast")
+  public void testHitsMissesAndFailures() throws Exception {
+    ConcurrentCache<String, String, RuntimeException> cache =
+        new InstrumentedConcurrentCache<>(
+            new CoreConcurrentCache<>(
+                cacheStats.instrument(
+                    input -> {
+                      if (input.equals("bad")) {
+                        throw new IllegalArgumentException(input);
+                      }
+
+                      return input.toUpperCase();
+                    }),
+                RuntimeExceptionHandler.INSTANCE),
+            cacheStats);
+
+    cache.get("a");
+    cache.get("a");
+    cache.get("b");
+    Assert.assertNull(cache.getIfPresent("c"));
+    Assert.assertNotNull(cache.getIfPresent("a"));
+
+    try {
+      cache.get("bad");
+      Assert.fail("expected exception");
+    } catch (RuntimeException e) {
+      // expected
+    }
+
+    Assert.assertEquals(cacheStats.getRequestCount(), 6);
+    Assert.assertEquals(cacheStats.getMissCount(), 4);
+    Assert.assertEquals(cacheStats.getHitCount(), 2);
+    Assert.assertEquals(cacheStats.getLoadFailureCount(), 1);
+    Assert.assertEquals(cacheStats.getLoadMicros().getAllTime().getCount(), 3.0, 0.001);
+
+    Map<String, Long> counters = stats.getCounters();
+
+    Assert.assertEquals(counters.get("cache.requests").longValue(), 6);
+    Assert.assertEquals(counters.get("cache.hits").longValue(), 2);
+    Assert.assertEquals(counters.get("cache.misses").longValue(), 4);
+    Assert.assertEquals(counters.get("cache.load_failures").longValue(), 1);
+    Assert.assertEquals(counters.get("cache.evictions").longValue(), 0);
+    Assert.assertEquals(counters.get("cache.size").longValue(), 3);
+    Assert.assertTrue(counters.containsKey("cache.load_micros.p99"), counters.toString());
+  }
+
+  @Test(groups = "fast")
+  public void testEvictions() throws Exception {
+    MockExecutor executor = new MockExecutor();
+    ConcurrentCache<String, String, RuntimeException> cache =
+        new InstrumentedConcurrentCache<>(
+            new ExpiringConcurrentCache<>(
+                cacheStats.instrument(input -> input),
+                10,
+                TimeUnit.MILLISECONDS,
+                cacheStats.instrument((key, value) -> {}),
+                RuntimeExceptionHandler.INSTANCE,
+                executor),
+            cacheStats);
+
+    cache.get("a");
+    cache.get("b");
+    DateTimeUtils.setCurrentMillisFixed(10);
+    cache.prune();
+    executor.drain();
+
+    Assert.assertEquals(cacheStats.getEvictionCount(), 2);
+    Assert.assertEquals(stats.getCounter("cache.size"), 0);
+  }
+
+  @Test(groups = "fast")
+  public void testBulkLoadsStayBatched() throws Exception {
+    ValueFactory<String, String, RuntimeException> valueFactory =
+        cacheStats.instrument(
+            new BulkValueFactory<String, String, RuntimeException>() {
+              @Override
+              public Map<String, String> createAll(Collection<String> inputs) {
+                Map<String, String> values = new HashMap<>();
+
+                for (String input : inputs) {
+                  values.put(input, input.toUpperCase());
+                }
+
+                return values;
+              }
+            });
+
+    Assert.assertTrue(valueFactory instanceof BulkValueFactory);
+
+    ConcurrentCache<String, String, RuntimeException> cache =
+        new InstrumentedConcurrentCache<>(
+            new CoreConcurrentCache<>(valueFactory, RuntimeExceptionHandler.INSTANCE), cacheStats);
+
+    cache.get("a");
+    cache.getAll(Arrays.asList("a", "b", "c"));
+
+    Assert.assertEquals(cacheStats.getRequestCount(), 4);
+    Assert.assertEquals(cacheStats.getMissCount(), 3);
+    // one sample per factory call
+    Assert.assertEquals(cacheStats.getLoadMicros().getAllTime().getCount(), 2.0, 0.001);
+  }
+
+  @Test(groups = "fast")
+  public void testFailedBulkLoadCountsRequests() throws Exception {
+    ConcurrentCache<String, String, RuntimeException> cache =
+        new InstrumentedConcurrentCache<>(
+            new CoreConcurrentCache<>(
+                cacheStats.instrument(
+                    new BulkValueFactory<String, String, RuntimeException>() {
+                      @Override
+                      public Map<String, String> createAll(Collection<String> inputs) {
+                        throw new IllegalStateException("backend down");
+                      }
+                    }),
+                RuntimeExceptionHandler.INSTANCE),
+            cacheStats);
+
+    try {
+      cache.getAll(Arrays.asList("a", "b", "a"));
+      Assert.fail("expected exception");
+    } catch (RuntimeException e) {
+      // expected
+    }
+
+    Assert.assertEquals(cacheStats.getRequestCount(), 2);
+    Assert.assertTrue(cacheStats.getMissCount() <= cacheStats.getRequestCount());
+    Assert.assertEquals(cacheStats.getHitCount(), 0);
+  }
+}
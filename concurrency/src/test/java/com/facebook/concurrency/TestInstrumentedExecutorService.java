@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.concurrency;
+
+import com.facebook.stats.mx.Stats;
+import com.facebook.testing.MockExecutor;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TestInstrumentedExecutorService {
+  private Stats stats;
+  private ExecutorStats executorStats;
+  private MockExecutor mockExecutor;
+  private ExecutorService executor;
+
+  @BeforeMethod(alwaysRun = true)
+  public void setUp() throws Exception {
+    stats = new Stats();
+    executorStats = new ExecutorStats(stats, "pool");
+    mockExecutor = new MockExecutor();
+    executor = new InstrumentedExecutorService(mockExecutor, executorStats);
+  }
+
+  @Test(groups = "fast")
+  public void testQueueWaitAndRunTime() throws Exception {
+    executor.execute(() -> {});
+    executor.execute(() -> {});
+
+    Assert.assertEquals(stats.getRate("pool.submitted").getAllTimeSum(), 2);
+    // nothing recorded until the tasks start
+    Assert.assertEquals(executorStats.getQueueWaitMicros().getAllTime().getCount(), 0.0, 0.001);
+    mockExecutor.drain();
+    Assert.assertEquals(executorStats.getQueueWaitMicros().getAllTime().getCount(), 2.0, 0.001);
+    Assert.assertEquals(executorStats.getRunTimeMicros().getAllTime().getCount(), 2.0, 0.001);
+    Assert.assertEquals(executorStats.getFailed().getAllTimeSum(), 0);
+  }
+
+  @Test(groups = "fast")
+  public void testSubmitAndFailures() throws Exception {
+    ExecutorService pool = Executors.newSingleThreadExecutor();
+
+    try {
+      ExecutorService instrumented = new InstrumentedExecutorService(pool, executorStats);
+      Future<String> future = instrumented.submit(() -> "done");
+      Future<?> failedFuture =
+          instrumented.submit(
+              (Runnable)
+                  () -> {
+                    throw new IllegalStateException("boom");
+                  });
+
+      Assert.assertEquals(future.get(), "done");
+
+      try {
+        failedFuture.get();
+        Assert.fail("expected exception");
+      } catch (ExecutionException e) {
+        Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+      }
+    } finally {
+      pool.shutdown();
+    }
+
+    Assert.assertEquals(executorStats.getFailed().getAllTimeSum(), 1);
+    Assert.assertEquals(executorStats.getRunTimeMicros().getAllTime().getCount(), 2.0, 0.001);
+  }
+
+  @Test(groups = "fast")
+  public void testRejections() throws Exception {
+    ExecutorService pool = Executors.newSingleThreadExecutor();
+
+    pool.shutdown();
+
+    ExecutorService instrumented = new InstrumentedExecutorService(pool, executorStats);
+
+    try {
+      instrumented.execute(() -> {});
+      Assert.fail("expected exception");
+    } catch (RejectedExecutionException e) {
+      // expected
+    }
+
+    List<Callable<Integer>> tasks = Arrays.asList(() -> 1, () -> 2);
+
+    try {
+      instrumented.invokeAll(tasks);
+      Assert.fail("expected exception");
+    } catch (RejectedExecutionException e) {
+      // expected
+    }
+
+    Assert.assertEquals(executorStats.getRejected().getAllTimeSum(), 3);
+    Assert.assertEquals(executorStats.getSubmitted().getAllTimeSum(), 3);
+  }
+
+  @Test(groups = "fast")
+  public void testSampling() throws Exception {
+    ExecutorStats sampledStats = new ExecutorStats(stats, "sampled", 4);
+    ExecutorService sampled = new InstrumentedExecutorService(mockExecutor, sampledStats);
+
+    for (int i = 0; i < 4000; i++) {
+      sampled.execute(() -> {});
+    }
+
+    mockExecutor.drain();
+
+    double count = sampledStats.getRunTimeMicros().getAllTime().getCount();
+
+    Assert.assertTrue(count > 500 && count < 1500, "sampled " + count);
+    Assert.assertEquals(sampledStats.getSubmitted().getAllTimeSum(), 4000);
+  }
+
+  @Test(groups = "fast")
+  public void testCompleteIsIdempotent() throws Exception {
+    // TrackedFuture.cancel() calls complete() whether or not the task has run
+    TrackedRunnable cancelledBeforeRun = executorStats.instrument(() -> {});
+    TrackedRunnable ran = executorStats.instrument(() -> {});
+    Callable<String> failingTask =
+        () -> {
+          throw new IllegalStateException("boom");
+        };
+    TrackedCallable<String> failed = executorStats.instrument(failingTask);
+
+    cancelledBeforeRun.complete();
+    cancelledBeforeRun.complete();
+    ran.run();
+    ran.complete();
+
+    try {
+      failed.call();
+      Assert.fail("expected exception");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+
+    failed.complete();
+
+    Assert.assertEquals(executorStats.getSubmitted().getAllTimeSum(), 3);
+    Assert.assertEquals(executorStats.getFailed().getAllTimeSum(), 1);
+    Assert.assertEquals(executorStats.getRunTimeMicros().getAllTime().getCount(), 2.0, 0.001);
+  }
+}
@@ -16,11 +16,15 @@
 package com.facebook.concurrency;
 
 import com.facebook.testing.ThreadHelper;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import org.testng.Assert;
 import org.testng.annotations.BeforeMethod;
@@ -67,4 +71,84 @@ public class TestParallelRunner {
     hasNextRef.set(false);
     slothThread.join();
   }
+
+  @Test(groups = "fast")
+  public void testThreadPerTaskBoundsInFlight() throws Exception {
+    ExecutorService executor = new VirtualThreadExecutorServiceFactory("per-task").create();
+
+    try {
+      ParallelRunner perTaskRunner = new ParallelRunner(executor, "test-", true);
+      AtomicInteger inFlight = new AtomicInteger();
+      AtomicInteger maxInFlight = new AtomicInteger();
+      AtomicInteger completed = new AtomicInteger();
+      List<String> threadNames = new ArrayList<>();
+      List<Runnable> tasks = new ArrayList<>();
+
+      for (int i = 0; i < 200; i++) {
+        tasks.add(
+            () -> {
+              int current = inFlight.incrementAndGet();
+
+              maxInFlight.accumulateAndGet(current, Math::max);
+
+              synchronized (threadNames) {
+                threadNames.add(Thread.currentThread().getName());
+              }
+
+              try {
+                Thread.sleep(1);
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+
+              inFlight.decrementAndGet();
+              completed.incrementAndGet();
+            });
+      }
+
+      perTaskRunner.parallelRun(tasks, 8, "fan-out");
+
+      // parallelRun() only returns once every task has finished
+      Assert.assertEquals(completed.get(), 200);
+      Assert.assertTrue(maxInFlight.get() <= 8, "max in flight " + maxInFlight.get());
+      Assert.assertTrue(threadNames.contains("fan-out-0"), threadNames.toString());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test(groups = "fast")
+  public void testThreadPerTaskIgnoresTaskFailures() throws Exception {
+    AtomicInteger completed = new AtomicInteger();
+    List<Runnable> tasks = new ArrayList<>();
+
+    for (int i = 0; i < 10; i++) {
+      int taskNumber = i;
+
+      tasks.add(
+          () -> {
+            if (taskNumber % 2 == 0) {
+              throw new IllegalStateException("task " + taskNumber);
+            }
+
+            completed.incrementAndGet();
+          });
+    }
+
+    ConcurrencyUtil.parallelRunPerTask(tasks, 3);
+    Assert.assertEquals(completed.get(), 5);
+  }
+
+  @Test(groups = "fast")
+  public void testVirtualThreadFactoryRunsTasks() throws Exception {
+    ExecutorService executor = new VirtualThreadExecutorServiceFactory("vt").create();
+
+    try {
+      String threadName = executor.submit(() -> Thread.currentThread().getName()).get();
+
+      Assert.assertTrue(threadName.startsWith("vt-"), threadName);
+    } finally {
+      executor.shutdown();
+    }
+  }
 }
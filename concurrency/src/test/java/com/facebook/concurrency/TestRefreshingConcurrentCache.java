@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.concurrency;
+
+import com.facebook.testing.MockExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.joda.time.DateTimeUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TestRefreshingConcurrentCache extends AbstractTestConcurrentCache {
+  private static final String KEY = "key";
+
+  private MockExecutor mockExecutor;
+  private AtomicInteger loadCount;
+  private AtomicBoolean failLoads;
+  private RefreshingConcurrentCache<String, String, RuntimeException> refreshingCache;
+
+  @Override
+  protected ConcurrentCache<String, String, RuntimeException> createCache(
+      ValueFactory<String, String, RuntimeException> valueFactory) {
+    return new RefreshingConcurrentCache<>(
+        valueFactory, 1, TimeUnit.MINUTES, RuntimeExceptionHandler.INSTANCE, Runnable::run);
+  }
+
+  @BeforeMethod(alwaysRun = true)
+  public void setUpRefreshing() throws Exception {
+    DateTimeUtils.setCurrentMillisFixed(0);
+    mockExecutor = new MockExecutor();
+    loadCount = new AtomicInteger();
+    failLoads = new AtomicBoolean(false);
+    refreshingCache =
+        new RefreshingConcurrentCache<>(
+            input -> {
+              int count = loadCount.incrementAndGet();
+
+              if (failLoads.get()) {
+                throw new IllegalStateException("load " + count + " failed");
+              }
+
+              return input + count;
+            },
+            100,
+            TimeUnit.MILLISECONDS,
+            RuntimeExceptionHandler.INSTANCE,
+            mockExecutor);
+  }
+
+  @AfterMethod(alwaysRun = true)
+  public void tearDownRefreshing() throws Exception {
+    DateTimeUtils.setCurrentMillisSystem();
+  }
+
+  @Test(groups = "fast")
+  public void testServesStaleValueWhileRefreshing() throws Exception {
+    Assert.assertEquals(refreshingCache.get(KEY), "key1");
+    DateTimeUtils.setCurrentMillisFixed(99);
+    Assert.assertEquals(refreshingCache.get(KEY), "key1");
+    Assert.assertEquals(mockExecutor.getNumPendingTasks(), 0);
+    DateTimeUtils.setCurrentMillisFixed(100);
+    Assert.assertEquals(refreshingCache.get(KEY), "key1");
+    // concurrent readers are coalesced onto the one reload
+    Assert.assertEquals(refreshingCache.get(KEY), "key1");
+    Assert.assertEquals(mockExecutor.getNumPendingTasks(), 1);
+    mockExecutor.drain();
+    Assert.assertEquals(refreshingCache.get(KEY), "key2");
+    Assert.assertEquals(loadCount.get(), 2);
+    Assert.assertEquals(mockExecutor.getNumPendingTasks(), 0);
+  }
+
+  @Test(groups = "fast")
+  public void testFailedRefreshKeepsValue() throws Exception {
+    Assert.assertEquals(refreshingCache.get(KEY), "key1");
+    failLoads.set(true);
+    DateTimeUtils.setCurrentMillisFixed(100);
+    refreshingCache.get(KEY);
+    mockExecutor.drain();
+    Assert.assertEquals(refreshingCache.get(KEY), "key1");
+    // no retry until another refresh interval has passed
+    DateTimeUtils.setCurrentMillisFixed(199);
+    refreshingCache.get(KEY);
+    Assert.assertEquals(mockExecutor.getNumPendingTasks(), 0);
+    DateTimeUtils.setCurrentMillisFixed(200);
+    failLoads.set(false);
+    refreshingCache.get(KEY);
+    mockExecutor.drain();
+    Assert.assertEquals(refreshingCache.get(KEY), "key3");
+  }
+
+  @Test(groups = "fast")
+  public void testRefreshRecoversFromError() throws Exception {
+    failLoads.set(true);
+
+    try {
+      refreshingCache.get(KEY);
+      Assert.fail("expected exception");
+    } catch (RuntimeException e) {
+      Assert.assertEquals(e.getMessage(), "load 1 failed");
+    }
+
+    failLoads.set(false);
+    DateTimeUtils.setCurrentMillisFixed(100);
+
+    try {
+      refreshingCache.get(KEY);
+      Assert.fail("expected the cached exception");
+    } catch (RuntimeException e) {
+      Assert.assertEquals(e.getMessage(), "load 1 failed");
+    }
+
+    mockExecutor.drain();
+    Assert.assertEquals(refreshingCache.get(KEY), "key2");
+  }
+
+  @Test(groups = "fast")
+  public void testPutDuringRefreshWins() throws Exception {
+    Assert.assertEquals(refreshingCache.get(KEY), "key1");
+    DateTimeUtils.setCurrentMillisFixed(100);
+    refreshingCache.get(KEY);
+    Assert.assertEquals(refreshingCache.put(KEY, "put"), "key1");
+    mockExecutor.drain();
+    Assert.assertEquals(refreshingCache.get(KEY), "put");
+    Assert.assertEquals(loadCount.get(), 2);
+  }
+
+  @Test(groups = "fast")
+  public void testGetIfPresentDoesNotRefresh() throws Exception {
+    Assert.assertNull(refreshingCache.getIfPresent(KEY));
+    refreshingCache.get(KEY);
+    DateTimeUtils.setCurrentMillisFixed(100);
+    Assert.assertEquals(refreshingCache.getIfPresent(KEY).get(), "key1");
+    Assert.assertEquals(mockExecutor.getNumPendingTasks(), 0);
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.concurrency;
+
+import com.facebook.testing.MockExecutor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TestSingleFlight {
+  private AtomicInteger calls;
+  private CountDownLatch release;
+  private SingleFlight<String, String, RuntimeException> singleFlight;
+  private ExecutorService executor;
+
+  @BeforeMethod(alwaysRun = true)
+  public void setUp() throws Exception {
+    calls = new AtomicInteger(0);
+    release = new CountDownLatch(0);
+    singleFlight =
+        new SingleFlight<>(
+            key -> {
+              int call = calls.incrementAndGet();
+
+              try {
+                release.await();
+              } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+              }
+
+              if (key.equals("bad")) {
+                throw new IllegalStateException("bad key");
+              }
+
+              return key + call;
+            },
+            RuntimeExceptionHandler.INSTANCE);
+    executor = Executors.newCachedThreadPool();
+  }
+
+  @AfterMethod(alwaysRun = true)
+  public void tearDown() throws Exception {
+    executor.shutdownNow();
+  }
+
+  @Test(groups = "fast")
+  public void testHerdCollapses() throws Exception {
+    release = new CountDownLatch(1);
+
+    CountDownLatch arrived = new CountDownLatch(8);
+    List<Future<String>> results = new ArrayList<>();
+
+    for (int i = 0; i < 8; i++) {
+      results.add(
+          executor.submit(
+              () -> {
+                arrived.countDown();
+
+                return singleFlight.get("key");
+              }));
+    }
+
+    // give the last callers time to get from the latch into get()
+    Assert.assertTrue(arrived.await(5, TimeUnit.SECONDS));
+    Thread.sleep(50);
+    Assert.assertTrue(singleFlight.isInFlight("key"));
+    release.countDown();
+
+    for (Future<String> result : results) {
+      Assert.assertEquals(result.get(5, TimeUnit.SECONDS), "key1");
+    }
+
+    Assert.assertEquals(calls.get(), 1);
+    Assert.assertEquals(singleFlight.getInFlightCount(), 0);
+    // nothing is kept
+    Assert.assertEquals(singleFlight.get("key"), "key2");
+  }
+
+  @Test(groups = "fast")
+  public void testAsyncSharesWithSync() throws Exception {
+    MockExecutor mockExecutor = new MockExecutor();
+    CompletableFuture<String> first = singleFlight.getAsync("key", mockExecutor);
+    CompletableFuture<String> second = singleFlight.getAsync("key", mockExecutor);
+
+    Assert.assertSame(second, first);
+    Assert.assertEquals(mockExecutor.getNumPendingTasks(), 1);
+    Assert.assertFalse(first.isDone());
+
+    // a sync caller does not wait for the executor: it runs the pending call itself
+    Assert.assertEquals(singleFlight.get("key"), "key1");
+    Assert.assertEquals(first.get(), "key1");
+
+    mockExecutor.drain();
+    Assert.assertEquals(calls.get(), 1);
+    Assert.assertFalse(singleFlight.isInFlight("key"));
+  }
+
+  @Test(groups = "fast")
+  public void testFailureIsShared() throws Exception {
+    CompletableFuture<String> future = singleFlight.getAsync("bad", executor);
+
+    try {
+      future.get(5, TimeUnit.SECONDS);
+      Assert.fail("expected ExecutionException");
+    } catch (ExecutionException e) {
+      // the handler's RuntimeException, around the FutureTask's ExecutionException
+      Assert.assertTrue(e.getCause().getCause().getCause() instanceof IllegalStateException);
+    }
+
+    try {
+      singleFlight.get("bad");
+      Assert.fail("expected RuntimeException");
+    } catch (RuntimeException e) {
+      Assert.assertTrue(e.getCause().getCause() instanceof IllegalStateException);
+    }
+
+    // failures are not kept either
+    Assert.assertEquals(calls.get(), 2);
+    Assert.assertEquals(singleFlight.getInFlightCount(), 0);
+  }
+
+  @Test(groups = "fast")
+  public void testRejectedExecutor() throws Exception {
+    MockExecutor mockExecutor = new MockExecutor();
+
+    mockExecutor.setRejectSubmission(true);
+
+    CompletableFuture<String> future = singleFlight.getAsync("key", mockExecutor);
+
+    Assert.assertTrue(future.isCompletedExceptionally());
+    Assert.assertFalse(singleFlight.isInFlight("key"));
+
+    try {
+      future.get();
+      Assert.fail("expected ExecutionException");
+    } catch (ExecutionException e) {
+      Assert.assertTrue(
+          e.getCause().getCause().getCause() instanceof RejectedExecutionException);
+    }
+  }
+}
@@ -16,9 +16,14 @@
 package com.facebook.concurrency;
 
 import com.facebook.testing.MockExecutor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import org.joda.time.DateTimeUtils;
 import org.testng.Assert;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
@@ -38,6 +43,7 @@ public class TestTaskGroup {
   public void tearDown() throws Exception {
     executor1.shutdownNow();
     executor2.shutdownNow();
+    DateTimeUtils.setCurrentMillisSystem();
   }
 
   @Test(groups = "fast")
@@ -103,6 +109,229 @@ public class TestTaskGroup {
     Assert.assertTrue(runnable3.isRun());
   }
 
+  @Test(groups = "fast")
+  public void testDependencies() throws Exception {
+    MockExecutor mockExecutor = new MockExecutor();
+    TaskGroup taskGroup = new TaskGroup(mockExecutor);
+    List<String> order = new ArrayList<>();
+
+    TaskGroup.Node load = taskGroup.registerNode("load", () -> order.add("load"));
+    TaskGroup.Node left = taskGroup.registerNode("left", () -> order.add("left")).dependsOn(load);
+    TaskGroup.Node right =
+        taskGroup.registerNode("right", () -> order.add("right")).dependsOn(load);
+
+    taskGroup.registerNode("join", () -> order.add("join")).dependsOn(left, right);
+
+    TaskGroup.FinishLatch latch = taskGroup.execute();
+
+    // only the root is ready
+    Assert.assertEquals(mockExecutor.getNumPendingTasks(), 1);
+    mockExecutor.drain();
+    Assert.assertTrue(latch.await(0, TimeUnit.MILLISECONDS));
+    Assert.assertEquals(order, Arrays.asList("load", "left", "right", "join"));
+    Assert.assertFalse(latch.hasFailures());
+  }
+
+  @Test(groups = "fast")
+  public void testCriticalPathFirst() throws Exception {
+    MockExecutor mockExecutor = new MockExecutor();
+    TaskGroup taskGroup = new TaskGroup();
+    List<String> order = new ArrayList<>();
+
+    taskGroup.registerNode("short", mockExecutor, () -> order.add("short"), 1);
+
+    TaskGroup.Node first =
+        taskGroup.registerNode("first", mockExecutor, () -> order.add("first"), 1);
+
+    taskGroup.registerNode("long", mockExecutor, () -> order.add("long"), 100).dependsOn(first);
+    taskGroup.execute();
+    mockExecutor.drain();
+
+    // "first" leads to the expensive node, so it goes ahead of the cheap one registered earlier
+    Assert.assertEquals(order, Arrays.asList("first", "long", "short"));
+  }
+
+  @Test(groups = "fast")
+  public void testFailureCancelsDownstream() throws Exception {
+    MockExecutor mockExecutor = new MockExecutor();
+    TaskGroup taskGroup = new TaskGroup(mockExecutor);
+    DelayRunnable independent = new DelayRunnable();
+    DelayRunnable downstream = new DelayRunnable();
+
+    TaskGroup.Node failing =
+        taskGroup.registerNode(
+            "failing",
+            () -> {
+              throw new IllegalStateException("fail");
+            });
+    TaskGroup.Node child = taskGroup.registerNode("child", downstream).dependsOn(failing);
+
+    taskGroup.registerNode("grandchild", new DelayRunnable()).dependsOn(child);
+    taskGroup.registerNode("independent", independent);
+
+    TaskGroup.FinishLatch latch = taskGroup.execute();
+
+    mockExecutor.drain();
+    Assert.assertTrue(latch.await(0, TimeUnit.MILLISECONDS));
+    Assert.assertTrue(latch.hasFailures());
+    Assert.assertTrue(independent.isRun());
+    Assert.assertFalse(downstream.isRun());
+
+    List<TaskGroup.NodeResult> results = latch.getNodeResults();
+
+    Assert.assertEquals(results.get(0).getStatus(), TaskGroup.NodeStatus.FAILED);
+    Assert.assertTrue(results.get(0).getFailure() instanceof IllegalStateException);
+    Assert.assertEquals(results.get(1).getStatus(), TaskGroup.NodeStatus.CANCELLED);
+    Assert.assertEquals(results.get(2).getStatus(), TaskGroup.NodeStatus.CANCELLED);
+    Assert.assertEquals(results.get(3).getStatus(), TaskGroup.NodeStatus.SUCCEEDED);
+  }
+
+  @Test(groups = "fast", expectedExceptions = IllegalStateException.class)
+  public void testCycle() throws Exception {
+    TaskGroup taskGroup = new TaskGroup(new MockExecutor());
+    TaskGroup.Node a = taskGroup.registerNode("a", new DelayRunnable());
+    TaskGroup.Node b = taskGroup.registerNode("b", new DelayRunnable()).dependsOn(a);
+
+    a.dependsOn(b);
+    taskGroup.execute();
+  }
+
+  @Test(groups = "fast")
+  public void testTimingAndCriticalPath() throws Exception {
+    MockExecutor mockExecutor = new MockExecutor();
+    TaskGroup taskGroup = new TaskGroup(mockExecutor);
+
+    DateTimeUtils.setCurrentMillisFixed(0);
+
+    TaskGroup.Node slow = taskGroup.registerNode("slow", () -> advance(50));
+    TaskGroup.Node fast = taskGroup.registerNode("fast", () -> advance(10));
+
+    taskGroup.registerNode("last", () -> advance(5)).dependsOn(slow, fast);
+
+    TaskGroup.FinishLatch latch = taskGroup.execute();
+
+    advance(3);
+    mockExecutor.drain();
+
+    List<TaskGroup.NodeResult> results = latch.getNodeResults();
+
+    Assert.assertEquals(results.get(0).getQueueMillis(), 3);
+    Assert.assertEquals(results.get(0).getRunMillis(), 50);
+    Assert.assertEquals(results.get(1).getQueueMillis(), 53);
+    Assert.assertEquals(results.get(1).getRunMillis(), 10);
+    Assert.assertEquals(results.get(2).getQueueMillis(), 0);
+    Assert.assertEquals(results.get(2).getEndMillis(), 68);
+
+    List<String> criticalPath = new ArrayList<>();
+
+    for (TaskGroup.NodeResult result : latch.getCriticalPath()) {
+      criticalPath.add(result.getName());
+    }
+
+    // "fast" ended last of the two dependencies, since it waited for "slow" on the one executor
+    Assert.assertEquals(criticalPath, Arrays.asList("fast", "last"));
+  }
+
+  @Test(groups = "fast")
+  public void testRejectionFailsOrphanedNode() throws Exception {
+    MockExecutor executor1 = new MockExecutor();
+    SecondSubmissionRejectingExecutor executor2 = new SecondSubmissionRejectingExecutor();
+    TaskGroup taskGroup = new TaskGroup();
+    DelayRunnable downstream = new DelayRunnable();
+    DelayRunnable other = new DelayRunnable();
+
+    TaskGroup.Node first = taskGroup.registerNode("first", executor1, new DelayRunnable(), 1);
+
+    taskGroup.registerNode("downstream", executor2, downstream, 100).dependsOn(first);
+    taskGroup.registerNode("other", executor2, other, 1);
+
+    TaskGroup.FinishLatch latch = taskGroup.execute();
+
+    // "downstream" jumps ahead of "other" in executor2's ready queue, then its runnable is
+    // rejected after the runnable submitted for "other" has already taken it
+    executor1.drain();
+    executor2.drain();
+
+    Assert.assertTrue(latch.await(0, TimeUnit.MILLISECONDS));
+    Assert.assertTrue(downstream.isRun());
+    Assert.assertFalse(other.isRun());
+
+    List<TaskGroup.NodeResult> results = latch.getNodeResults();
+
+    Assert.assertEquals(results.get(1).getStatus(), TaskGroup.NodeStatus.SUCCEEDED);
+    Assert.assertEquals(results.get(2).getStatus(), TaskGroup.NodeStatus.FAILED);
+    Assert.assertTrue(results.get(2).getFailure() instanceof RejectedExecutionException);
+  }
+
+  @Test(groups = "fast")
+  public void testRegisteredTaskRejectionThrows() throws Exception {
+    MockExecutor rejecting = new MockExecutor();
+    MockExecutor mockExecutor = new MockExecutor();
+    TaskGroup taskGroup = new TaskGroup(mockExecutor);
+    DelayRunnable runnable = new DelayRunnable();
+
+    rejecting.setRejectSubmission(true);
+    taskGroup.register(rejecting, new DelayRunnable());
+    taskGroup.register(runnable);
+
+    try {
+      taskGroup.execute();
+      Assert.fail("expected exception");
+    } catch (RejectedExecutionException e) {
+      // expected
+    }
+
+    // the other task was still started
+    mockExecutor.drain();
+    Assert.assertTrue(runnable.isRun());
+  }
+
+  @Test(groups = "fast")
+  public void testRegisteredTaskFailureReachesExecutor() throws Exception {
+    MockExecutor mockExecutor = new MockExecutor();
+    TaskGroup taskGroup = new TaskGroup(mockExecutor);
+
+    taskGroup.register(
+        () -> {
+          throw new IllegalStateException("fail");
+        });
+
+    TaskGroup.FinishLatch latch = taskGroup.execute();
+
+    try {
+      mockExecutor.drain();
+      Assert.fail("expected exception");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+
+    Assert.assertTrue(latch.await(0, TimeUnit.MILLISECONDS));
+    Assert.assertEquals(latch.getNodeResults().get(0).getStatus(), TaskGroup.NodeStatus.FAILED);
+  }
+
+  private static void advance(long millis) {
+    DateTimeUtils.setCurrentMillisFixed(DateTimeUtils.currentTimeMillis() + millis);
+  }
+
+  /**
+   * queues the first submission; on the second, runs the first as if another thread had picked it
+   * up meanwhile, then rejects
+   */
+  private static class SecondSubmissionRejectingExecutor extends MockExecutor {
+    private int submissions = 0;
+
+    @Override
+    public void execute(Runnable command) {
+      if (++submissions == 2) {
+        drain();
+
+        throw new RejectedExecutionException();
+      }
+
+      super.execute(command);
+    }
+  }
+
   private static class DelayRunnable implements Runnable {
     private volatile boolean isRun = false;
 
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.concurrency.linearization;
+
+import com.facebook.testing.MockExecutor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TestKeyedLinearizer {
+  private MockExecutor mockExecutor;
+  private KeyedLinearizer<String> linearizer;
+  private List<String> runOrder;
+
+  @BeforeMethod(alwaysRun = true)
+  public void setUp() throws Exception {
+    mockExecutor = new MockExecutor();
+    linearizer = new KeyedLinearizer<>(mockExecutor);
+    runOrder = new ArrayList<>();
+  }
+
+  @Test(groups = "fast")
+  public void testOneDrainerPerKey() throws Exception {
+    linearizer.execute("a", () -> runOrder.add("a1"));
+    linearizer.execute("b", () -> runOrder.add("b1"));
+    linearizer.execute("a", () -> runOrder.add("a2"));
+    linearizer.execute("a", () -> runOrder.add("a3"));
+    Assert.assertEquals(mockExecutor.getNumPendingTasks(), 2);
+    Assert.assertEquals(linearizer.getActiveKeyCount(), 2);
+    mockExecutor.drain();
+    Assert.assertEquals(runOrder, Arrays.asList("a1", "a2", "a3", "b1"));
+    // idle keys are dropped
+    Assert.assertEquals(linearizer.getActiveKeyCount(), 0);
+  }
+
+  @Test(groups = "fast")
+  public void testFailureDoesNotStopKey() throws Exception {
+    linearizer.execute(
+        "a",
+        () -> {
+          throw new IllegalStateException("boom");
+        });
+    linearizer.forKey("a").execute(() -> runOrder.add("a2"));
+    mockExecutor.drain();
+    Assert.assertEquals(runOrder, Arrays.asList("a2"));
+  }
+
+  @Test(groups = "fast")
+  public void testBusyKeyYieldsThread() throws Exception {
+    for (int i = 0; i < KeyedLinearizer.MAX_TASKS_PER_RUN + 1; i++) {
+      linearizer.execute("a", () -> runOrder.add("a"));
+    }
+
+    linearizer.execute("b", () -> runOrder.add("b"));
+    mockExecutor.removeHead().run();
+    // "a" went to the back of the queue, behind "b"
+    Assert.assertEquals(runOrder.size(), KeyedLinearizer.MAX_TASKS_PER_RUN);
+    Assert.assertEquals(mockExecutor.getNumPendingTasks(), 2);
+    mockExecutor.drain();
+    Assert.assertEquals(runOrder.get(KeyedLinearizer.MAX_TASKS_PER_RUN), "b");
+    Assert.assertEquals(runOrder.get(KeyedLinearizer.MAX_TASKS_PER_RUN + 1), "a");
+  }
+
+  @Test(groups = "fast")
+  public void testSerialPerKeyOnPool() throws Exception {
+    int numKeys = 16;
+    int tasksPerKey = 2000;
+    ExecutorService pool = Executors.newFixedThreadPool(8);
+    KeyedLinearizer<Integer> poolLinearizer = new KeyedLinearizer<>(pool);
+    int[] lastSeen = new int[numKeys];
+    AtomicInteger[] running = new AtomicInteger[numKeys];
+    AtomicInteger errors = new AtomicInteger();
+    CountDownLatch latch = new CountDownLatch(numKeys * tasksPerKey);
+    List<Thread> producers = new ArrayList<>();
+
+    for (int key = 0; key < numKeys; key++) {
+      running[key] = new AtomicInteger();
+    }
+
+    try {
+      // one producer per key, so submission order per key is well defined
+      for (int key = 0; key < numKeys; key++) {
+        int k = key;
+        Thread producer =
+            new Thread(
+                () -> {
+                  for (int i = 1; i <= tasksPerKey; i++) {
+                    int sequence = i;
+
+                    poolLinearizer.execute(
+                        k,
+                        () -> {
+                          if (running[k].incrementAndGet() != 1
+                              || lastSeen[k] != sequence - 1) {
+                            errors.incrementAndGet();
+                          }
+
+                          lastSeen[k] = sequence;
+                          running[k].decrementAndGet();
+                          latch.countDown();
+                        });
+
+                    if (i % 100 == 0) {
+                      // give keys a chance to go idle and be dropped
+                      Thread.yield();
+                    }
+                  }
+                });
+
+        producer.start();
+        producers.add(producer);
+      }
+
+      for (Thread producer : producers) {
+        producer.join();
+      }
+
+      Assert.assertTrue(latch.await(10, TimeUnit.SECONDS), "lost tasks: " + latch.getCount());
+      Assert.assertEquals(errors.get(), 0);
+
+      for (int key = 0; key < numKeys; key++) {
+        Assert.assertEquals(lastSeen[key], tasksPerKey);
+      }
+    } finally {
+      pool.shutdown();
+    }
+
+    Assert.assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+    Assert.assertEquals(poolLinearizer.getActiveKeyCount(), 0);
+  }
+}
@@ -0,0 +1,370 @@
+/*
+ * Copyright (C) 2018 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.stats.concurrent;
+
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Computes percentiles and sample counts over the last minute, ten minutes and hour, and all
+ * time. Values go into fixed log-linear buckets, like HdrHistogram: one per value below 32, then
+ * 32 per power of two, so a percentile is accurate to within 1/32 of its value and a stat never
+ * needs more than 1888 buckets. Negative values count as 0.
+ *
+ * <p>Recording is lock-free: counts are kept in stripes, like a LongAdder, and each thread
+ * increments the bucket in its own stripe. A stripe is only allocated once a thread uses it.
+ *
+ * <p>Windows are computed like in {@link RateStat}: the all-time counts are copied at the start of
+ * every sixth of a window, and the counts over a window are the difference between the all-time
+ * counts and the copy at the window start. The window starts on a copy boundary, so it covers up
+ * to a sixth more than its nominal length. Copies are trimmed to their non-zero buckets.
+ *
+ * <p>Computing the windows reads every bucket of every stripe. To export many values at once, use
+ * getRecentPercentile() and getRecentSamples(): they share one computation per second.
+ */
+public class HistogramStat implements Stat {
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  // one bucket per value below SUB_BUCKETS, then SUB_BUCKETS per power of two up to 2^63
+  static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+  private static final int STRIPES =
+      Integer.highestOneBit(Math.min(Runtime.getRuntime().availableProcessors(), 8));
+  private static final int[] WINDOWS = {60, 600, 3600};
+  private static final int[] SLOT_SECONDS = {10, 100, 600};
+  // a window needs the copies at up to 7 slot starts
+  private static final int SLOTS = 8;
+
+  private final String key;
+  private final Clock clock;
+  private final long created;
+  private final AtomicLong lastRoll;
+  private final AtomicReferenceArray<AtomicLongArray> stripes =
+      new AtomicReferenceArray<>(STRIPES);
+  private final AtomicReferenceArray<BucketCounts> slotCounts =
+      new AtomicReferenceArray<>(WINDOWS.length * SLOTS);
+  private final Object rollLock = new Object();
+  // guarded by rollLock
+  private final long[] lastSlots = new long[WINDOWS.length];
+  // the last second rolled to; every slot start up to it has its copy
+  private volatile long rolledNow;
+  // for the getRecent*() methods; recomputed once rolledNow moves on
+  private volatile WindowCounts recentCounts;
+
+  public HistogramStat(String key) {
+    this(key, Clock.systemUTC());
+  }
+
+  public HistogramStat(String key, Clock clock) {
+    this.key = key;
+    this.clock = clock;
+    created = clock.millis() / 1000;
+    lastRoll = new AtomicLong(created);
+    rolledNow = created;
+
+    for (int level = 0; level < WINDOWS.length; ++level) {
+      lastSlots[level] = created / SLOT_SECONDS[level];
+    }
+  }
+
+  @Override
+  public void update(long value) {
+    rollWindows();
+    stripe().incrementAndGet(bucket(value));
+  }
+
+  @Override
+  public String toString() {
+    return "HistogramStat{" + key + '}';
+  }
+
+  /**
+   * @param percentile between 0 and 100, e.g. 99.9
+   * @return highest value of the bucket the percentile falls in, for each window; 0 if it is empty
+   */
+  public Snapshot getPercentile(double percentile) {
+    checkPercentile(percentile);
+    rollWindows();
+
+    return percentileSnapshot(getWindowCounts().counts, percentile);
+  }
+
+  public Snapshot getSamples() {
+    rollWindows();
+
+    return samplesSnapshot(getWindowCounts().counts);
+  }
+
+  /**
+   * like {@link #getPercentile}, but reuses the counts of earlier getRecent*() calls in the same
+   * second, so it may miss updates from up to a second ago
+   */
+  public Snapshot getRecentPercentile(double percentile) {
+    checkPercentile(percentile);
+
+    return percentileSnapshot(getRecentWindowCounts(), percentile);
+  }
+
+  /** like {@link #getSamples}, but may miss updates from up to a second ago */
+  public Snapshot getRecentSamples() {
+    return samplesSnapshot(getRecentWindowCounts());
+  }
+
+  private long[][] getRecentWindowCounts() {
+    rollWindows();
+
+    WindowCounts recent = recentCounts;
+
+    if (recent == null || recent.now != rolledNow) {
+      recent = getWindowCounts();
+      recentCounts = recent;
+    }
+
+    return recent.counts;
+  }
+
+  /** @return bucket counts for the minute, ten minute and hour windows, then all time */
+  private WindowCounts getWindowCounts() {
+    while (true) {
+      long now = rolledNow;
+      long[] allTime = getAllTimeCounts();
+      long[][] counts = new long[WINDOWS.length + 1][];
+      boolean complete = true;
+
+      for (int level = 0; level < WINDOWS.length && complete; ++level) {
+        long slot = Math.floorDiv(now - WINDOWS[level] + 1, SLOT_SECONDS[level]);
+
+        if (slot * SLOT_SECONDS[level] <= created) {
+          // nothing was recorded before the stat existed
+          counts[level] = allTime;
+        } else {
+          BucketCounts start = slotCounts.get(index(level, slot));
+
+          if (start.slot == slot) {
+            counts[level] = start.subtractFrom(allTime);
+          } else {
+            // a roll since reading rolledNow reused the slot
+            complete = false;
+          }
+        }
+      }
+
+      if (complete) {
+        counts[WINDOWS.length] = allTime;
+
+        return new WindowCounts(now, counts);
+      }
+    }
+  }
+
+  private long[] getAllTimeCounts() {
+    long[] counts = new long[BUCKETS];
+
+    for (int i = 0; i < STRIPES; ++i) {
+      AtomicLongArray stripe = stripes.get(i);
+
+      if (stripe != null) {
+        for (int bucket = 0; bucket < BUCKETS; ++bucket) {
+          counts[bucket] += stripe.get(bucket);
+        }
+      }
+    }
+
+    return counts;
+  }
+
+  private AtomicLongArray stripe() {
+    long id = Thread.currentThread().getId();
+    int index = (int) (id ^ (id >>> 16) ^ (id >>> 32)) & (STRIPES - 1);
+    AtomicLongArray stripe = stripes.get(index);
+
+    if (stripe == null) {
+      stripes.compareAndSet(index, null, new AtomicLongArray(BUCKETS));
+      stripe = stripes.get(index);
+    }
+
+    return stripe;
+  }
+
+  private void rollWindows() {
+    long now = clock.millis() / 1000;
+    long lastRoll = this.lastRoll.get();
+
+    if (now > lastRoll && this.lastRoll.compareAndSet(lastRoll, now)) {
+      roll(now);
+    }
+  }
+
+  private void roll(long now) {
+    synchronized (rollLock) {
+      // a later roll may have got the lock first
+      if (now <= rolledNow) {
+        return;
+      }
+
+      BucketCounts counts = null;
+
+      for (int level = 0; level < WINDOWS.length; ++level) {
+        long slot = now / SLOT_SECONDS[level];
+
+        // nothing was recorded since the last roll, so every slot start in between has the same
+        // counts
+        for (long next = Math.max(lastSlots[level] + 1, slot - SLOTS + 1); next <= slot; ++next) {
+          if (counts == null) {
+            counts = BucketCounts.trim(getAllTimeCounts());
+          }
+
+          slotCounts.set(index(level, next), counts.forSlot(next));
+        }
+
+        lastSlots[level] = slot;
+      }
+
+      rolledNow = now;
+    }
+  }
+
+  private static void checkPercentile(double percentile) {
+    if (percentile < 0 || percentile > 100) {
+      throw new IllegalArgumentException("percentile must be between 0 and 100: " + percentile);
+    }
+  }
+
+  private static Snapshot percentileSnapshot(long[][] counts, double percentile) {
+    return new Snapshot(
+        "percentile",
+        percentile(counts[3], percentile),
+        percentile(counts[2], percentile),
+        percentile(counts[1], percentile),
+        percentile(counts[0], percentile));
+  }
+
+  private static Snapshot samplesSnapshot(long[][] counts) {
+    return new Snapshot("samples", sum(counts[3]), sum(counts[2]), sum(counts[1]), sum(counts[0]));
+  }
+
+  static int bucket(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) Math.max(value, 0);
+    }
+
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+
+    return shift * SUB_BUCKETS + (int) (value >>> shift);
+  }
+
+  static long highestValue(int bucket) {
+    if (bucket < 2 * SUB_BUCKETS) {
+      return bucket;
+    }
+
+    int shift = bucket / SUB_BUCKETS - 1;
+    long subBucket = bucket - shift * SUB_BUCKETS;
+
+    // wraps to Long.MAX_VALUE for the last bucket
+    return ((subBucket + 1) << shift) - 1;
+  }
+
+  private static long percentile(long[] counts, double percentile) {
+    long total = sum(counts);
+
+    if (total == 0) {
+      return 0;
+    }
+
+    long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+    long seen = 0;
+
+    for (int bucket = 0; bucket < counts.length; ++bucket) {
+      seen += counts[bucket];
+
+      if (seen >= rank) {
+        return highestValue(bucket);
+      }
+    }
+
+    return highestValue(counts.length - 1);
+  }
+
+  private static long sum(long[] counts) {
+    long sum = 0;
+
+    for (long count : counts) {
+      sum += count;
+    }
+
+    return sum;
+  }
+
+  private static int index(int level, long slot) {
+    return level * SLOTS + (int) Math.floorMod(slot, (long) SLOTS);
+  }
+
+  /** bucket counts of each window as of a roll; not modified once built */
+  private static class WindowCounts {
+    private final long now;
+    private final long[][] counts;
+
+    private WindowCounts(long now, long[][] counts) {
+      this.now = now;
+      this.counts = counts;
+    }
+  }
+
+  /** all-time counts at the start of a slot, without the zero buckets at either end */
+  private static class BucketCounts {
+    private final long slot;
+    private final int offset;
+    private final long[] counts;
+
+    private BucketCounts(long slot, int offset, long[] counts) {
+      this.slot = slot;
+      this.offset = offset;
+      this.counts = counts;
+    }
+
+    private static BucketCounts trim(long[] counts) {
+      int first = 0;
+      int last = counts.length - 1;
+
+      while (first <= last && counts[first] == 0) {
+        ++first;
+      }
+
+      while (last >= first && counts[last] == 0) {
+        --last;
+      }
+
+      return new BucketCounts(0, first, Arrays.copyOfRange(counts, first, last + 1));
+    }
+
+    private BucketCounts forSlot(long slot) {
+      return new BucketCounts(slot, offset, counts);
+    }
+
+    private long[] subtractFrom(long[] allTime) {
+      long[] result = allTime.clone();
+
+      for (int i = 0; i < counts.length; ++i) {
+        result[offset + i] -= counts[i];
+      }
+
+      return result;
+    }
+  }
+}
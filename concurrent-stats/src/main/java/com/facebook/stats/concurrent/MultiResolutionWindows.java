@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.stats.concurrent;
+
+import static java.lang.Long.MAX_VALUE;
+import static java.lang.Long.MIN_VALUE;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
+
+/**
+ * History of a stat over the last hour, at a resolution that drops with age: 1-second slots for
+ * the minute window, 10-second slots for the ten minute window and 1-minute slots for the hour
+ * window. Each field is one flat long[] of 3 x 62 slots, so a stat costs 1.5 KB per field instead
+ * of a slot per second of the hour.
+ *
+ * <p>Totals and counts are stored as the all-time value at the end of a slot, so the sum over a
+ * window is a difference of two values. Min and max are stored per slot. The minute window is
+ * exact to the second; the ten minute and hour windows start on a slot boundary, so they cover up
+ * to 9 and 59 seconds more than their nominal length.
+ *
+ * <p>Rolls are serialized by a StampedLock. Queries never take it: they read optimistically, like
+ * a seqlock, and start over if a roll ran meanwhile. Rolls are once a second and short, so a
+ * scrape retries at most a handful of times and never holds up the thread doing the roll. The
+ * live values of the current second are read inside the same lock, so a query sees them and the
+ * slots as of one roll.
+ */
+class MultiResolutionWindows {
+  private static final int[] RESOLUTIONS = {1, 10, 60};
+  private static final int[] WINDOWS = {60, 600, 3600};
+  private static final int MINUTE = 0;
+  private static final int TEN_MINUTE = 1;
+  private static final int HOUR = 2;
+  // a window spans up to 61 slots, plus the slot holding the total at its start
+  private static final int SLOTS = 62;
+  // rolling further back than this would only overwrite slots a second time. The oldest slot
+  // written is older than any window, so it does not matter that it only covers part of its period
+  private static final long MAX_ROLL_SECONDS = SLOTS * 60L;
+
+  private final StampedLock lock = new StampedLock();
+  // guarded by lock
+  private final long[] totals = new long[RESOLUTIONS.length * SLOTS];
+  private final long[] counts;
+  private final long[] mins;
+  private final long[] maxes;
+  // the current second; every second before it has been recorded
+  private long now;
+  // over every second before now
+  private long allTimeMin = MAX_VALUE;
+  private long allTimeMax = MIN_VALUE;
+
+  /**
+   * @param now current time in seconds
+   * @param spread true to keep counts, min and max as well as totals
+   */
+  MultiResolutionWindows(long now, boolean spread) {
+    this.now = now;
+
+    if (spread) {
+      counts = new long[totals.length];
+      mins = new long[totals.length];
+      maxes = new long[totals.length];
+      Arrays.fill(mins, MAX_VALUE);
+      Arrays.fill(maxes, MIN_VALUE);
+    } else {
+      counts = null;
+      mins = null;
+      maxes = null;
+    }
+  }
+
+  /**
+   * ends the current second with the live values and moves on to newNow; the seconds in between
+   * had no updates. Does nothing if a later roll got there first.
+   *
+   * @param count null unless spread
+   * @param min min of the current second, reset here; null unless spread
+   * @param max max of the current second, reset here; null unless spread
+   */
+  void roll(
+      long newNow, LongAdder total, LongAdder count, StripedExtreme min, StripedExtreme max) {
+    long stamp = lock.writeLock();
+
+    try {
+      if (newNow <= now) {
+        return;
+      }
+
+      long totalValue = total.sum();
+      long countValue = count == null ? 0 : count.sum();
+      long minValue = min == null ? MAX_VALUE : min.getThenReset();
+      long maxValue = max == null ? MIN_VALUE : max.getThenReset();
+      long first = Math.max(now, newNow - MAX_ROLL_SECONDS);
+
+      for (long second = first; second < newNow; ++second) {
+        boolean updated = second == now;
+
+        record(
+            second,
+            totalValue,
+            countValue,
+            updated ? minValue : MAX_VALUE,
+            updated ? maxValue : MIN_VALUE);
+      }
+
+      allTimeMin = Math.min(allTimeMin, minValue);
+      allTimeMax = Math.max(allTimeMax, maxValue);
+      now = newNow;
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  Snapshot getTotal(String type, LongAdder total) {
+    return read(() -> difference(type, total.sum(), totals, now));
+  }
+
+  Snapshot getCount(String type, LongAdder count) {
+    return read(() -> difference(type, count.sum(), counts, now));
+  }
+
+  Snapshot getAverage(LongAdder total, LongAdder count) {
+    return read(
+        () -> {
+          long now = this.now;
+          Snapshot sum = difference("sum", total.sum(), totals, now);
+          Snapshot samples = difference("samples", count.sum(), counts, now);
+
+          return new Snapshot(
+              "average",
+              average(sum.getAllTime(), samples.getAllTime()),
+              average(sum.getHour(), samples.getHour()),
+              average(sum.getTenMinute(), samples.getTenMinute()),
+              average(sum.getMinute(), samples.getMinute()));
+        });
+  }
+
+  /** @param currentMin min of the current second */
+  Snapshot getMin(StripedExtreme currentMin) {
+    return read(
+        () -> {
+          long now = this.now;
+          long current = currentMin.get();
+          long minute = fold(MINUTE, current, true, now);
+          long tenMinute = fold(TEN_MINUTE, current, true, now);
+          long hour = fold(HOUR, current, true, now);
+
+          return new Snapshot("min", Math.min(allTimeMin, hour), hour, tenMinute, minute);
+        });
+  }
+
+  /** @param currentMax max of the current second */
+  Snapshot getMax(StripedExtreme currentMax) {
+    return read(
+        () -> {
+          long now = this.now;
+          long current = currentMax.get();
+          long minute = fold(MINUTE, current, false, now);
+          long tenMinute = fold(TEN_MINUTE, current, false, now);
+          long hour = fold(HOUR, current, false, now);
+
+          return new Snapshot("max", Math.max(allTimeMax, hour), hour, tenMinute, minute);
+        });
+  }
+
+  /**
+   * runs query until no roll overlaps it. The query may see a roll half done, so it must read now
+   * once and not fail on inconsistent values; these are thrown away.
+   */
+  private <T> T read(Supplier<T> query) {
+    while (true) {
+      long stamp = lock.tryOptimisticRead();
+
+      if (stamp != 0) {
+        T result = query.get();
+
+        if (lock.validate(stamp)) {
+          return result;
+        }
+      }
+
+      Thread.yield();
+    }
+  }
+
+  private void record(long second, long total, long count, long min, long max) {
+    for (int level = 0; level < RESOLUTIONS.length; ++level) {
+      int index = index(level, second / RESOLUTIONS[level]);
+
+      totals[index] = total;
+
+      if (counts != null) {
+        boolean newSlot = second % RESOLUTIONS[level] == 0;
+
+        counts[index] = count;
+        mins[index] = newSlot ? min : Math.min(mins[index], min);
+        maxes[index] = newSlot ? max : Math.max(maxes[index], max);
+      }
+    }
+  }
+
+  private static Snapshot difference(String type, long value, long[] values, long now) {
+    return new Snapshot(
+        type,
+        value,
+        value - values[index(HOUR, firstSlot(HOUR, now) - 1)],
+        value - values[index(TEN_MINUTE, firstSlot(TEN_MINUTE, now) - 1)],
+        value - values[index(MINUTE, firstSlot(MINUTE, now) - 1)]);
+  }
+
+  private long fold(int level, long current, boolean min, long now) {
+    long[] values = min ? mins : maxes;
+    long result = current;
+    long lastSlot = (now - 1) / RESOLUTIONS[level];
+
+    for (long slot = firstSlot(level, now); slot <= lastSlot; ++slot) {
+      long value = values[index(level, slot)];
+
+      result = min ? Math.min(result, value) : Math.max(result, value);
+    }
+
+    return result;
+  }
+
+  /** @return the oldest slot in the window, i.e. the first that starts after now - window */
+  private static long firstSlot(int level, long now) {
+    return (now - WINDOWS[level] + 1) / RESOLUTIONS[level];
+  }
+
+  private static int index(int level, long slot) {
+    return level * SLOTS + (int) Math.floorMod(slot, (long) SLOTS);
+  }
+
+  private static long average(long total, long count) {
+    return count <= 0 ? 0 : total / count;
+  }
+}
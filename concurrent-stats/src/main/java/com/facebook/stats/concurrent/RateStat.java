@@ -21,24 +21,21 @@ import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Computes sum and per-second rate with the ability to compute "till-now" rates over the last hour.
- * Uses a circular array where each element contains the all-time count at the end of a 1-second
- * window. The total sum over a given time range is computed by taking the difference between two
- * elements. Since old elements are removed on 1-second boundaries, there can be a slight over
+ * Keeps the all-time count at the end of each window slot in a {@link MultiResolutionWindows}:
+ * 1-second slots for the last minute, 10-second slots for the last ten minutes and 1-minute slots
+ * for the last hour. The total sum over a given time range is computed by taking the difference
+ * between two slots. Since old elements are removed on slot boundaries, there can be a slight over
  * estimate of the rate: in the average case of a fairly consistent rate, this is less than 1% for
- * the 1 minute rate.
+ * the 1 minute rate and 1.5% for the 10 minute and hour rates.
  */
 public class RateStat implements Stat {
-  private static final int WINDOW_COUNT = 3601;
-
   private final String key;
   private final Clock clock;
   private final long created;
   private final AtomicLong lastRoll;
-  private final long[] rollingWindows = new long[WINDOW_COUNT];
+  private final MultiResolutionWindows rollingWindows;
   private final LongAdder total = new LongAdder();
 
-  private int currentOffset;
-
   public RateStat(String key) {
     this(key, Clock.systemUTC());
   }
@@ -48,6 +45,7 @@ public class RateStat implements Stat {
     this.clock = clock;
     created = clock.millis() / 1000;
     lastRoll = new AtomicLong(created);
+    rollingWindows = new MultiResolutionWindows(created, false);
   }
 
   @Override
@@ -68,44 +66,15 @@ public class RateStat implements Stat {
   public Snapshot getSum() {
     rollWindows();
 
-    synchronized (rollingWindows) {
-      long total = this.total.sum();
-      int offset = currentOffset + WINDOW_COUNT;
-
-      return new Snapshot(
-          "sum",
-          total,
-          total - rollingWindows[(offset - 3600) % WINDOW_COUNT],
-          total - rollingWindows[(offset - 600) % WINDOW_COUNT],
-          total - rollingWindows[(offset - 60) % WINDOW_COUNT]);
-    }
+    return rollingWindows.getTotal("sum", total);
   }
 
   private void rollWindows() {
     long now = clock.millis() / 1000;
     long lastRoll = this.lastRoll.get();
-    //noinspection NumericCastThatLosesPrecision
-    int elapsed = (int) (now - lastRoll);
-
-    if (elapsed >= 1 && this.lastRoll.compareAndSet(lastRoll, now)) {
-      long total = this.total.sum();
-
-      if (elapsed > WINDOW_COUNT) {
-        elapsed = WINDOW_COUNT;
-      }
-
-      synchronized (rollingWindows) {
-        do {
-          --elapsed;
-          rollingWindows[currentOffset] = total;
 
-          if (currentOffset >= WINDOW_COUNT - 1) {
-            currentOffset = 0;
-          } else {
-            ++currentOffset;
-          }
-        } while (elapsed > 0);
-      }
+    if (now > lastRoll && this.lastRoll.compareAndSet(lastRoll, now)) {
+      rollingWindows.roll(now, total, null, null, null);
     }
   }
 }
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2018 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.stats.concurrent;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * min or max of the values in the current second, striped like a LongAdder so concurrent updates
+ * do not all retry on one CAS. Unlike LongAccumulator.getThenReset(), which reads and resets the
+ * cells in separate steps, getThenReset() takes each cell with one getAndSet(), so a sample is
+ * never lost: one that lands in a cell after it was taken counts towards the next second.
+ */
+class StripedExtreme {
+  private static final int STRIPES =
+      Integer.highestOneBit(Math.min(Runtime.getRuntime().availableProcessors(), 8));
+  // one cell per 64 byte cache line, so updates to different stripes do not contend either
+  private static final int PADDING = 8;
+
+  private final boolean min;
+  private final long identity;
+  private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+  /** @param min true to keep the min of the values, false for the max */
+  StripedExtreme(boolean min) {
+    this.min = min;
+    identity = min ? Long.MAX_VALUE : Long.MIN_VALUE;
+
+    for (int i = 0; i < STRIPES; ++i) {
+      cells.set(i * PADDING, identity);
+    }
+  }
+
+  void accumulate(long value) {
+    int index = stripe() * PADDING;
+    long current = cells.get(index);
+
+    // once a second has seen a few samples, most values do not beat the extreme and never write
+    while (isBetter(value, current) && !cells.compareAndSet(index, current, value)) {
+      current = cells.get(index);
+    }
+  }
+
+  /** @return the extreme so far; MAX_VALUE for a min or MIN_VALUE for a max if there is none */
+  long get() {
+    long result = identity;
+
+    for (int i = 0; i < STRIPES; ++i) {
+      result = pick(result, cells.get(i * PADDING));
+    }
+
+    return result;
+  }
+
+  /** @return the extreme so far, starting over from no values */
+  long getThenReset() {
+    long result = identity;
+
+    for (int i = 0; i < STRIPES; ++i) {
+      result = pick(result, cells.getAndSet(i * PADDING, identity));
+    }
+
+    return result;
+  }
+
+  private boolean isBetter(long value, long current) {
+    return min ? value < current : value > current;
+  }
+
+  private long pick(long a, long b) {
+    return isBetter(b, a) ? b : a;
+  }
+
+  private static int stripe() {
+    long id = Thread.currentThread().getId();
+
+    return (int) (id ^ (id >>> 16) ^ (id >>> 32)) & (STRIPES - 1);
+  }
+}
@@ -22,7 +22,7 @@ import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
 
 class MockClock extends Clock {
-  private ZonedDateTime now;
+  private volatile ZonedDateTime now;
 
   MockClock(ZonedDateTime now) {
     this.now = now;
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2018 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.stats.concurrent;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TestHistogramStat {
+  private static final ZonedDateTime START = ZonedDateTime.parse("2014-08-22T01:02:03.123Z");
+
+  private MockClock clock;
+
+  @BeforeMethod(alwaysRun = true)
+  private void setUp() {
+    clock = new MockClock(START);
+  }
+
+  @Test
+  public void testBuckets() {
+    Random random = new Random(0);
+    int lastBucket = -1;
+
+    for (long value = 0; value < 10_000; ++value) {
+      int bucket = HistogramStat.bucket(value);
+
+      Assert.assertTrue(bucket == lastBucket || bucket == lastBucket + 1, "value " + value);
+      Assert.assertTrue(HistogramStat.highestValue(bucket) >= value);
+      lastBucket = bucket;
+    }
+
+    for (int i = 0; i < 10_000; ++i) {
+      long value = random.nextLong() >>> (1 + random.nextInt(63));
+      long highest = HistogramStat.highestValue(HistogramStat.bucket(value));
+
+      Assert.assertTrue(highest >= value && highest - value <= value / 32, "value " + value);
+    }
+
+    Assert.assertEquals(HistogramStat.bucket(-5), 0);
+    Assert.assertEquals(HistogramStat.bucket(Long.MAX_VALUE), HistogramStat.BUCKETS - 1);
+    Assert.assertEquals(HistogramStat.highestValue(HistogramStat.BUCKETS - 1), Long.MAX_VALUE);
+  }
+
+  @Test
+  public void testPercentiles() {
+    HistogramStat stat = new HistogramStat("hs-test", clock);
+
+    assertPercentile(stat, 50, 0, 0, 0, 0);
+
+    for (int value = 1; value <= 1000; ++value) {
+      stat.update(value);
+    }
+
+    assertPercentile(stat, 0, 1, 1, 1, 1);
+    assertPercentile(stat, 50, 503, 503, 503, 503);
+    assertPercentile(stat, 99, 991, 991, 991, 991);
+    assertPercentile(stat, 99.9, 1007, 1007, 1007, 1007);
+    assertPercentile(stat, 100, 1007, 1007, 1007, 1007);
+    assertSamples(stat, 1000, 1000, 1000, 1000);
+  }
+
+  @Test
+  public void testWindows() {
+    HistogramStat stat = new HistogramStat("hs-test", clock);
+
+    for (int i = 0; i < 100; ++i) {
+      stat.update(10);
+    }
+
+    clock.advanceMillis(30_000);
+    assertSamples(stat, 100, 100, 100, 100);
+    // the minute window now starts on the 10 second boundary after the updates
+    clock.advanceMillis(40_000);
+    assertSamples(stat, 0, 100, 100, 100);
+    assertPercentile(stat, 50, 0, 10, 10, 10);
+
+    for (int i = 0; i < 10; ++i) {
+      stat.update(1000);
+    }
+
+    clock.advanceMillis(60_000);
+    assertSamples(stat, 10, 110, 110, 110);
+    assertPercentile(stat, 50, 1007, 10, 10, 10);
+    assertPercentile(stat, 99, 1007, 1007, 1007, 1007);
+
+    // an idle stretch longer than any window
+    clock.advanceMillis(2 * 3600 * 1000);
+    assertSamples(stat, 0, 0, 0, 110);
+    stat.update(5);
+    clock.advanceMillis(700_000);
+    assertSamples(stat, 0, 0, 1, 111);
+  }
+
+  @Test
+  public void testConcurrentUpdates() throws Exception {
+    HistogramStat stat = new HistogramStat("hs-test", clock);
+    List<Thread> threads = new ArrayList<>();
+
+    for (int i = 0; i < 8; ++i) {
+      threads.add(
+          new Thread(
+              () -> {
+                for (int value = 0; value < 10_000; ++value) {
+                  stat.update(value);
+                }
+              }));
+    }
+
+    threads.forEach(Thread::start);
+
+    for (int i = 0; i < 100; ++i) {
+      clock.advanceMillis(1_000);
+      stat.getSamples();
+    }
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    Assert.assertEquals(stat.getSamples().getAllTime(), 80_000);
+  }
+
+  @Test
+  public void testRecentCountsComputedOncePerSecond() {
+    HistogramStat stat = new HistogramStat("hs-test", clock);
+
+    stat.update(10);
+    Assert.assertEquals(stat.getRecentSamples().getMinute(), 1);
+    stat.update(1000);
+    // same second: the counts are reused, unlike the exact getters
+    Assert.assertEquals(stat.getRecentSamples().getMinute(), 1);
+    Assert.assertEquals(stat.getRecentPercentile(100).getMinute(), 10);
+    assertSamples(stat, 2, 2, 2, 2);
+    assertPercentile(stat, 100, 1007, 1007, 1007, 1007);
+    clock.advanceMillis(1_000);
+    Assert.assertEquals(stat.getRecentSamples(), stat.getSamples());
+    Assert.assertEquals(stat.getRecentPercentile(100), stat.getPercentile(100));
+  }
+
+  private static void assertPercentile(
+      HistogramStat stat,
+      double percentile,
+      long minute,
+      long tenMinute,
+      long hour,
+      long allTime) {
+    Assert.assertEquals(
+        stat.getPercentile(percentile),
+        new Snapshot("percentile", allTime, hour, tenMinute, minute));
+  }
+
+  private static void assertSamples(
+      HistogramStat stat, long minute, long tenMinute, long hour, long allTime) {
+    Assert.assertEquals(
+        stat.getSamples(), new Snapshot("samples", allTime, hour, tenMinute, minute));
+  }
+}
@@ -125,11 +125,14 @@ public class TestRateStat {
       }
 
       values.addFirst(value);
+
+      long now = clock.instant().getEpochSecond();
+
       assertSum(
           rateStat,
-          values.stream().limit(60).mapToLong(Integer::longValue).sum(),
-          values.stream().limit(600).mapToLong(Integer::longValue).sum(),
-          values.stream().limit(3600).mapToLong(Integer::longValue).sum(),
+          values.stream().limit(windowSeconds(now, 60)).mapToLong(Integer::longValue).sum(),
+          values.stream().limit(windowSeconds(now, 600)).mapToLong(Integer::longValue).sum(),
+          values.stream().limit(windowSeconds(now, 3600)).mapToLong(Integer::longValue).sum(),
           values.stream().mapToLong(Integer::valueOf).sum());
       clock.advanceMillis(1_000);
     }
@@ -142,8 +145,15 @@ public class TestRateStat {
     for (int i = 1; i < 10_000; ++i) {
       clock.advanceMillis(1_000);
       rateStat.update(10);
+
+      long now = clock.instant().getEpochSecond();
+
       assertSum(
-          rateStat, 10 * Math.min(i, 60), 10 * Math.min(i, 600), 10 * Math.min(i, 3600), 10 * i);
+          rateStat,
+          10 * Math.min(i, windowSeconds(now, 60)),
+          10 * Math.min(i, windowSeconds(now, 600)),
+          10 * Math.min(i, windowSeconds(now, 3600)),
+          10 * i);
       assertRate(rateStat, 10, 10, 10, 10);
     }
   }
@@ -159,9 +169,28 @@ public class TestRateStat {
       rateStat.update(10);
     }
 
-    assertSum(rateStat, 600, 6000, 36_000, 100_000);
+    long now = clock.instant().getEpochSecond();
+
+    assertSum(
+        rateStat, 600, 10 * windowSeconds(now, 600), 10 * windowSeconds(now, 3600), 100_000);
     clock.advanceMillis(10_000);
-    assertSum(rateStat, 500, 5900, 35_900, 100_000);
+    now += 10;
+    assertSum(
+        rateStat,
+        500,
+        10 * (windowSeconds(now, 600) - 10),
+        10 * (windowSeconds(now, 3600) - 10),
+        100_000);
+  }
+
+  /**
+   * @return length of the window of the given nominal length ending now: the 10 minute and hour
+   *     windows start on a 10 second and a 1 minute boundary, respectively
+   */
+  private static int windowSeconds(long now, int window) {
+    int resolution = window == 3600 ? 60 : window == 600 ? 10 : 1;
+
+    return (int) (now - Math.floorDiv(now - window + 1, resolution) * resolution + 1);
   }
 
   private void assertSum(RateStat rateStat, long minute, long tenMinute, long hour, long allTime) {
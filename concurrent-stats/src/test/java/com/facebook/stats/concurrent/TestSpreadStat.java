@@ -23,6 +23,9 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import java.util.stream.Stream;
 import org.testng.Assert;
@@ -174,6 +177,27 @@ public class TestSpreadStat {
     }
   }
 
+  @Test
+  public void testLongGap() {
+    // slots not rewritten since before the gap must not leak into the new windows
+    SpreadTest test = new SpreadTest();
+    Random random = new Random(0);
+
+    for (int round = 0; round < 3; ++round) {
+      for (int i = 0; i < 4_000; ++i) {
+        test.update(random.nextInt(100));
+        test.advanceMillis(random.nextInt(2_000));
+      }
+
+      test.advanceMillis(2 * 3600 * 1000 + random.nextInt(60_000));
+      test.update(random.nextInt(100));
+      test.assertStats();
+      test.advanceMillis(37_000);
+      test.update(random.nextInt(100));
+      test.assertStats();
+    }
+  }
+
   @Test
   public void testTrivialLongRunning() {
     SpreadTest test = new SpreadTest();
@@ -181,11 +205,16 @@ public class TestSpreadStat {
     for (int i = 1; i < 10_000; ++i) {
       test.advanceMillis(1_000);
       test.update(10);
-      test.assertSum(10 * Math.min(i, 60), 10 * Math.min(i, 600), 10 * Math.min(i, 3600), 10 * i);
+
+      int minute = Math.min(i, test.windowSeconds(60));
+      int tenMinute = Math.min(i, test.windowSeconds(600));
+      int hour = Math.min(i, test.windowSeconds(3600));
+
+      test.assertSum(10 * minute, 10 * tenMinute, 10 * hour, 10 * i);
       test.assertRate(10, 10, 10, 10);
       test.assertMax(10, 10, 10, 10);
       test.assertAverage(10, 10, 10, 10);
-      test.assertSamples(Math.min(i, 60), Math.min(i, 600), Math.min(i, 3600), i);
+      test.assertSamples(minute, tenMinute, hour, i);
     }
   }
 
@@ -200,9 +229,111 @@ public class TestSpreadStat {
       test.update(10);
     }
 
-    test.assertSum(600, 6000, 36_000, 100_000);
+    test.assertSum(600, 10 * test.windowSeconds(600), 10 * test.windowSeconds(3600), 100_000);
     test.advanceMillis(10_000);
-    test.assertSum(500, 5900, 35_900, 100_000);
+    test.assertSum(
+        500, 10 * (test.windowSeconds(600) - 10), 10 * (test.windowSeconds(3600) - 10), 100_000);
+  }
+
+  @Test
+  public void testConcurrentScrapes() throws Exception {
+    // scrapes racing the rolls must see each second either in the live values or in the slots
+    MockClock clock = new MockClock(ZonedDateTime.parse("2014-08-22T01:02:03.123Z"));
+    SpreadStat spreadStat = new SpreadStat("spread-test", clock);
+    AtomicBoolean done = new AtomicBoolean(false);
+    AtomicLong updates = new AtomicLong(1);
+    List<Thread> threads = new ArrayList<>();
+    List<Throwable> failures = new CopyOnWriteArrayList<>();
+
+    spreadStat.update(50);
+
+    for (int i = 0; i < 2; ++i) {
+      threads.add(
+          new Thread(
+              () -> {
+                for (long value = 0; !done.get(); ++value) {
+                  spreadStat.update(1 + value % 100);
+                  updates.incrementAndGet();
+                }
+              }));
+      threads.add(
+          new Thread(
+              () -> {
+                try {
+                  while (!done.get()) {
+                    long minute = spreadStat.getMin().getMinute();
+                    long max = spreadStat.getMax().getMinute();
+
+                    Assert.assertTrue(minute >= 1 && minute <= 50, "min " + minute);
+                    Assert.assertTrue(max >= 50 && max <= 100, "max " + max);
+                  }
+                } catch (Throwable t) {
+                  failures.add(t);
+                }
+              }));
+    }
+
+    threads.forEach(Thread::start);
+
+    // an update every second keeps the minute window from ever being empty
+    for (int i = 0; i < 5_000; ++i) {
+      clock.advanceMillis(1_000);
+      spreadStat.update(50);
+      updates.incrementAndGet();
+    }
+
+    done.set(true);
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    Assert.assertEquals(failures, new ArrayList<>());
+    Assert.assertEquals(spreadStat.getSamples().getAllTime(), updates.get());
+  }
+
+  @Test
+  public void testExtremesSurviveConcurrentRolls() throws Exception {
+    // each round writes a new min and max while the windows are rolling; none may be lost
+    MockClock clock = new MockClock(ZonedDateTime.parse("2014-08-22T01:02:03.123Z"));
+    SpreadStat spreadStat = new SpreadStat("spread-test", clock);
+    int rounds = 5_000;
+    AtomicLong round = new AtomicLong(0);
+    AtomicLong written = new AtomicLong(0);
+    Thread writer =
+        new Thread(
+            () -> {
+              for (long value = 1; value <= rounds; ++value) {
+                while (round.get() < value) {
+                  Thread.yield();
+                }
+
+                spreadStat.update(-value);
+                spreadStat.update(value);
+                written.set(value);
+              }
+            });
+
+    writer.start();
+
+    try {
+      for (long value = 1; value <= rounds; ++value) {
+        round.set(value);
+
+        while (written.get() < value) {
+          clock.advanceMillis(1_000);
+          spreadStat.getSum();
+          Thread.yield();
+        }
+
+        clock.advanceMillis(1_000);
+        Assert.assertEquals(spreadStat.getMin().getAllTime(), -value);
+        Assert.assertEquals(spreadStat.getMax().getAllTime(), value);
+      }
+    } finally {
+      round.set(rounds);
+      writer.join();
+    }
   }
 
   private static class SpreadTest {
@@ -272,6 +403,17 @@ public class TestSpreadStat {
       Assert.assertEquals(actual, expected, "max @ " + elapsedSeconds());
     }
 
+    /**
+     * @return length of the window of the given nominal length ending now: the 10 minute and hour
+     *     windows start on a 10 second and a 1 minute boundary, respectively
+     */
+    int windowSeconds(int window) {
+      long now = clock.instant().getEpochSecond();
+      int resolution = window == 3600 ? 60 : window == 600 ? 10 : 1;
+
+      return (int) (now - Math.floorDiv(now - window + 1, resolution) * resolution + 1);
+    }
+
     private long elapsedSeconds() {
       return (clock.millis() - START.toInstant().toEpochMilli()) / 1000;
     }
@@ -283,7 +425,7 @@ public class TestSpreadStat {
       Stream<Sample> samples = this.samples.stream();
 
       if (secondsAgo != null) {
-        long then = now - secondsAgo;
+        long then = now - windowSeconds(secondsAgo);
 
         if (elapsedSeconds > secondsAgo) {
           elapsedSeconds = secondsAgo;
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.memory;
+
+import java.nio.ByteOrder;
+import sun.misc.Unsafe;
+
+/**
+ * byte[] comparisons that read 8 bytes at a time through Unsafe long views and only fall back to
+ * single bytes for the tail. Bounds are checked once up front, never per word.
+ */
+public class UnsafeByteArrays {
+  private static final Unsafe UNSAFE = UnsafeAccessor.get();
+  private static final long BYTE_ARRAY_BASE_OFFSET = UNSAFE.arrayBaseOffset(byte[].class);
+  private static final boolean LITTLE_ENDIAN =
+      ByteOrder.nativeOrder().equals(ByteOrder.LITTLE_ENDIAN);
+
+  private UnsafeByteArrays() {
+    throw new AssertionError();
+  }
+
+  /**
+   * finds the first position where the two ranges differ
+   *
+   * @return relative index of the first mismatching byte in [0, length), or -1 if the ranges are
+   *     equal
+   * @throws ArrayIndexOutOfBoundsException if either range is outside of its array
+   */
+  public static int mismatch(byte[] array1, int offset1, byte[] array2, int offset2, int length) {
+    checkRange(array1, offset1, length);
+    checkRange(array2, offset2, length);
+
+    long address1 = BYTE_ARRAY_BASE_OFFSET + offset1;
+    long address2 = BYTE_ARRAY_BASE_OFFSET + offset2;
+    int wordLimit = length & ~7;
+    int i = 0;
+
+    for (; i < wordLimit; i += 8) {
+      long word1 = UNSAFE.getLong(array1, address1 + i);
+      long word2 = UNSAFE.getLong(array2, address2 + i);
+
+      if (word1 != word2) {
+        long diff = word1 ^ word2;
+        // the lowest addressed byte is the least significant one on little endian machines
+        int bitIndex =
+            LITTLE_ENDIAN ? Long.numberOfTrailingZeros(diff) : Long.numberOfLeadingZeros(diff);
+
+        return i + (bitIndex >>> 3);
+      }
+    }
+
+    for (; i < length; i++) {
+      if (array1[offset1 + i] != array2[offset2 + i]) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * lexicographic comparison treating each byte as unsigned (0x00 < 0x7f < 0x80 < 0xff). A proper
+   * prefix sorts before the longer range.
+   *
+   * @return negative, zero or positive as range 1 is less than, equal to or greater than range 2
+   */
+  public static int compareUnsigned(
+      byte[] array1, int offset1, int length1, byte[] array2, int offset2, int length2) {
+    int minLength = Math.min(length1, length2);
+    int index = mismatch(array1, offset1, array2, offset2, minLength);
+
+    if (index >= 0) {
+      return (array1[offset1 + index] & 0xFF) - (array2[offset2 + index] & 0xFF);
+    }
+
+    return length1 - length2;
+  }
+
+  public static int compareUnsigned(byte[] array1, byte[] array2) {
+    return compareUnsigned(array1, 0, array1.length, array2, 0, array2.length);
+  }
+
+  /**
+   * lexicographic comparison treating each byte as signed (0x80 < 0xff < 0x00 < 0x7f), the ordering
+   * of {@link Byte#compare(byte, byte)}. A proper prefix sorts before the longer range.
+   *
+   * @return negative, zero or positive as range 1 is less than, equal to or greater than range 2
+   */
+  public static int compareSigned(
+      byte[] array1, int offset1, int length1, byte[] array2, int offset2, int length2) {
+    int minLength = Math.min(length1, length2);
+    int index = mismatch(array1, offset1, array2, offset2, minLength);
+
+    if (index >= 0) {
+      return array1[offset1 + index] - array2[offset2 + index];
+    }
+
+    return length1 - length2;
+  }
+
+  public static int compareSigned(byte[] array1, byte[] array2) {
+    return compareSigned(array1, 0, array1.length, array2, 0, array2.length);
+  }
+
+  private static void checkRange(byte[] array, int offset, int length) {
+    if (offset < 0 || length < 0 || offset > array.length - length) {
+      throw new ArrayIndexOutOfBoundsException(
+          String.format(
+              "range [%d, %d) outside of array of length %d",
+              offset, offset + length, array.length));
+    }
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.memory;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestUnsafeByteArrays {
+  @Test(groups = "fast")
+  public void testMismatchEveryPosition() throws Exception {
+    byte[] base = new byte[37];
+
+    for (int i = 0; i < base.length; i++) {
+      base[i] = (byte) (i * 7);
+    }
+
+    Assert.assertEquals(UnsafeByteArrays.mismatch(base, 0, base.clone(), 0, base.length), -1);
+
+    for (int i = 0; i < base.length; i++) {
+      byte[] other = base.clone();
+
+      other[i]++;
+      Assert.assertEquals(UnsafeByteArrays.mismatch(base, 0, other, 0, base.length), i);
+    }
+  }
+
+  @Test(groups = "fast")
+  public void testMismatchWithOffsets() throws Exception {
+    byte[] array1 = "__abcdefghijklmnop".getBytes();
+    byte[] array2 = "abcdefghijklmnoX".getBytes();
+
+    Assert.assertEquals(UnsafeByteArrays.mismatch(array1, 2, array2, 0, 15), -1);
+    Assert.assertEquals(UnsafeByteArrays.mismatch(array1, 2, array2, 0, 16), 15);
+  }
+
+  @Test(groups = "fast")
+  public void testCompare() throws Exception {
+    byte[] low = {1, 2, 3, 4, 5, 6, 7, 8, 9, 0x10};
+    byte[] high = {1, 2, 3, 4, 5, 6, 7, 8, 9, (byte) 0xf0};
+    byte[] prefix = {1, 2, 3, 4, 5, 6, 7, 8, 9};
+
+    Assert.assertTrue(UnsafeByteArrays.compareUnsigned(low, high) < 0);
+    Assert.assertTrue(UnsafeByteArrays.compareSigned(low, high) > 0);
+    Assert.assertTrue(UnsafeByteArrays.compareUnsigned(prefix, low) < 0);
+    Assert.assertTrue(UnsafeByteArrays.compareSigned(high, prefix) > 0);
+    Assert.assertEquals(UnsafeByteArrays.compareUnsigned(low, low.clone()), 0);
+  }
+
+  @Test(groups = "fast", expectedExceptions = ArrayIndexOutOfBoundsException.class)
+  public void testRangeChecked() throws Exception {
+    UnsafeByteArrays.mismatch(new byte[8], 1, new byte[8], 0, 8);
+  }
+}
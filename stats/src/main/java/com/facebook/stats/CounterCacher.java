@@ -15,7 +15,13 @@
  */
 package com.facebook.stats;
 
+import com.google.common.base.Preconditions;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -25,7 +31,7 @@ import java.util.logging.Logger;
  * When your thrift service initializes:
  *
  *   this.counterCacher = new CounterCacher(this);
- *   this.counterCacher.run();
+ *   this.counterCacher.start();
  *
  * Then implement getCounters() as something like:
  *
@@ -37,73 +43,54 @@ import java.util.logging.Logger;
  * makeCounters(), and have it call super.makeCounters() so that fb303 can
  * do the same.
  *
+ * Each run makes a new CounterSnapshot only if a counter changed, so a
+ * reporter can keep the last snapshot it sent and send just the changes:
+ *
+ *   CounterSnapshot snapshot = counterCacher.getSnapshot();
+ *
+ *   if (snapshot.getVersion() != sent.getVersion()) {
+ *     send(snapshot.getChangedSince(sent), snapshot.getRemovedSince(sent));
+ *     sent = snapshot;
+ *   }
+ *
+ * Many cachers can share one thread by passing them the same
+ * ScheduledExecutorService; otherwise each starts its own.
  */
 
 public class CounterCacher {
+  private static final Logger LOG = Logger.getLogger(CounterCacher.class.getCanonicalName());
+
   private static class ThreadFactory implements java.util.concurrent.ThreadFactory {
-    long count = 0;
+    private final AtomicLong count = new AtomicLong(0);
 
     @Override
     public Thread newThread(Runnable r) {
-      count++;
-      return new Thread(threadGroup, r, threadGroup.getName() + "-" + count);
-    }
-  }
-
-  private class CounterCacherRunner implements Runnable {
-    private final long minWait;
-    private final long maxWait;
-
-    public CounterCacherRunner(long minWait, long maxWait) {
-      this.minWait = minWait;
-      this.maxWait = maxWait;
-    }
-
-    @Override
-    public void run() {
-      Logger log = Logger.getLogger(CounterCacher.class.getCanonicalName());
-      wantRunning = true;
-      running = true;
-
-      log.log(Level.INFO, "Cacheing counters every " + minWait + " - " + maxWait + " msec");
-
-      try {
-        while (wantRunning) {
-          try {
-            long startTime = System.currentTimeMillis();
-            counters = reporter.makeCounters();
-            Thread.sleep(minWait);
-            long runTime = System.currentTimeMillis() - startTime;
-            long remainingWait = maxWait - runTime;
-            if (remainingWait > 0) {
-              Thread.sleep(remainingWait);
-            }
-          } catch (InterruptedException iex) {
-            wantRunning = false;
-          }
-        }
-      } catch (RuntimeException rex) {
-        log.log(Level.SEVERE, "RuntimeException thrown while running makeCounters()", rex);
-      } finally {
-        running = false;
-      }
+      return new Thread(threadGroup, r, threadGroup.getName() + "-" + count.incrementAndGet());
     }
   }
 
   private static final ThreadGroup threadGroup = new ThreadGroup("CounterCacher");
   private static final ThreadFactory threadFactory = new ThreadFactory();
 
-  private volatile Thread thread;
-  private final Runnable runnable;
   private final FacebookStatsReporter reporter;
+  private final ScheduledExecutorService sharedExecutor;
+  private final long minWait;
+  private final long maxWait;
 
-  private volatile boolean running = false;
-  private volatile boolean wantRunning = false;
+  // guarded by this
+  private ScheduledExecutorService executor;
+  private ScheduledFuture<?> future;
+  private boolean running = false;
+  // runs scheduled before the last start() stop rescheduling themselves
+  private long generation = 0;
 
-  private volatile Map<String, Long> counters;
+  // written under this, read without it
+  private volatile CounterSnapshot snapshot = CounterSnapshot.EMPTY;
 
   /**
    * @param FacebookStatsReporter Your service
+   * @param executor runs makeCounters; may be shared by many cachers. null to start a thread of
+   *     this cacher's own
    * @param long minWait Minimum time to wait between calls to makeCounters (default=1000, or 1s)
    * @param long maxWait Maximum time to wait between calls to makeCounters (default=1000, or 1s)
    *     <p>Example:
@@ -111,9 +98,20 @@ public class CounterCacher {
    *     seconds then there will be an 8 second delay between calls. If it takes 15 seconds to make
    *     your counters, there will be a 1 second delay.
    */
-  public CounterCacher(FacebookStatsReporter reporter, long minWait, long maxWait) {
-    runnable = new CounterCacherRunner(minWait, maxWait);
+  public CounterCacher(
+      FacebookStatsReporter reporter,
+      ScheduledExecutorService executor,
+      long minWait,
+      long maxWait) {
+    Preconditions.checkArgument(minWait >= 0, "minWait must be >= 0");
     this.reporter = reporter;
+    this.sharedExecutor = executor;
+    this.minWait = minWait;
+    this.maxWait = maxWait;
+  }
+
+  public CounterCacher(FacebookStatsReporter reporter, long minWait, long maxWait) {
+    this(reporter, null, minWait, maxWait);
   }
 
   public CounterCacher(FacebookStatsReporter reporter, long minWait) {
@@ -124,30 +122,89 @@ public class CounterCacher {
     this(reporter, 1000);
   }
 
-  public void start() {
+  public synchronized void start() {
     if (running) {
       throw new IllegalStateException("start() called while already running!");
     }
 
-    thread = threadFactory.newThread(runnable);
-    thread.start();
+    LOG.log(Level.INFO, "Cacheing counters every " + minWait + " - " + maxWait + " msec");
+    executor =
+        sharedExecutor == null
+            ? Executors.newSingleThreadScheduledExecutor(threadFactory)
+            : sharedExecutor;
+    running = true;
+    generation++;
+    schedule(generation, 0);
   }
 
+  /**
+   * stops making counters. With its own thread, waits for the run in progress; a shared executor
+   * is left alone, so a run in progress there may still finish after this returns
+   */
   public void stop() {
-    if (!running) {
-      throw new IllegalStateException("stop() called while not running!");
+    ScheduledExecutorService ownExecutor;
+
+    synchronized (this) {
+      if (!running) {
+        throw new IllegalStateException("stop() called while not running!");
+      }
+
+      running = false;
+      future.cancel(false);
+      ownExecutor = executor == sharedExecutor ? null : executor;
+      executor = null;
     }
 
-    wantRunning = false;
-    thread.interrupt();
-    try {
-      thread.join();
-    } catch (InterruptedException iex) {
+    if (ownExecutor != null) {
+      ownExecutor.shutdownNow();
+
+      try {
+        ownExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException iex) {
+        Thread.currentThread().interrupt();
+      }
     }
-    thread = null;
   }
 
+  /** @return the counters from the last run; empty until the first one finishes */
   public Map<String, Long> getCounters() {
-    return counters;
+    return snapshot.getCounters();
+  }
+
+  /** @return the counters from the last run, and what changed */
+  public CounterSnapshot getSnapshot() {
+    return snapshot;
+  }
+
+  private void cacheCounters(long runGeneration) {
+    long startTime = System.currentTimeMillis();
+    Map<String, Long> counters = null;
+
+    try {
+      counters = reporter.makeCounters();
+    } catch (RuntimeException rex) {
+      LOG.log(Level.SEVERE, "RuntimeException thrown while running makeCounters()", rex);
+    }
+
+    long runTime = System.currentTimeMillis() - startTime;
+
+    synchronized (this) {
+      // a run left over from before a stop() and start() must not replace a newer snapshot
+      if (runGeneration != generation) {
+        return;
+      }
+
+      if (counters != null) {
+        snapshot = snapshot.next(counters);
+      }
+
+      schedule(runGeneration, Math.max(minWait, maxWait - runTime));
+    }
+  }
+
+  private synchronized void schedule(long runGeneration, long delay) {
+    if (running && runGeneration == generation) {
+      future = executor.schedule(() -> cacheCounters(runGeneration), delay, TimeUnit.MILLISECONDS);
+    }
   }
 }
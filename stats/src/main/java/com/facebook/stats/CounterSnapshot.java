@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.stats;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * immutable set of counters made by a {@link CounterCacher}, with what changed since the one
+ * before it. The version goes up by one each time the counters change, and only then, so a
+ * reporter that remembers the last snapshot it sent can send just the difference, or nothing.
+ */
+public class CounterSnapshot {
+  static final CounterSnapshot EMPTY =
+      new CounterSnapshot(
+          0, Collections.emptyMap(), Collections.emptyMap(), Collections.emptySet());
+
+  private final long version;
+  private final Map<String, Long> counters;
+  private final Map<String, Long> changed;
+  private final Set<String> removed;
+
+  private CounterSnapshot(
+      long version, Map<String, Long> counters, Map<String, Long> changed, Set<String> removed) {
+    this.version = version;
+    this.counters = counters;
+    this.changed = changed;
+    this.removed = removed;
+  }
+
+  /** @return snapshot of newCounters, or this one if they are the same */
+  CounterSnapshot next(Map<String, Long> newCounters) {
+    Map<String, Long> newChanged = changes(counters, newCounters);
+    Set<String> newRemoved = removals(counters, newCounters);
+
+    if (newChanged.isEmpty() && newRemoved.isEmpty()) {
+      return this;
+    }
+
+    return new CounterSnapshot(
+        version + 1,
+        Collections.unmodifiableMap(new HashMap<>(newCounters)),
+        Collections.unmodifiableMap(newChanged),
+        Collections.unmodifiableSet(newRemoved));
+  }
+
+  public long getVersion() {
+    return version;
+  }
+
+  public Map<String, Long> getCounters() {
+    return counters;
+  }
+
+  /** @return counters added or changed since the previous version */
+  public Map<String, Long> getChanged() {
+    return changed;
+  }
+
+  /** @return counters gone since the previous version */
+  public Set<String> getRemoved() {
+    return removed;
+  }
+
+  /**
+   * @param since an earlier snapshot from the same cacher, e.g. the last one a reporter sent
+   * @return counters added or changed since then
+   */
+  public Map<String, Long> getChangedSince(CounterSnapshot since) {
+    if (since.version == version - 1) {
+      return changed;
+    }
+
+    return Collections.unmodifiableMap(changes(since.counters, counters));
+  }
+
+  /**
+   * @param since an earlier snapshot from the same cacher
+   * @return counters gone since then
+   */
+  public Set<String> getRemovedSince(CounterSnapshot since) {
+    if (since.version == version - 1) {
+      return removed;
+    }
+
+    return Collections.unmodifiableSet(removals(since.counters, counters));
+  }
+
+  private static Map<String, Long> changes(Map<String, Long> from, Map<String, Long> to) {
+    Map<String, Long> result = new HashMap<>();
+
+    for (Map.Entry<String, Long> entry : to.entrySet()) {
+      String key = entry.getKey();
+
+      if (!from.containsKey(key) || !Objects.equals(from.get(key), entry.getValue())) {
+        result.put(entry.getKey(), entry.getValue());
+      }
+    }
+
+    return result;
+  }
+
+  private static Set<String> removals(Map<String, Long> from, Map<String, Long> to) {
+    Set<String> result = new HashSet<>();
+
+    for (String key : from.keySet()) {
+      if (!to.containsKey(key)) {
+        result.add(key);
+      }
+    }
+
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    return "CounterSnapshot{version="
+        + version
+        + ", counters="
+        + counters.size()
+        + ", changed="
+        + changed.size()
+        + ", removed="
+        + removed.size()
+        + '}';
+  }
+}
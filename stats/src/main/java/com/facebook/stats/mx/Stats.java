@@ -20,6 +20,7 @@ import com.facebook.logging.LoggerImpl;
 import com.facebook.stats.MultiWindowDistribution;
 import com.facebook.stats.MultiWindowRate;
 import com.facebook.stats.MultiWindowSpread;
+import com.facebook.stats.concurrent.HistogramStat;
 import com.facebook.stats.concurrent.RateStat;
 import com.facebook.stats.concurrent.SpreadStat;
 import com.facebook.stats.concurrent.Stat;
@@ -34,6 +35,8 @@ public class Stats implements StatsReader, StatsCollector {
   private static final Logger LOG = LoggerImpl.getClassLogger();
   private static final String ERROR_FLAG = "--ERROR--";
   private static final long ERROR_VALUE = -1;
+  private static final double[] HISTOGRAM_PERCENTILES = {50, 75, 95, 99, 99.9};
+  private static final String[] HISTOGRAM_PERCENTILE_KEYS = {"p50", "p75", "p95", "p99", "p999"};
 
   private final String prefix;
   private final ConcurrentMap<String, Callable<String>> attributes = new ConcurrentHashMap<>();
@@ -427,6 +430,41 @@ public class Stats implements StatsReader, StatsCollector {
         });
   }
 
+  /**
+   * percentiles of the values, with lock-free updates: exports key.p50, p75, p95, p99 and p999
+   * counters, and key.samples, for each window. The 24 counters share one computation of the
+   * windows per second
+   */
+  public Stat concurrentHistogram(String key) {
+    return concurrent.computeIfAbsent(
+        key,
+        k -> {
+          HistogramStat stat = new HistogramStat(key);
+
+          for (int i = 0; i < HISTOGRAM_PERCENTILES.length; ++i) {
+            double percentile = HISTOGRAM_PERCENTILES[i];
+            String percentileKey = key + "." + HISTOGRAM_PERCENTILE_KEYS[i];
+
+            addDynamicCounter(
+                percentileKey, () -> stat.getRecentPercentile(percentile).getAllTime());
+            addDynamicCounter(
+                percentileKey + ".3600", () -> stat.getRecentPercentile(percentile).getHour());
+            addDynamicCounter(
+                percentileKey + ".600",
+                () -> stat.getRecentPercentile(percentile).getTenMinute());
+            addDynamicCounter(
+                percentileKey + ".60", () -> stat.getRecentPercentile(percentile).getMinute());
+          }
+
+          addDynamicCounter(key + ".samples", () -> stat.getRecentSamples().getAllTime());
+          addDynamicCounter(key + ".samples.3600", () -> stat.getRecentSamples().getHour());
+          addDynamicCounter(key + ".samples.600", () -> stat.getRecentSamples().getTenMinute());
+          addDynamicCounter(key + ".samples.60", () -> stat.getRecentSamples().getMinute());
+
+          return stat;
+        });
+  }
+
   private Map<String, String> materializeAttributes() {
     Map<String, String> materializedAttributes = new HashMap<>();
 
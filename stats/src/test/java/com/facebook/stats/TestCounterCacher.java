@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.stats;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestCounterCacher {
+  @Test(groups = "fast")
+  public void testSnapshotChanges() throws Exception {
+    CounterSnapshot first = CounterSnapshot.EMPTY.next(ImmutableMap.of("a", 1L, "b", 2L));
+
+    Assert.assertEquals(first.getVersion(), 1);
+    Assert.assertEquals(first.getChanged(), ImmutableMap.of("a", 1L, "b", 2L));
+    Assert.assertSame(first.next(ImmutableMap.of("a", 1L, "b", 2L)), first);
+
+    CounterSnapshot second = first.next(ImmutableMap.of("a", 1L, "b", 3L, "c", 4L));
+
+    Assert.assertEquals(second.getVersion(), 2);
+    Assert.assertEquals(second.getChanged(), ImmutableMap.of("b", 3L, "c", 4L));
+    Assert.assertEquals(second.getRemoved(), Collections.emptySet());
+
+    CounterSnapshot third = second.next(ImmutableMap.of("b", 5L, "c", 4L));
+
+    Assert.assertEquals(third.getChanged(), ImmutableMap.of("b", 5L));
+    Assert.assertEquals(third.getRemoved(), ImmutableSet.of("a"));
+    // a reporter that skipped a version
+    Assert.assertEquals(third.getChangedSince(first), ImmutableMap.of("b", 5L, "c", 4L));
+    Assert.assertEquals(third.getRemovedSince(first), ImmutableSet.of("a"));
+    Assert.assertEquals(third.getChangedSince(CounterSnapshot.EMPTY), third.getCounters());
+  }
+
+  @Test(groups = "fast")
+  public void testSharedExecutor() throws Exception {
+    ScheduledExecutorService executor = new ScheduledThreadPoolExecutor(1);
+    CountingReporter changing = new CountingReporter(true);
+    CountingReporter constant = new CountingReporter(false);
+    CounterCacher changingCacher = new CounterCacher(changing, executor, 1, 1);
+    CounterCacher constantCacher = new CounterCacher(constant, executor, 1, 1);
+
+    try {
+      changingCacher.start();
+      constantCacher.start();
+
+      while (changing.calls.get() < 5 || constant.calls.get() < 5) {
+        Thread.sleep(1);
+      }
+
+      changingCacher.stop();
+      constantCacher.stop();
+      Assert.assertTrue(changingCacher.getSnapshot().getVersion() >= 4);
+      Assert.assertEquals(constantCacher.getSnapshot().getVersion(), 1);
+      Assert.assertEquals(constantCacher.getCounters(), ImmutableMap.of("constant", 1L));
+      Assert.assertFalse(executor.isShutdown());
+
+      try {
+        changingCacher.stop();
+        Assert.fail("expected IllegalStateException");
+      } catch (IllegalStateException e) {
+        // expected
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static class CountingReporter implements FacebookStatsReporter {
+    private final AtomicLong calls = new AtomicLong(0);
+    private final boolean changing;
+
+    private CountingReporter(boolean changing) {
+      this.changing = changing;
+    }
+
+    @Override
+    public Map<String, Long> makeCounters() {
+      long call = calls.incrementAndGet();
+
+      return changing ? ImmutableMap.of("calls", call) : ImmutableMap.of("constant", 1L);
+    }
+
+    @Override
+    public void deleteCounter(String key) {}
+
+    @Override
+    public void resetCounter(String key) {}
+
+    @Override
+    public long incrementCounter(String key) {
+      return 0;
+    }
+
+    @Override
+    public long incrementCounter(String key, long increment) {
+      return 0;
+    }
+
+    @Override
+    public long setCounter(String key, long value) {
+      return 0;
+    }
+
+    @Override
+    public void setExportedValue(String key, String value) {}
+
+    @Override
+    public void removeExportedValue(String key) {}
+  }
+}
@@ -262,6 +262,25 @@ public class TestStats {
             + "}");
   }
 
+  @Test(groups = "fast")
+  public void testConcurrentHistogramExports() {
+    Stat stat = stats.concurrentHistogram("test-concurrent");
+    Map<String, Long> actual = new TreeMap<>();
+
+    for (int value = 1; value <= 100; value++) {
+      stat.update(value);
+    }
+
+    stats.exportCounters(actual);
+    Assert.assertEquals(actual.size(), 24);
+    Assert.assertEquals(actual.get("test-concurrent.p50"), Long.valueOf(50));
+    Assert.assertEquals(actual.get("test-concurrent.p50.60"), Long.valueOf(50));
+    // 100 shares a bucket with 101
+    Assert.assertEquals(actual.get("test-concurrent.p999.3600"), Long.valueOf(101));
+    Assert.assertEquals(actual.get("test-concurrent.samples.600"), Long.valueOf(100));
+    Assert.assertSame(stats.concurrentHistogram("test-concurrent"), stat);
+  }
+
   /** Helper class for testing dynamic counters. */
   private static class LongWrapper implements Callable<Long> {
     private long value;
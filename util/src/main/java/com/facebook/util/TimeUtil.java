@@ -17,8 +17,8 @@ package com.facebook.util;
 
 import com.facebook.logging.Logger;
 import com.facebook.logging.LoggerImpl;
-import com.google.common.collect.ImmutableMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeUtils;
 import org.joda.time.DateTimeZone;
@@ -28,23 +28,17 @@ import org.joda.time.chrono.ISOChronology;
 public class TimeUtil {
   private static final Logger LOG = LoggerImpl.getLogger(TimeUtil.class);
 
-  // DateTimeZone.forID() and ISOChronology.getInstance() are very expensive,
-  // so we statically pre-compute a fast lookup table.
-  private static final Map<String, DateTimeZone> TIME_ZONE_MAP;
-  private static final Map<String, ISOChronology> CHRONOLOGY_MAP;
+  // DateTimeZone.forID() and ISOChronology.getInstance() are very expensive, so results are
+  // cached. Zones are loaded the first time they are asked for, not all at class load, so short
+  // lived tools only pay for the zones they use. See preloadTimeZones() to load them all up front.
+  private static final ConcurrentMap<String, DateTimeZone> TIME_ZONE_MAP =
+      new ConcurrentHashMap<>();
+  private static final ConcurrentMap<String, ISOChronology> CHRONOLOGY_MAP =
+      new ConcurrentHashMap<>();
 
   static {
-    ImmutableMap.Builder<String, DateTimeZone> timeZoneBuilder = new ImmutableMap.Builder<>();
-    ImmutableMap.Builder<String, ISOChronology> chronologyBuilder = new ImmutableMap.Builder<>();
-
-    for (Object id : DateTimeZone.getAvailableIDs()) {
-      String tz = (String) id;
-      DateTimeZone timeZone = DateTimeZone.forID(tz);
-      timeZoneBuilder.put(tz, timeZone);
-      chronologyBuilder.put(tz, ISOChronology.getInstance(timeZone));
-    }
-    TIME_ZONE_MAP = timeZoneBuilder.build();
-    CHRONOLOGY_MAP = chronologyBuilder.build();
+    TIME_ZONE_MAP.put(DateTimeZone.UTC.getID(), DateTimeZone.UTC);
+    CHRONOLOGY_MAP.put(DateTimeZone.UTC.getID(), ISOChronology.getInstanceUTC());
   }
 
   // utility method to log how long a chunk of code takes to run
@@ -79,18 +73,57 @@ public class TimeUtil {
     }
   }
 
+  /** @return null if dateTimeZoneStr is not a zone ID known to the tz database */
   public static DateTimeZone getDateTimeZone(String dateTimeZoneStr) {
     if ((dateTimeZoneStr == null) || dateTimeZoneStr.isEmpty()) {
       return DateTimeZone.UTC;
     }
-    return TIME_ZONE_MAP.get(dateTimeZoneStr);
+
+    DateTimeZone timeZone = TIME_ZONE_MAP.get(dateTimeZoneStr);
+
+    if (timeZone != null) {
+      return timeZone;
+    }
+
+    // forID() also accepts offsets such as "+05:00", which have never been looked up here.
+    // Unknown IDs are not cached, so arbitrary input cannot grow the map
+    if (!DateTimeZone.getAvailableIDs().contains(dateTimeZoneStr)) {
+      return null;
+    }
+
+    return TIME_ZONE_MAP.computeIfAbsent(dateTimeZoneStr, DateTimeZone::forID);
   }
 
+  /** @return null if dateTimeZoneStr is not a zone ID known to the tz database */
   public static ISOChronology getChronology(String dateTimeZoneStr) {
     if ((dateTimeZoneStr == null) || dateTimeZoneStr.isEmpty()) {
       dateTimeZoneStr = DateTimeZone.UTC.getID();
     }
-    return CHRONOLOGY_MAP.get(dateTimeZoneStr);
+
+    ISOChronology chronology = CHRONOLOGY_MAP.get(dateTimeZoneStr);
+
+    if (chronology != null) {
+      return chronology;
+    }
+
+    DateTimeZone timeZone = getDateTimeZone(dateTimeZoneStr);
+
+    if (timeZone == null) {
+      return null;
+    }
+
+    return CHRONOLOGY_MAP.computeIfAbsent(
+        dateTimeZoneStr, id -> ISOChronology.getInstance(timeZone));
+  }
+
+  /**
+   * loads every zone in the tz database, which takes hundreds of ms and several MB. For long
+   * running services that would rather pay that at startup than on the first request for a zone
+   */
+  public static void preloadTimeZones() {
+    for (String id : DateTimeZone.getAvailableIDs()) {
+      getChronology(id);
+    }
   }
 
   /**
@@ -16,6 +16,7 @@
 package com.facebook.util;
 
 import org.joda.time.DateTimeZone;
+import org.joda.time.chrono.ISOChronology;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
@@ -26,4 +27,29 @@ public class TestTimeUtil {
     Assert.assertEquals(TimeUtil.getDateTimeZone(null), DateTimeZone.UTC);
     Assert.assertEquals(TimeUtil.getDateTimeZone(""), DateTimeZone.UTC);
   }
+
+  @Test(groups = "fast")
+  public void testLazyLookup() throws Exception {
+    DateTimeZone timeZone = TimeUtil.getDateTimeZone("America/Los_Angeles");
+
+    Assert.assertEquals(timeZone, DateTimeZone.forID("America/Los_Angeles"));
+    Assert.assertSame(TimeUtil.getDateTimeZone("America/Los_Angeles"), timeZone);
+    Assert.assertSame(
+        TimeUtil.getChronology("America/Los_Angeles"), ISOChronology.getInstance(timeZone));
+    Assert.assertSame(TimeUtil.getChronology(null), ISOChronology.getInstanceUTC());
+  }
+
+  @Test(groups = "fast")
+  public void testUnknownZone() throws Exception {
+    Assert.assertNull(TimeUtil.getDateTimeZone("Nowhere/Special"));
+    Assert.assertNull(TimeUtil.getChronology("Nowhere/Special"));
+    // forID() accepts offsets, but they are not zone IDs
+    Assert.assertNull(TimeUtil.getDateTimeZone("+05:00"));
+  }
+
+  @Test(groups = "fast")
+  public void testPreload() throws Exception {
+    TimeUtil.preloadTimeZones();
+    Assert.assertEquals(TimeUtil.getDateTimeZone("Asia/Tokyo"), DateTimeZone.forID("Asia/Tokyo"));
+  }
 }